@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.azyva.dragom.model.config.impl.jpa.JpaConfig;
+
+/**
+ * Creates EntityManagerFactory's over embedded in-memory H2 DBs for the
+ * benchmarks.
+ * <p>
+ * Each EntityManagerFactory uses its own DB so that benchmarks and trials do not
+ * see each other's data. The schema is created from the mapping when the
+ * EntityManagerFactory is created.
+ *
+ * @author David Raymond
+ */
+public final class BenchmarkDatabase {
+  /**
+   * Persistence unit defined in META-INF/persistence.xml.
+   */
+  private static final String PERSISTENCE_UNIT = "dragom-benchmark";
+
+  /**
+   * Used to generate unique DB names.
+   */
+  private static final AtomicInteger dbCounter = new AtomicInteger();
+
+  /**
+   * Prevents instantiation.
+   */
+  private BenchmarkDatabase() {
+  }
+
+  /**
+   * Creates an EntityManagerFactory over a new empty DB.
+   * <p>
+   * The DB lives until the EntityManagerFactory is closed.
+   *
+   * @return EntityManagerFactory.
+   */
+  public static EntityManagerFactory createEntityManagerFactory() {
+    Map<String, String> mapProperty;
+
+    mapProperty = new HashMap<String, String>();
+
+    // DB_CLOSE_DELAY=-1 keeps the DB while no connection is open, which happens
+    // between operations since EntityManager's are not kept open.
+    mapProperty.put("javax.persistence.jdbc.url", "jdbc:h2:mem:dragom-benchmark-" + BenchmarkDatabase.dbCounter.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+    return Persistence.createEntityManagerFactory(BenchmarkDatabase.PERSISTENCE_UNIT, mapProperty);
+  }
+
+  /**
+   * Creates an EntityManagerFactory over a new DB populated with a synthetic
+   * model.
+   *
+   * @param syntheticModelGenerator SyntheticModelGenerator.
+   * @return EntityManagerFactory.
+   */
+  public static EntityManagerFactory createPopulatedEntityManagerFactory(SyntheticModelGenerator syntheticModelGenerator) {
+    EntityManagerFactory entityManagerFactory;
+
+    entityManagerFactory = BenchmarkDatabase.createEntityManagerFactory();
+
+    syntheticModelGenerator.generate(new JpaConfig(entityManagerFactory));
+
+    return entityManagerFactory;
+  }
+}
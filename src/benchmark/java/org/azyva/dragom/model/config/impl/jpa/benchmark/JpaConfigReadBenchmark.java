@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.azyva.dragom.model.config.PluginDefConfig;
+import org.azyva.dragom.model.config.PropertyDefConfig;
+import org.azyva.dragom.model.config.impl.jpa.JpaConfig;
+import org.azyva.dragom.model.plugin.NodePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the read paths of {@link JpaConfig} and the NodeConfig it holds,
+ * over a synthetic model generated by {@link SyntheticModelGenerator} in an
+ * embedded H2 DB.
+ * <p>
+ * The DB is populated once per trial for each combination of depth and fan-out.
+ *
+ * @author David Raymond
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpaConfigReadBenchmark {
+  /**
+   * Number of properties of each node.
+   */
+  private static final int PROPERTY_COUNT = 10;
+
+  /**
+   * Number of plugins of each node.
+   */
+  private static final int PLUGIN_COUNT = 5;
+
+  /**
+   * Depth of the model, not counting the root.
+   */
+  @Param({"2", "4"})
+  public int depth;
+
+  /**
+   * Fan-out of the model.
+   */
+  @Param({"5", "10"})
+  public int fanOut;
+
+  /**
+   * EntityManagerFactory over the populated DB.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * JpaConfig whose whole tree is loaded, used by hot benchmarks.
+   */
+  private JpaConfig jpaConfigLoaded;
+
+  /**
+   * A ModuleConfig at the deepest level, used by hot lookup benchmarks.
+   */
+  private NodeConfig nodeConfigLeaf;
+
+  /**
+   * Name of the property looked up by {@link #hotGetPropertyDefConfig}.
+   */
+  private String propertyName;
+
+  /**
+   * ID of the plugin looked up by {@link #hotGetPluginDefConfig}.
+   */
+  private String pluginId;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    NodeConfig nodeConfig;
+
+    this.entityManagerFactory = BenchmarkDatabase.createPopulatedEntityManagerFactory(new SyntheticModelGenerator(this.depth, this.fanOut, JpaConfigReadBenchmark.PROPERTY_COUNT, JpaConfigReadBenchmark.PLUGIN_COUNT));
+
+    this.jpaConfigLoaded = new JpaConfig(this.entityManagerFactory);
+    SyntheticModelGenerator.traverse(this.jpaConfigLoaded.getClassificationNodeConfigRoot());
+
+    nodeConfig = this.jpaConfigLoaded.getClassificationNodeConfigRoot();
+
+    while (nodeConfig instanceof ClassificationNodeConfig) {
+      nodeConfig = ((ClassificationNodeConfig)nodeConfig).getListChildNodeConfig().get(this.fanOut - 1);
+    }
+
+    this.nodeConfigLeaf = nodeConfig;
+    this.propertyName = SyntheticModelGenerator.PROPERTY_PREFIX + (JpaConfigReadBenchmark.PROPERTY_COUNT - 1);
+    this.pluginId = SyntheticModelGenerator.PLUGIN_ID_PREFIX + (JpaConfigReadBenchmark.PLUGIN_COUNT - 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * Loads the root ClassificationNodeConfig in a new JpaConfig.
+   *
+   * @return Root ClassificationNodeConfig.
+   */
+  @Benchmark
+  public ClassificationNodeConfig coldRootLoad() {
+    return new JpaConfig(this.entityManagerFactory).getClassificationNodeConfigRoot();
+  }
+
+  /**
+   * Traverses the whole tree in a new JpaConfig, loading each level lazily.
+   *
+   * @return Number of NodeConfig traversed.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int coldTreeTraversal() {
+    return SyntheticModelGenerator.traverse(new JpaConfig(this.entityManagerFactory).getClassificationNodeConfigRoot());
+  }
+
+  /**
+   * Traverses the whole tree in a new JpaConfig using bulk loading.
+   *
+   * @return Number of NodeConfig traversed.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int coldTreeTraversalBulkLoad() {
+    return SyntheticModelGenerator.traverse(new JpaConfig(this.entityManagerFactory, true).getClassificationNodeConfigRoot());
+  }
+
+  /**
+   * Traverses the whole tree already loaded in memory.
+   *
+   * @return Number of NodeConfig traversed.
+   */
+  @Benchmark
+  public int hotTreeTraversal() {
+    return SyntheticModelGenerator.traverse(this.jpaConfigLoaded.getClassificationNodeConfigRoot());
+  }
+
+  /**
+   * Traverses the whole tree already loaded in memory from concurrent threads.
+   *
+   * @return Number of NodeConfig traversed.
+   */
+  @Benchmark
+  @Threads(4)
+  public int hotTreeTraversalConcurrent() {
+    return SyntheticModelGenerator.traverse(this.jpaConfigLoaded.getClassificationNodeConfigRoot());
+  }
+
+  /**
+   * Looks up a property of a loaded NodeConfig.
+   *
+   * @return PropertyDefConfig.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public PropertyDefConfig hotGetPropertyDefConfig() {
+    return this.nodeConfigLeaf.getPropertyDefConfig(this.propertyName);
+  }
+
+  /**
+   * Looks up a plugin of a loaded NodeConfig.
+   *
+   * @return PluginDefConfig.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public PluginDefConfig hotGetPluginDefConfig() {
+    return this.nodeConfigLeaf.getPluginDefConfig(NodePlugin.class, this.pluginId);
+  }
+
+  /**
+   * Looks up a property and a plugin of a loaded NodeConfig from concurrent
+   * threads.
+   *
+   * @return PluginDefConfig.
+   */
+  @Benchmark
+  @Threads(4)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public PluginDefConfig hotLookupConcurrent() {
+    this.nodeConfigLeaf.getPropertyDefConfig(this.propertyName);
+    return this.nodeConfigLeaf.getPluginDefConfig(NodePlugin.class, this.pluginId);
+  }
+}
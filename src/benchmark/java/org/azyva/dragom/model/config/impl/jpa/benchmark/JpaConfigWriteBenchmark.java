@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.impl.jpa.JpaConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the creation of subtrees through
+ * {@link MutableClassificationNodeConfig}, individually and in batch.
+ * <p>
+ * Each invocation creates a new subtree with a unique name prefix below the root
+ * of a DB created for the trial, so the DB grows during the trial.
+ *
+ * @author David Raymond
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpaConfigWriteBenchmark {
+  /**
+   * Number of properties of each node.
+   */
+  private static final int PROPERTY_COUNT = 10;
+
+  /**
+   * Number of plugins of each node.
+   */
+  private static final int PLUGIN_COUNT = 5;
+
+  /**
+   * Depth of the created subtree.
+   */
+  @Param({"2"})
+  public int depth;
+
+  /**
+   * Fan-out of the created subtree.
+   */
+  @Param({"5", "10"})
+  public int fanOut;
+
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * JpaConfig.
+   */
+  private JpaConfig jpaConfig;
+
+  /**
+   * SyntheticModelGenerator for the subtrees.
+   */
+  private SyntheticModelGenerator syntheticModelGenerator;
+
+  /**
+   * Used to generate unique name prefixes.
+   */
+  private int subtreeCounter;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.entityManagerFactory = BenchmarkDatabase.createEntityManagerFactory();
+    this.jpaConfig = new JpaConfig(this.entityManagerFactory);
+    this.syntheticModelGenerator = new SyntheticModelGenerator(this.depth, this.fanOut, JpaConfigWriteBenchmark.PROPERTY_COUNT, JpaConfigWriteBenchmark.PLUGIN_COUNT);
+
+    // Only the root.
+    new SyntheticModelGenerator(1, 0, 0, 0).generate(this.jpaConfig);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * Creates a subtree calling setNodeConfigTransferObject for each node, each in
+   * its own transaction.
+   *
+   * @return Number of nodes created.
+   */
+  @Benchmark
+  public int createSubtreeIndividually() {
+    return this.syntheticModelGenerator.generateSubtreeIndividually(this.getRoot(), this.nextNamePrefix());
+  }
+
+  /**
+   * Creates a subtree within a single JpaBatchSession.
+   *
+   * @return Number of nodes created.
+   */
+  @Benchmark
+  public int createSubtreeBatch() {
+    return this.syntheticModelGenerator.generateSubtree(this.jpaConfig, this.getRoot(), this.nextNamePrefix());
+  }
+
+  /**
+   * @return Root MutableClassificationNodeConfig.
+   */
+  private MutableClassificationNodeConfig getRoot() {
+    return (MutableClassificationNodeConfig)this.jpaConfig.getClassificationNodeConfigRoot();
+  }
+
+  /**
+   * @return Unique name prefix. Benchmark methods are called by a single thread.
+   */
+  private String nextNamePrefix() {
+    return "subtree-" + (this.subtreeCounter++) + "-";
+  }
+}
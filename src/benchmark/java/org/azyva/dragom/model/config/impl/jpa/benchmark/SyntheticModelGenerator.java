@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa.benchmark;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.azyva.dragom.model.config.NodeConfigTransferObject;
+import org.azyva.dragom.model.config.impl.jpa.JpaBatchSession;
+import org.azyva.dragom.model.config.impl.jpa.JpaConfig;
+import org.azyva.dragom.model.config.impl.simple.SimpleNodeConfigTransferObject;
+import org.azyva.dragom.model.config.impl.simple.SimplePluginDefConfig;
+import org.azyva.dragom.model.config.impl.simple.SimplePropertyDefConfig;
+import org.azyva.dragom.model.plugin.NodePlugin;
+
+/**
+ * Generates a synthetic model of a given depth and fan-out.
+ * <p>
+ * Each {@link ClassificationNodeConfig} at a level lower than the depth has
+ * fanOut child ClassificationNodeConfig. Those at the last level have fanOut
+ * child ModuleConfig. Each node has propertyCount properties named
+ * {@link #PROPERTY_PREFIX} followed by an index and pluginCount plugins of
+ * {@link NodePlugin} with IDs {@link #PLUGIN_ID_PREFIX} followed by an index.
+ *
+ * @author David Raymond
+ */
+public class SyntheticModelGenerator {
+  /**
+   * Prefix of property names.
+   */
+  public static final String PROPERTY_PREFIX = "PROPERTY_";
+
+  /**
+   * Prefix of plugin IDs.
+   */
+  public static final String PLUGIN_ID_PREFIX = "plugin-";
+
+  /**
+   * Depth, not counting the root.
+   */
+  private int depth;
+
+  /**
+   * Number of children of each ClassificationNodeConfig.
+   */
+  private int fanOut;
+
+  /**
+   * Number of properties of each node.
+   */
+  private int propertyCount;
+
+  /**
+   * Number of plugins of each node.
+   */
+  private int pluginCount;
+
+  /**
+   * Constructor.
+   *
+   * @param depth Depth, not counting the root. Must be at least 1.
+   * @param fanOut Number of children of each ClassificationNodeConfig.
+   * @param propertyCount Number of properties of each node.
+   * @param pluginCount Number of plugins of each node.
+   */
+  public SyntheticModelGenerator(int depth, int fanOut, int propertyCount, int pluginCount) {
+    if (depth < 1) {
+      throw new RuntimeException("depth must be at least 1.");
+    }
+
+    this.depth = depth;
+    this.fanOut = fanOut;
+    this.propertyCount = propertyCount;
+    this.pluginCount = pluginCount;
+  }
+
+  /**
+   * @return Number of nodes generated below a parent, excluding the parent.
+   */
+  public int getSubtreeNodeCount() {
+    int count;
+    int levelCount;
+
+    count = 0;
+    levelCount = 1;
+
+    for(int level = 1; level <= this.depth; level++) {
+      levelCount *= this.fanOut;
+      count += levelCount;
+    }
+
+    return count;
+  }
+
+  /**
+   * Generates the model in an empty {@link JpaConfig}, including the root, within
+   * a single {@link JpaBatchSession}.
+   *
+   * @param jpaConfig JpaConfig.
+   * @return Number of nodes generated, including the root.
+   */
+  public int generate(JpaConfig jpaConfig) {
+    JpaBatchSession jpaBatchSession;
+    MutableClassificationNodeConfig mutableClassificationNodeConfigRoot;
+    int count;
+
+    jpaBatchSession = jpaConfig.createBatchSession();
+    mutableClassificationNodeConfigRoot = jpaConfig.createMutableClassificationNodeConfigRoot();
+    jpaBatchSession.setNodeConfigTransferObject(mutableClassificationNodeConfigRoot, this.createNodeConfigTransferObject(null), null);
+    count = 1 + this.generateChildren(jpaBatchSession, mutableClassificationNodeConfigRoot, 1, "");
+    jpaBatchSession.commit();
+
+    return count;
+  }
+
+  /**
+   * Generates a subtree below an existing parent within a single
+   * {@link JpaBatchSession}.
+   *
+   * @param jpaConfig JpaConfig.
+   * @param mutableClassificationNodeConfigParent Parent.
+   * @param namePrefix Prefix of the names of the generated nodes, making them
+   *   unique within the parent.
+   * @return Number of nodes generated.
+   */
+  public int generateSubtree(JpaConfig jpaConfig, MutableClassificationNodeConfig mutableClassificationNodeConfigParent, String namePrefix) {
+    JpaBatchSession jpaBatchSession;
+    int count;
+
+    jpaBatchSession = jpaConfig.createBatchSession();
+    count = this.generateChildren(jpaBatchSession, mutableClassificationNodeConfigParent, 1, namePrefix);
+    jpaBatchSession.commit();
+
+    return count;
+  }
+
+  /**
+   * Generates a subtree below an existing parent, calling
+   * {@link MutableNodeConfig#setNodeConfigTransferObject} individually for each
+   * node, each in its own transaction.
+   *
+   * @param mutableClassificationNodeConfigParent Parent.
+   * @param namePrefix Prefix of the names of the generated nodes, making them
+   *   unique within the parent.
+   * @return Number of nodes generated.
+   */
+  public int generateSubtreeIndividually(MutableClassificationNodeConfig mutableClassificationNodeConfigParent, String namePrefix) {
+    return this.generateChildren(null, mutableClassificationNodeConfigParent, 1, namePrefix);
+  }
+
+  /**
+   * Generates the children of a parent, recursively.
+   *
+   * @param jpaBatchSession JpaBatchSession. If null, each node is created
+   *   individually.
+   * @param mutableClassificationNodeConfigParent Parent.
+   * @param level Level of the children.
+   * @param namePrefix Prefix of the names.
+   * @return Number of nodes generated.
+   */
+  private int generateChildren(JpaBatchSession jpaBatchSession, MutableClassificationNodeConfig mutableClassificationNodeConfigParent, int level, String namePrefix) {
+    int count;
+
+    count = 0;
+
+    for(int i = 0; i < this.fanOut; i++) {
+      MutableNodeConfig mutableNodeConfigChild;
+      NodeConfigTransferObject nodeConfigTransferObject;
+
+      if (level < this.depth) {
+        mutableNodeConfigChild = mutableClassificationNodeConfigParent.createChildMutableClassificationNodeConfig();
+      } else {
+        mutableNodeConfigChild = mutableClassificationNodeConfigParent.createChildMutableModuleConfig();
+      }
+
+      nodeConfigTransferObject = this.createNodeConfigTransferObject(namePrefix + "node-" + level + "-" + i);
+
+      if (jpaBatchSession == null) {
+        mutableNodeConfigChild.setNodeConfigTransferObject(nodeConfigTransferObject, null);
+      } else {
+        jpaBatchSession.setNodeConfigTransferObject(mutableNodeConfigChild, nodeConfigTransferObject, null);
+      }
+
+      count++;
+
+      if (level < this.depth) {
+        count += this.generateChildren(jpaBatchSession, (MutableClassificationNodeConfig)mutableNodeConfigChild, level + 1, namePrefix);
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Creates the NodeConfigTransferObject for a node.
+   *
+   * @param name Name. null for the root.
+   * @return NodeConfigTransferObject.
+   */
+  private NodeConfigTransferObject createNodeConfigTransferObject(String name) {
+    NodeConfigTransferObject nodeConfigTransferObject;
+
+    nodeConfigTransferObject = new SimpleNodeConfigTransferObject();
+    nodeConfigTransferObject.setName(name);
+
+    for(int i = 0; i < this.propertyCount; i++) {
+      nodeConfigTransferObject.setPropertyDefConfig(new SimplePropertyDefConfig(SyntheticModelGenerator.PROPERTY_PREFIX + i, "value-" + i, false));
+    }
+
+    for(int i = 0; i < this.pluginCount; i++) {
+      nodeConfigTransferObject.setPluginDefConfig(new SimplePluginDefConfig(NodePlugin.class, SyntheticModelGenerator.PLUGIN_ID_PREFIX + i, "org.azyva.dragom.benchmark.Plugin" + i, false));
+    }
+
+    return nodeConfigTransferObject;
+  }
+
+  /**
+   * Traverses a tree of {@link NodeConfig} through
+   * {@link ClassificationNodeConfig#getListChildNodeConfig}.
+   *
+   * @param nodeConfig Root of the tree.
+   * @return Number of NodeConfig traversed, including nodeConfig.
+   */
+  public static int traverse(NodeConfig nodeConfig) {
+    int count;
+
+    count = 1;
+
+    if (nodeConfig instanceof ClassificationNodeConfig) {
+      for(NodeConfig nodeConfigChild: ((ClassificationNodeConfig)nodeConfig).getListChildNodeConfig()) {
+        count += SyntheticModelGenerator.traverse(nodeConfigChild);
+      }
+    }
+
+    return count;
+  }
+}
@@ -19,6 +19,10 @@
 
 package org.azyva.dragom.model.config.impl.jpa;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.persistence.AttributeConverter;
 
 import org.azyva.dragom.model.config.impl.simple.SimplePluginDefConfig;
@@ -29,9 +33,81 @@ import org.azyva.dragom.model.plugin.NodePlugin;
  *
  * <p>Used for the {@link NodePlugin} classes in {@link SimplePluginDefConfig}.
  *
+ * <p>Since this conversion is performed for each plugin row loaded, resolved
+ * classes are cached by name so that the ClassLoader, whose lookups are
+ * synchronized, is not involved each time. The classes are weakly referenced so
+ * that their ClassLoader can still be unloaded, in which case they are simply
+ * resolved again. Class names which cannot be resolved are also cached so that a
+ * misconfigured model fails fast.
+ *
+ * <p>The JPA provider instantiates this class itself, so the cache and the
+ * ClassLoader used for resolution are static. See {@link #setClassLoader}.
+ *
  * @author David Raymond
  */
 public class ClassAttributeConverter implements AttributeConverter<Class<?>, String> {
+  /**
+   * Result of the resolution of a class name.
+   */
+  private static class Resolution {
+    /**
+     * Resolved class. null if the class name could not be resolved.
+     */
+    final WeakReference<Class<?>> weakReferenceClass;
+
+    /**
+     * Message explaining why the class name could not be resolved. null if
+     * resolved.
+     */
+    final String failureMessage;
+
+    /**
+     * Constructor.
+     *
+     * @param clazz Resolved class. null if the class name could not be resolved.
+     * @param failureMessage Failure message. null if resolved.
+     */
+    Resolution(Class<?> clazz, String failureMessage) {
+      this.weakReferenceClass = (clazz == null) ? null : new WeakReference<Class<?>>(clazz);
+      this.failureMessage = failureMessage;
+    }
+  }
+
+  /**
+   * ClassLoader used to resolve class names. null to use the ClassLoader of this
+   * class.
+   */
+  private static volatile ClassLoader classLoader;
+
+  /**
+   * Map of class names to Resolution.
+   */
+  private static final ConcurrentMap<String, Resolution> mapResolution = new ConcurrentHashMap<String, Resolution>();
+
+  /**
+   * Sets the ClassLoader used to resolve class names.
+   *
+   * <p>The cache is cleared since its contents may not correspond to the new
+   * ClassLoader. The ClassLoader itself is strongly referenced, so it must be
+   * reset to null for it to be unloaded.
+   *
+   * @param classLoader ClassLoader. null to use the ClassLoader of this class,
+   *   which is the default.
+   */
+  public static void setClassLoader(ClassLoader classLoader) {
+    ClassAttributeConverter.classLoader = classLoader;
+    ClassAttributeConverter.mapResolution.clear();
+  }
+
+  /**
+   * Clears the cache.
+   *
+   * <p>Useful if classes which could not be resolved were made available since.
+   */
+  public static void clearCache() {
+    ClassAttributeConverter.mapResolution.clear();
+  }
+
   @Override
   public String convertToDatabaseColumn(Class<?> clazz) {
     return clazz.getName();
@@ -39,10 +115,57 @@ public class ClassAttributeConverter implements AttributeConverter<Class<?>, Str
 
   @Override
   public Class<?> convertToEntityAttribute(String stringClass) {
+    Resolution resolution;
+    Class<?> clazz;
+
+    resolution = ClassAttributeConverter.mapResolution.get(stringClass);
+
+    if (resolution != null) {
+      if (resolution.failureMessage != null) {
+        throw new RuntimeException(resolution.failureMessage);
+      }
+
+      clazz = resolution.weakReferenceClass.get();
+
+      if (clazz != null) {
+        return clazz;
+      }
+    }
+
+    // Concurrent callers may resolve the same class name more than once, which is
+    // harmless.
+    return ClassAttributeConverter.resolve(stringClass);
+  }
+
+  /**
+   * Resolves a class name and caches the Resolution.
+   *
+   * @param stringClass Class name.
+   * @return Class.
+   */
+  private static Class<?> resolve(String stringClass) {
+    ClassLoader classLoader;
+    Class<?> clazz;
+
+    classLoader = ClassAttributeConverter.classLoader;
+
+    if (classLoader == null) {
+      classLoader = ClassAttributeConverter.class.getClassLoader();
+    }
+
     try {
-      return Class.forName(stringClass);
+      clazz = Class.forName(stringClass, true, classLoader);
     } catch (ClassNotFoundException cnfe) {
-      throw new RuntimeException(cnfe);
+      String failureMessage;
+
+      failureMessage = "Class " + stringClass + " referenced by a plugin definition cannot be found using ClassLoader " + classLoader + ".";
+      ClassAttributeConverter.mapResolution.put(stringClass, new Resolution(null, failureMessage));
+
+      throw new RuntimeException(failureMessage, cnfe);
     }
+
+    ClassAttributeConverter.mapResolution.put(stringClass, new Resolution(clazz, null));
+
+    return clazz;
   }
-}
\ No newline at end of file
+}
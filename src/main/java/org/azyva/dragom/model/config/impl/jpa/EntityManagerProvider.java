@@ -0,0 +1,400 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+
+/**
+ * Manages the lifecycle of the EntityManager's used by {@link JpaConfig} and the
+ * {@link JpaNodeConfig} it holds.
+ * <p>
+ * Every EntityManager obtained from an EntityManagerProvider is released to it
+ * when the operation is complete, and the EntityManagerProvider guarantees it
+ * is eventually closed. This avoids leaking persistence contexts and the JDBC
+ * connections they may hold.
+ * <p>
+ * Two {@link Mode}'s are supported. In both of them, EntityManager's for
+ * modifications (see {@link JpaBatchSession}) are created for each operation
+ * and closed after it. The Mode only affects read operations.
+ * <p>
+ * Counts of EntityManager's are maintained so that leaks can be detected.
+ * <p>
+ * The {@link JpaConfigMetrics} used by the JpaConfig sharing the
+ * EntityManagerProvider is also held here.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author David Raymond
+ */
+public class EntityManagerProvider {
+  /**
+   * Mode of an EntityManagerProvider.
+   */
+  public enum Mode {
+    /**
+     * A new EntityManager is created for each read operation and closed after
+     * it.
+     */
+    PER_OPERATION,
+
+    /**
+     * EntityManager's for read operations are kept in a bounded pool and reused.
+     * They are cleared when released so that the persistence context does not
+     * grow and returned entities are detached, as in PER_OPERATION mode.
+     * EntityManager's in excess of the pool size are closed.
+     */
+    REUSABLE_READ_ONLY
+  }
+
+  /**
+   * Default maximum number of idle EntityManager's kept in the pool in
+   * REUSABLE_READ_ONLY Mode.
+   */
+  private static final int DEFAULT_MAX_IDLE = 8;
+
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * Mode.
+   */
+  private Mode mode;
+
+  /**
+   * Maximum number of idle EntityManager's kept in the pool.
+   */
+  private int maxIdle;
+
+  /**
+   * Idle read-only EntityManager's.
+   */
+  private Deque<EntityManager> dequeEntityManagerIdle;
+
+  /**
+   * Number of EntityManager's created and not yet closed, including idle ones.
+   */
+  private int openCount;
+
+  /**
+   * Number of EntityManager's acquired and not yet released.
+   */
+  private int inUseCount;
+
+  /**
+   * Total number of EntityManager's created.
+   */
+  private long createdCount;
+
+  /**
+   * Indicates the EntityManagerProvider was closed.
+   */
+  private boolean indClosed;
+
+  /**
+   * JpaConfigMetrics.
+   */
+  private volatile JpaConfigMetrics jpaConfigMetrics = JpaConfigMetrics.NO_OP;
+
+  /**
+   * Constructor for PER_OPERATION Mode.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   */
+  public EntityManagerProvider(EntityManagerFactory entityManagerFactory) {
+    this(entityManagerFactory, Mode.PER_OPERATION, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   * @param mode Mode.
+   */
+  public EntityManagerProvider(EntityManagerFactory entityManagerFactory, Mode mode) {
+    this(entityManagerFactory, mode, EntityManagerProvider.DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   * @param mode Mode.
+   * @param maxIdle Maximum number of idle EntityManager's kept in the pool in
+   *   REUSABLE_READ_ONLY Mode. Ignored in PER_OPERATION Mode.
+   */
+  public EntityManagerProvider(EntityManagerFactory entityManagerFactory, Mode mode, int maxIdle) {
+    if (maxIdle < 0) {
+      throw new RuntimeException("maxIdle must not be negative.");
+    }
+
+    this.entityManagerFactory = entityManagerFactory;
+    this.mode = mode;
+    this.maxIdle = (mode == Mode.REUSABLE_READ_ONLY) ? maxIdle : 0;
+    this.dequeEntityManagerIdle = new ArrayDeque<EntityManager>();
+  }
+
+  /**
+   * @return EntityManagerFactory.
+   */
+  public EntityManagerFactory getEntityManagerFactory() {
+    return this.entityManagerFactory;
+  }
+
+  /**
+   * @return Mode.
+   */
+  public Mode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * @return JpaConfigMetrics. {@link JpaConfigMetrics#NO_OP} by default.
+   */
+  public JpaConfigMetrics getJpaConfigMetrics() {
+    return this.jpaConfigMetrics;
+  }
+
+  /**
+   * Sets the JpaConfigMetrics.
+   * <p>
+   * {@link JpaNodeConfig} obtain the JpaConfigMetrics when they are created, so
+   * this method should be called before the JpaConfig sharing this
+   * EntityManagerProvider are used.
+   *
+   * @param jpaConfigMetrics JpaConfigMetrics. null for
+   *   {@link JpaConfigMetrics#NO_OP}.
+   */
+  public void setJpaConfigMetrics(JpaConfigMetrics jpaConfigMetrics) {
+    this.jpaConfigMetrics = (jpaConfigMetrics == null) ? JpaConfigMetrics.NO_OP : jpaConfigMetrics;
+  }
+
+  /**
+   * Acquires an EntityManager for a read operation. It must be released with
+   * {@link #releaseReadOnlyEntityManager}, generally in a finally block.
+   * <p>
+   * The caller must not modify entities nor start a transaction.
+   *
+   * @return EntityManager.
+   */
+  EntityManager acquireReadOnlyEntityManager() {
+    EntityManager entityManager;
+
+    synchronized(this) {
+      this.checkNotClosed();
+
+      this.inUseCount++;
+
+      entityManager = this.dequeEntityManagerIdle.pollFirst();
+
+      if (entityManager != null) {
+        return entityManager;
+      }
+    }
+
+    entityManager = this.createEntityManager();
+
+    // Nothing is ever flushed since nothing is modified, but this avoids useless
+    // dirty checking before queries.
+    entityManager.setFlushMode(FlushModeType.COMMIT);
+
+    return entityManager;
+  }
+
+  /**
+   * Releases an EntityManager acquired with
+   * {@link #acquireReadOnlyEntityManager}.
+   * <p>
+   * It is either cleared and returned to the pool, or closed.
+   *
+   * @param entityManager EntityManager.
+   */
+  void releaseReadOnlyEntityManager(EntityManager entityManager) {
+    boolean indReuse;
+
+    try {
+      indReuse = entityManager.isOpen() && !entityManager.getTransaction().isActive();
+
+      if (indReuse) {
+        entityManager.clear();
+      }
+    } catch (RuntimeException re) {
+      // The EntityManager is in an unexpected state and is simply closed below.
+      indReuse = false;
+    }
+
+    synchronized(this) {
+      this.inUseCount--;
+
+      if (indReuse && !this.indClosed && (this.dequeEntityManagerIdle.size() < this.maxIdle)) {
+        this.dequeEntityManagerIdle.addFirst(entityManager);
+        return;
+      }
+    }
+
+    this.closeEntityManager(entityManager);
+  }
+
+  /**
+   * Acquires an EntityManager for a modification operation. It must be released
+   * with {@link #releaseEntityManager}, generally in a finally block.
+   *
+   * @return EntityManager.
+   */
+  EntityManager acquireEntityManager() {
+    synchronized(this) {
+      this.checkNotClosed();
+
+      this.inUseCount++;
+    }
+
+    return this.createEntityManager();
+  }
+
+  /**
+   * Releases an EntityManager acquired with {@link #acquireEntityManager}. It is
+   * closed.
+   *
+   * @param entityManager EntityManager.
+   */
+  void releaseEntityManager(EntityManager entityManager) {
+    synchronized(this) {
+      this.inUseCount--;
+    }
+
+    this.closeEntityManager(entityManager);
+  }
+
+  /**
+   * @return Number of EntityManager's currently open, including idle ones in the
+   *   pool.
+   */
+  public synchronized int getOpenCount() {
+    return this.openCount;
+  }
+
+  /**
+   * @return Number of EntityManager's currently acquired and not yet released.
+   */
+  public synchronized int getInUseCount() {
+    return this.inUseCount;
+  }
+
+  /**
+   * @return Number of idle EntityManager's in the pool.
+   */
+  public synchronized int getIdleCount() {
+    return this.dequeEntityManagerIdle.size();
+  }
+
+  /**
+   * @return Total number of EntityManager's created since this
+   *   EntityManagerProvider was created.
+   */
+  public synchronized long getCreatedCount() {
+    return this.createdCount;
+  }
+
+  /**
+   * Closes this EntityManagerProvider.
+   * <p>
+   * Idle EntityManager's are closed immediately. EntityManager's in use are
+   * closed when released. No EntityManager can be acquired afterwards.
+   * <p>
+   * The EntityManagerFactory is not closed since it is owned by the caller.
+   */
+  public void close() {
+    Deque<EntityManager> dequeEntityManagerIdle;
+
+    synchronized(this) {
+      this.indClosed = true;
+      dequeEntityManagerIdle = this.dequeEntityManagerIdle;
+      this.dequeEntityManagerIdle = new ArrayDeque<EntityManager>();
+    }
+
+    for(EntityManager entityManager: dequeEntityManagerIdle) {
+      this.closeEntityManager(entityManager);
+    }
+  }
+
+  /**
+   * Creates an EntityManager, maintaining the counts.
+   * <p>
+   * inUseCount must have been incremented by the caller.
+   *
+   * @return EntityManager.
+   */
+  private EntityManager createEntityManager() {
+    EntityManager entityManager;
+
+    try {
+      entityManager = this.entityManagerFactory.createEntityManager();
+    } catch (RuntimeException re) {
+      synchronized(this) {
+        this.inUseCount--;
+      }
+
+      throw re;
+    }
+
+    synchronized(this) {
+      this.openCount++;
+      this.createdCount++;
+    }
+
+    this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.ENTITY_MANAGER_OPEN);
+
+    return entityManager;
+  }
+
+  /**
+   * Closes an EntityManager, maintaining the counts.
+   *
+   * @param entityManager EntityManager.
+   */
+  private void closeEntityManager(EntityManager entityManager) {
+    try {
+      if (entityManager.isOpen()) {
+        entityManager.close();
+      }
+    } finally {
+      synchronized(this) {
+        this.openCount--;
+      }
+
+      this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.ENTITY_MANAGER_CLOSE);
+    }
+  }
+
+  /**
+   * Verifies the EntityManagerProvider is not closed.
+   */
+  private void checkNotClosed() {
+    if (this.indClosed) {
+      throw new RuntimeException("EntityManagerProvider is closed.");
+    }
+  }
+}
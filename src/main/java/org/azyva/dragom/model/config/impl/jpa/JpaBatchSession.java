@@ -0,0 +1,601 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityExistsException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.azyva.dragom.model.MutableNode;
+import org.azyva.dragom.model.config.DuplicateNodeException;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.NodeConfigTransferObject;
+import org.azyva.dragom.model.config.OptimisticLockException;
+import org.azyva.dragom.model.config.OptimisticLockHandle;
+
+/**
+ * Unit of work which persists many modifications to {@link JpaNodeConfig}'s
+ * within a single transaction.
+ * <p>
+ * Operations are registered using {@link #setNodeConfigTransferObject} and
+ * {@link #delete}, which behave like
+ * {@link MutableNodeConfig#setNodeConfigTransferObject} and
+ * {@link MutableNodeConfig#delete}, except that nothing is written to the DB and
+ * the JpaNodeConfig's are not modified until {@link #commit} is called.
+ * <p>
+ * When committing, the operations are written in the order in which they were
+ * registered, except that a new parent JpaClassificationNodeConfig is always
+ * written before its children. The EntityManager is flushed and cleared
+ * every {@link #BATCH_SIZE} operations so that the persistence provider can use
+ * JDBC batching (generally enabled with a persistence unit property such as
+ * hibernate.jdbc.batch_size) and memory remains bounded.
+ * <p>
+ * The JpaNodeConfig's, including the Map's of children of their parents, are
+ * updated only once the transaction is successfully committed. If the commit
+ * fails, they remain as they were before the JpaBatchSession was created.
+ * <p>
+ * Registering many operations on the same JpaNodeConfig is allowed. Since a
+ * {@link NodeConfigTransferObject} replaces all of the data of a JpaNodeConfig,
+ * the last one wins. A delete replaces any previously registered
+ * NodeConfigTransferObject.
+ * <p>
+ * The NodeConfigTransferObject's must not be modified by the caller between the
+ * time they are registered and the time the JpaBatchSession is committed.
+ * <p>
+ * A JpaBatchSession can be committed (or rolled back) only once. It is not
+ * thread-safe.
+ *
+ * @author David Raymond
+ */
+public class JpaBatchSession {
+  /**
+   * Number of operations after which the EntityManager is flushed and cleared.
+   */
+  private static final int BATCH_SIZE = 50;
+
+  /**
+   * Operation registered for a {@link JpaNodeConfig}.
+   */
+  private static class PendingOperation {
+    /**
+     * JpaNodeConfig.
+     */
+    JpaNodeConfig jpaNodeConfig;
+
+    /**
+     * NodeConfigTransferObject. null for a delete.
+     */
+    NodeConfigTransferObject nodeConfigTransferObject;
+
+    /**
+     * OptimisticLockHandle's to update once the transaction is committed.
+     */
+    List<JpaOptimisticLockHandle> listJpaOptimisticLockHandle;
+
+    /**
+     * Indicates the JpaNodeConfig was new when the operation was registered.
+     */
+    boolean indNew;
+
+    /**
+     * Indicates the creation of the NodeData was claimed with
+     * {@link JpaNodeConfig#claimCreate}.
+     */
+    boolean indCreateClaimed;
+
+    /**
+     * Indicates the operation was written to the DB.
+     */
+    boolean indPersisted;
+
+    /**
+     * NodeData written to the DB. null for a delete.
+     */
+    NodeData nodeData;
+
+    /**
+     * Map of the IDs of the NodeData deleted from the DB, including those of the
+     * descendants for a JpaClassificationNodeConfig, to the IDs of their parent.
+     * null if not a delete.
+     */
+    Map<Integer, Integer> mapIdNodeDataParentDeleted;
+
+    /**
+     * Constructor.
+     *
+     * @param jpaNodeConfig JpaNodeConfig.
+     * @param nodeConfigTransferObject NodeConfigTransferObject. null for a
+     *   delete.
+     */
+    PendingOperation(JpaNodeConfig jpaNodeConfig, NodeConfigTransferObject nodeConfigTransferObject) {
+      this.jpaNodeConfig = jpaNodeConfig;
+      this.nodeConfigTransferObject = nodeConfigTransferObject;
+      this.listJpaOptimisticLockHandle = new ArrayList<JpaOptimisticLockHandle>();
+    }
+
+    /**
+     * Returns the version expected by the locked OptimisticLockHandle's.
+     * <p>
+     * If the OptimisticLockHandle's were locked to different versions, at least
+     * one of them is stale.
+     *
+     * @return Version. null if no OptimisticLockHandle is locked.
+     * @throws OptimisticLockException If the OptimisticLockHandle's do not agree.
+     */
+    Long getVersionExpected() throws OptimisticLockException {
+      Long versionExpected;
+
+      versionExpected = null;
+
+      for(JpaOptimisticLockHandle jpaOptimisticLockHandle: this.listJpaOptimisticLockHandle) {
+        if (jpaOptimisticLockHandle.isLocked()) {
+          if (versionExpected == null) {
+            versionExpected = jpaOptimisticLockHandle.getVersion();
+          } else if (!versionExpected.equals(jpaOptimisticLockHandle.getVersion())) {
+            throw new OptimisticLockException();
+          }
+        }
+      }
+
+      return versionExpected;
+    }
+
+    /**
+     * @return Indicates if the operation is a delete.
+     */
+    boolean isDelete() {
+      return this.nodeConfigTransferObject == null;
+    }
+  }
+
+  /**
+   * EntityManagerProvider.
+   */
+  private EntityManagerProvider entityManagerProvider;
+
+  /**
+   * NodeDataCache to invalidate once the transaction is committed. null if no
+   * caching.
+   */
+  private NodeDataCache nodeDataCache;
+
+  /**
+   * JpaConfigMetrics.
+   */
+  private JpaConfigMetrics jpaConfigMetrics;
+
+  /**
+   * Map of JpaNodeConfig to their PendingOperation, in registration order.
+   * JpaNodeConfig does not override equals and hashCode so that identity is used.
+   */
+  private Map<JpaNodeConfig, PendingOperation> mapPendingOperation;
+
+  /**
+   * Indicates the JpaBatchSession was committed or rolled back.
+   */
+  private boolean indClosed;
+
+  /**
+   * Number of operations written to the DB during the commit.
+   */
+  private int countPersisted;
+
+  /**
+   * {@link NodeDataChange} to record once all operations are written to the DB.
+   */
+  private List<NodeDataChange> listNodeDataChange;
+
+  /**
+   * Constructor.
+   * <p>
+   * Callers use {@link JpaConfig#createBatchSession}.
+   *
+   * @param entityManagerProvider EntityManagerProvider.
+   * @param nodeDataCache NodeDataCache. Can be null.
+   */
+  JpaBatchSession(EntityManagerProvider entityManagerProvider, NodeDataCache nodeDataCache) {
+    this.entityManagerProvider = entityManagerProvider;
+    this.nodeDataCache = nodeDataCache;
+    this.jpaConfigMetrics = entityManagerProvider.getJpaConfigMetrics();
+    this.mapPendingOperation = new LinkedHashMap<JpaNodeConfig, PendingOperation>();
+    this.listNodeDataChange = new ArrayList<NodeDataChange>();
+  }
+
+  /**
+   * Registers a {@link NodeConfigTransferObject} to be set on a
+   * {@link MutableNodeConfig}.
+   * <p>
+   * The validations performed by
+   * {@link MutableNodeConfig#setNodeConfigTransferObject} are performed
+   * immediately.
+   *
+   * @param mutableNodeConfig MutableNodeConfig. Must be a {@link JpaNodeConfig}.
+   * @param nodeConfigTransferObject NodeConfigTransferObject.
+   * @param optimisticLockHandle OptimisticLockHandle. Can be null.
+   * @throws OptimisticLockException See
+   *   {@link MutableNodeConfig#setNodeConfigTransferObject}.
+   * @throws DuplicateNodeException When the new configuration data would introduce
+   *   a duplicate {@link MutableNode} within the parent.
+   */
+  public void setNodeConfigTransferObject(MutableNodeConfig mutableNodeConfig, NodeConfigTransferObject nodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle)
+      throws OptimisticLockException, DuplicateNodeException {
+    JpaNodeConfig jpaNodeConfig;
+    PendingOperation pendingOperation;
+
+    this.checkNotClosed();
+
+    jpaNodeConfig = (JpaNodeConfig)mutableNodeConfig;
+
+    pendingOperation = this.mapPendingOperation.get(jpaNodeConfig);
+
+    if ((pendingOperation != null) && pendingOperation.isDelete()) {
+      throw new RuntimeException("JpaNodeConfig " + jpaNodeConfig.getName() + " is already deleted within the JpaBatchSession.");
+    }
+
+    jpaNodeConfig.checkNodeConfigTransferObject(nodeConfigTransferObject, optimisticLockHandle);
+
+    if (pendingOperation == null) {
+      pendingOperation = new PendingOperation(jpaNodeConfig, nodeConfigTransferObject);
+      pendingOperation.indNew = jpaNodeConfig.isNew();
+      this.mapPendingOperation.put(jpaNodeConfig, pendingOperation);
+    } else {
+      pendingOperation.nodeConfigTransferObject = nodeConfigTransferObject;
+    }
+
+    if (optimisticLockHandle != null) {
+      pendingOperation.listJpaOptimisticLockHandle.add((JpaOptimisticLockHandle)optimisticLockHandle);
+    }
+  }
+
+  /**
+   * Registers the deletion of a {@link MutableNodeConfig}.
+   * <p>
+   * If the MutableNodeConfig is new, any NodeConfigTransferObject registered for
+   * it is simply forgotten.
+   *
+   * @param mutableNodeConfig MutableNodeConfig. Must be a {@link JpaNodeConfig}.
+   */
+  public void delete(MutableNodeConfig mutableNodeConfig) {
+    JpaNodeConfig jpaNodeConfig;
+
+    this.checkNotClosed();
+
+    jpaNodeConfig = (JpaNodeConfig)mutableNodeConfig;
+
+    jpaNodeConfig.checkNotReadOnly();
+
+    this.mapPendingOperation.remove(jpaNodeConfig);
+
+    if (!jpaNodeConfig.isNew()) {
+      this.mapPendingOperation.put(jpaNodeConfig, new PendingOperation(jpaNodeConfig, null));
+    }
+  }
+
+  /**
+   * @return Number of registered operations.
+   */
+  public int getOperationCount() {
+    return this.mapPendingOperation.size();
+  }
+
+  /**
+   * Writes all registered operations within a single transaction and, if
+   * successful, updates the {@link JpaNodeConfig}'s accordingly.
+   *
+   * @throws OptimisticLockException When a JpaNodeConfig being updated was
+   *   modified or deleted in the DB in the meantime, possibly by another JVM. This
+   *   is detected by the DB through the version of the NodeData.
+   * @throws DuplicateNodeException When the operations would introduce a
+   *   duplicate {@link MutableNode}.
+   */
+  public void commit() throws OptimisticLockException, DuplicateNodeException {
+    long startNanos;
+    EntityManager entityManager;
+    boolean indCommitted;
+    Map<JpaClassificationNodeConfig, JpaClassificationNodeConfig.ChildNodeConfigChanges> mapChildNodeConfigChanges;
+
+    this.checkNotClosed();
+    this.indClosed = true;
+
+    if (this.mapPendingOperation.isEmpty()) {
+      return;
+    }
+
+    startNanos = System.nanoTime();
+    entityManager = this.entityManagerProvider.acquireEntityManager();
+    indCommitted = false;
+
+    try {
+      // Two threads setting a NodeConfigTransferObject on the same new
+      // JpaNodeConfig must not both insert a NodeData.
+      for(PendingOperation pendingOperation: this.mapPendingOperation.values()) {
+        if (pendingOperation.indNew) {
+          pendingOperation.jpaNodeConfig.claimCreate();
+          pendingOperation.indCreateClaimed = true;
+        }
+      }
+
+      entityManager.getTransaction().begin();
+
+      for(PendingOperation pendingOperation: this.mapPendingOperation.values()) {
+        this.persistPendingOperation(entityManager, pendingOperation);
+      }
+
+      NodeDataChangeSequence.persistListNodeDataChange(entityManager, this.listNodeDataChange);
+
+      entityManager.getTransaction().commit();
+      indCommitted = true;
+    } catch (OptimisticLockException ole) {
+      this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.OPTIMISTIC_LOCK_FAILURE);
+      throw ole;
+    } catch (javax.persistence.OptimisticLockException ole) {
+      this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.OPTIMISTIC_LOCK_FAILURE);
+      throw new OptimisticLockException();
+    } catch (PersistenceException pe) {
+      // Failures can surface when persisting, when flushing every BATCH_SIZE
+      // operations or when flushing at commit time, in which case they are
+      // reported as the cause of a RollbackException.
+      if (JpaBatchSession.isCause(pe, javax.persistence.OptimisticLockException.class)) {
+        this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.OPTIMISTIC_LOCK_FAILURE);
+        throw new OptimisticLockException();
+      }
+
+      if (JpaBatchSession.isUniqueConstraintViolation(pe)) {
+        throw new DuplicateNodeException();
+      }
+
+      throw pe;
+    } finally {
+      try {
+        if (entityManager.getTransaction().isActive()) {
+          entityManager.getTransaction().rollback();
+        }
+      } finally {
+        this.entityManagerProvider.releaseEntityManager(entityManager);
+
+        if (!indCommitted) {
+          for(PendingOperation pendingOperation: this.mapPendingOperation.values()) {
+            if (pendingOperation.indCreateClaimed) {
+              pendingOperation.jpaNodeConfig.releaseCreate();
+            }
+          }
+        }
+
+        this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.COMMIT, System.nanoTime() - startNanos);
+      }
+    }
+
+    if (this.nodeDataCache != null) {
+      for(PendingOperation pendingOperation: this.mapPendingOperation.values()) {
+        JpaClassificationNodeConfig jpaClassificationNodeConfigParent;
+
+        // Cached Lists contain the NodeData of the modified JpaNodeConfig, so the
+        // List of its parent must be invalidated, even for a simple update. For a
+        // delete, the Lists of the children of all deleted NodeData must also be
+        // invalidated.
+        jpaClassificationNodeConfigParent = pendingOperation.jpaNodeConfig.getJpaClassificationNodeConfigParent();
+        this.nodeDataCache.invalidate(jpaClassificationNodeConfigParent == null ? null : jpaClassificationNodeConfigParent.nodeData);
+
+        if (pendingOperation.isDelete()) {
+          for(Integer idNodeData: pendingOperation.mapIdNodeDataParentDeleted.keySet()) {
+            this.nodeDataCache.invalidate(idNodeData);
+          }
+        }
+      }
+    }
+
+    // The modifications to the children of each parent are published at once so
+    // that the snapshot of its children is copied once, and not once per child.
+    mapChildNodeConfigChanges = new LinkedHashMap<JpaClassificationNodeConfig, JpaClassificationNodeConfig.ChildNodeConfigChanges>();
+
+    for(PendingOperation pendingOperation: this.mapPendingOperation.values()) {
+      JpaClassificationNodeConfig jpaClassificationNodeConfigParent;
+      JpaClassificationNodeConfig.ChildNodeConfigChanges childNodeConfigChanges;
+
+      jpaClassificationNodeConfigParent = pendingOperation.jpaNodeConfig.getJpaClassificationNodeConfigParent();
+      childNodeConfigChanges = null;
+
+      if (jpaClassificationNodeConfigParent != null) {
+        childNodeConfigChanges = mapChildNodeConfigChanges.get(jpaClassificationNodeConfigParent);
+
+        if (childNodeConfigChanges == null) {
+          childNodeConfigChanges = new JpaClassificationNodeConfig.ChildNodeConfigChanges();
+          mapChildNodeConfigChanges.put(jpaClassificationNodeConfigParent, childNodeConfigChanges);
+        }
+      }
+
+      if (pendingOperation.isDelete()) {
+        pendingOperation.jpaNodeConfig.commitDelete(childNodeConfigChanges);
+      } else {
+        pendingOperation.jpaNodeConfig.commitNodeConfigTransferObject(pendingOperation.nodeData, childNodeConfigChanges);
+
+        for(JpaOptimisticLockHandle jpaOptimisticLockHandle: pendingOperation.listJpaOptimisticLockHandle) {
+          jpaOptimisticLockHandle.setVersion(pendingOperation.nodeData.getVersion());
+        }
+      }
+    }
+
+    for(Map.Entry<JpaClassificationNodeConfig, JpaClassificationNodeConfig.ChildNodeConfigChanges> mapEntry: mapChildNodeConfigChanges.entrySet()) {
+      // Simple updates do not modify the children of the parent.
+      if (!mapEntry.getValue().isEmpty()) {
+        mapEntry.getKey().updateChildNodeConfig(mapEntry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Discards all registered operations.
+   * <p>
+   * Since nothing is written to the DB nor modified in memory before
+   * {@link #commit}, there is nothing else to do.
+   */
+  public void rollback() {
+    this.checkNotClosed();
+    this.indClosed = true;
+    this.mapPendingOperation.clear();
+  }
+
+  /**
+   * Writes a PendingOperation to the DB, if not already done.
+   * <p>
+   * A {@link NodeDataChange} is also prepared, for each deleted NodeData in the
+   * case of a delete. They are all persisted at the end
+   * of the transaction since their sequence is assigned at that time (see
+   * {@link NodeDataChangeSequence}).
+   *
+   * @param entityManager EntityManager.
+   * @param pendingOperation PendingOperation.
+   */
+  private void persistPendingOperation(EntityManager entityManager, PendingOperation pendingOperation) {
+    Timestamp timestampChange;
+
+    if (pendingOperation.indPersisted) {
+      return;
+    }
+
+    pendingOperation.indPersisted = true;
+
+    // Recorded so that JpaConfig instances in other JVMs can refresh themselves.
+    timestampChange = new Timestamp(System.currentTimeMillis());
+
+    if (pendingOperation.isDelete()) {
+      pendingOperation.mapIdNodeDataParentDeleted = pendingOperation.jpaNodeConfig.persistDelete(entityManager);
+
+      for(Map.Entry<Integer, Integer> mapEntry: pendingOperation.mapIdNodeDataParentDeleted.entrySet()) {
+        this.listNodeDataChange.add(new NodeDataChange(mapEntry.getKey(), mapEntry.getValue(), timestampChange));
+      }
+    } else {
+      pendingOperation.nodeData = pendingOperation.jpaNodeConfig.persistNodeConfigTransferObject(entityManager, this.getNodeDataParent(entityManager, pendingOperation.jpaNodeConfig), pendingOperation.nodeConfigTransferObject, pendingOperation.getVersionExpected());
+      this.listNodeDataChange.add(new NodeDataChange(pendingOperation.nodeData.getId(), pendingOperation.nodeData.getIdNodeDataParent(), timestampChange));
+    }
+
+    if ((++this.countPersisted % JpaBatchSession.BATCH_SIZE) == 0) {
+      entityManager.flush();
+      entityManager.clear();
+    }
+  }
+
+  /**
+   * Returns the parent {@link NodeData} of a {@link JpaNodeConfig}, taking into
+   * account a parent which is new within the JpaBatchSession.
+   *
+   * @param entityManager EntityManager.
+   * @param jpaNodeConfig JpaNodeConfig.
+   * @return Parent NodeData. null for the root JpaClassificationNodeConfig.
+   */
+  private NodeData getNodeDataParent(EntityManager entityManager, JpaNodeConfig jpaNodeConfig) {
+    JpaClassificationNodeConfig jpaClassificationNodeConfigParent;
+    PendingOperation pendingOperationParent;
+
+    jpaClassificationNodeConfigParent = jpaNodeConfig.getJpaClassificationNodeConfigParent();
+
+    if (jpaClassificationNodeConfigParent == null) {
+      return null;
+    }
+
+    pendingOperationParent = this.mapPendingOperation.get(jpaClassificationNodeConfigParent);
+
+    if ((pendingOperationParent != null) && !pendingOperationParent.isDelete()) {
+      this.persistPendingOperation(entityManager, pendingOperationParent);
+
+      return pendingOperationParent.nodeData;
+    }
+
+    if (jpaClassificationNodeConfigParent.isNew()) {
+      throw new RuntimeException("Parent JpaClassificationNodeConfig is new and is not part of the JpaBatchSession.");
+    }
+
+    return jpaClassificationNodeConfigParent.nodeData;
+  }
+
+  /**
+   * Verifies if a Throwable or one of its causes is of a given class.
+   *
+   * @param throwable Throwable.
+   * @param classThrowable Class of the cause.
+   * @return See description.
+   */
+  private static boolean isCause(Throwable throwable, Class<? extends Throwable> classThrowable) {
+    while (throwable != null) {
+      if (classThrowable.isInstance(throwable)) {
+        return true;
+      }
+
+      throwable = (throwable.getCause() == throwable) ? null : throwable.getCause();
+    }
+
+    return false;
+  }
+
+  /**
+   * Verifies if a Throwable is caused by the violation of a unique constraint,
+   * which means a duplicate NodeData within its parent or a duplicate path.
+   * <p>
+   * The JPA provider reports a duplicate detected in memory as an
+   * {@link EntityExistsException}, but one detected by the DB is reported as a
+   * provider-specific exception (such as Hibernate's
+   * ConstraintViolationException) caused by an SQLException. The SQLState of the
+   * latter is used so that no provider-specific class is referenced. Class "23"
+   * designates integrity constraint violations in general. Those known to be
+   * foreign key violations are excluded. Some DBs use the generic "23000" for
+   * all of them, in which case it is assumed to be a duplicate since foreign keys
+   * are violated only when a parent is deleted concurrently.
+   *
+   * @param throwable Throwable.
+   * @return See description.
+   */
+  private static boolean isUniqueConstraintViolation(Throwable throwable) {
+    while (throwable != null) {
+      if (throwable instanceof EntityExistsException) {
+        return true;
+      }
+
+      if (throwable instanceof SQLException) {
+        String sqlState;
+
+        sqlState = ((SQLException)throwable).getSQLState();
+
+        if ((sqlState != null) && sqlState.startsWith("23") && !sqlState.equals("23503") && !sqlState.equals("23506")) {
+          return true;
+        }
+      }
+
+      throwable = (throwable.getCause() == throwable) ? null : throwable.getCause();
+    }
+
+    return false;
+  }
+
+  /**
+   * Verifies the JpaBatchSession is neither committed nor rolled back.
+   */
+  private void checkNotClosed() {
+    if (this.indClosed) {
+      throw new RuntimeException("JpaBatchSession already committed or rolled back.");
+    }
+  }
+}
@@ -20,9 +20,14 @@
 package org.azyva.dragom.model.config.impl.jpa;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -40,11 +45,26 @@ import org.azyva.dragom.model.config.OptimisticLockHandle;
 
 /**
  * JPA implementation for {@link ClassificationNodeConfig}.
+ * <p>
+ * Deleting a JpaClassificationNodeConfig deletes its whole subtree, in the DB
+ * using a few bulk statements within the transaction of the
+ * {@link JpaBatchSession}, and in memory by pruning the loaded descendants.
  *
  * @author David Raymond
  * @see org.azyva.dragom.model.config.impl.jpa
  */
 public class JpaClassificationNodeConfig extends JpaNodeConfig implements ClassificationNodeConfig, MutableClassificationNodeConfig {
+  /**
+   * Maximum number of IDs in a single IN list when deleting a subtree.
+   */
+  private static final int MAX_IDS_PER_STATEMENT = 500;
+
+  /**
+   * Maximum number of children looked up individually by
+   * {@link #getNodeConfigChild} before all the children are loaded.
+   */
+  private static final int MAX_CHILD_LOOKUPS = 100;
+
   /**
    * Containing JpaConfig. null if this JpaClassificationNodeConfig is not
    * the root JpaClassificationNodeConfig.
@@ -52,9 +72,281 @@ public class JpaClassificationNodeConfig extends JpaNodeConfig implements Classi
   private JpaConfig jpaConfig;
 
   /**
-   * Map of child {@link NodeConfig}.
+   * Immutable snapshot of the child {@link NodeConfig}.
    */
-  private Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+  private static class ChildNodeConfigSnapshot {
+    /**
+     * Map of child JpaNodeConfig. Never modified.
+     */
+    final Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+
+    /**
+     * Unmodifiable List of child NodeConfig, sorted by name, so that it can be
+     * returned to callers without copying. null until first requested.
+     */
+    private volatile List<NodeConfig> unmodifiableListNodeConfigChild;
+
+    /**
+     * Indicates all the children are in the Map. Otherwise, only those which were
+     * individually looked up (by path) are.
+     */
+    final boolean indComplete;
+
+    /**
+     * Constructor for a complete snapshot.
+     *
+     * @param mapJpaNodeConfigChild Map of child JpaNodeConfig. Must not be
+     *   modified afterwards.
+     */
+    ChildNodeConfigSnapshot(Map<String, JpaNodeConfig> mapJpaNodeConfigChild) {
+      this(mapJpaNodeConfigChild, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mapJpaNodeConfigChild Map of child JpaNodeConfig. Must not be
+     *   modified afterwards.
+     * @param indComplete Indicates all the children are in the Map.
+     */
+    ChildNodeConfigSnapshot(Map<String, JpaNodeConfig> mapJpaNodeConfigChild, boolean indComplete) {
+      this.mapJpaNodeConfigChild = mapJpaNodeConfigChild;
+      this.indComplete = indComplete;
+    }
+
+    /**
+     * Returns the unmodifiable List of child NodeConfig, sorted by name.
+     * <p>
+     * The List is built on first request rather than when the snapshot is
+     * created since many snapshots are replaced before being read, such as when
+     * children are attached one page at a time.
+     * <p>
+     * No synchronization is required. Threads which build the List concurrently
+     * build equal Lists.
+     *
+     * @return See description.
+     */
+    List<NodeConfig> getUnmodifiableListNodeConfigChild() {
+      List<NodeConfig> listNodeConfigChild;
+
+      listNodeConfigChild = this.unmodifiableListNodeConfigChild;
+
+      if (listNodeConfigChild != null) {
+        return listNodeConfigChild;
+      }
+
+      listNodeConfigChild = new ArrayList<NodeConfig>(this.mapJpaNodeConfigChild.values());
+
+      Collections.sort(listNodeConfigChild, new Comparator<NodeConfig>() {
+        @Override
+        public int compare(NodeConfig nodeConfig1, NodeConfig nodeConfig2) {
+          return nodeConfig1.getName().compareTo(nodeConfig2.getName());
+        }
+      });
+
+      listNodeConfigChild = Collections.unmodifiableList(listNodeConfigChild);
+      this.unmodifiableListNodeConfigChild = listNodeConfigChild;
+
+      return listNodeConfigChild;
+    }
+  }
+
+  /**
+   * Modifications to the children of a JpaClassificationNodeConfig which are
+   * published at once by {@link JpaClassificationNodeConfig#updateChildNodeConfig}.
+   * <p>
+   * Since a new snapshot is created for each publication, publishing the
+   * modifications of many siblings at once, as {@link JpaBatchSession} does,
+   * copies the children once instead of once per sibling.
+   */
+  static class ChildNodeConfigChanges {
+    /**
+     * Added child JpaNodeConfig.
+     */
+    private List<JpaNodeConfig> listJpaNodeConfigAdded;
+
+    /**
+     * Map of the previous names of renamed child JpaNodeConfig to the
+     * JpaNodeConfig, which hold their new name.
+     */
+    private Map<String, JpaNodeConfig> mapJpaNodeConfigRenamed;
+
+    /**
+     * Names of removed child JpaNodeConfig.
+     */
+    private List<String> listNameRemoved;
+
+    /**
+     * Constructor.
+     */
+    ChildNodeConfigChanges() {
+      this.listJpaNodeConfigAdded = new ArrayList<JpaNodeConfig>();
+      this.mapJpaNodeConfigRenamed = new HashMap<String, JpaNodeConfig>();
+      this.listNameRemoved = new ArrayList<String>();
+    }
+
+    /**
+     * Records an added child.
+     *
+     * @param jpaNodeConfigChild Child JpaNodeConfig.
+     */
+    void add(JpaNodeConfig jpaNodeConfigChild) {
+      this.listJpaNodeConfigAdded.add(jpaNodeConfigChild);
+    }
+
+    /**
+     * Records a renamed child.
+     *
+     * @param previousName Previous name.
+     * @param jpaNodeConfigChild Child JpaNodeConfig, which holds the new name.
+     */
+    void rename(String previousName, JpaNodeConfig jpaNodeConfigChild) {
+      this.mapJpaNodeConfigRenamed.put(previousName, jpaNodeConfigChild);
+    }
+
+    /**
+     * Records a removed child.
+     *
+     * @param name Name of the child.
+     */
+    void remove(String name) {
+      this.listNameRemoved.add(name);
+    }
+
+    /**
+     * @return Indicates no modification is recorded.
+     */
+    boolean isEmpty() {
+      return this.listJpaNodeConfigAdded.isEmpty() && this.mapJpaNodeConfigRenamed.isEmpty() && this.listNameRemoved.isEmpty();
+    }
+  }
+
+  /**
+   * Iterator over the child {@link NodeConfig} which loads them from the DB page
+   * by page.
+   */
+  private class ChildNodeConfigIterator implements Iterator<NodeConfig> {
+    /**
+     * Maximum number of children per page.
+     */
+    private int pageSize;
+
+    /**
+     * Indicates to add the children to the snapshot of the parent.
+     */
+    private boolean indCache;
+
+    /**
+     * Iterator over the current page.
+     */
+    private Iterator<JpaNodeConfig> iteratorPage;
+
+    /**
+     * Name of the last child of the previous page. null for the first page.
+     */
+    private String nameLast;
+
+    /**
+     * Indicates the last page was loaded.
+     */
+    private boolean indLastPage;
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize Maximum number of children per page.
+     * @param indCache Indicates to add the children to the snapshot of the parent.
+     */
+    ChildNodeConfigIterator(int pageSize, boolean indCache) {
+      this.pageSize = pageSize;
+      this.indCache = indCache;
+      this.iteratorPage = Collections.<JpaNodeConfig>emptyList().iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!this.iteratorPage.hasNext()) {
+        if (this.indLastPage) {
+          return false;
+        }
+
+        this.loadNextPage();
+      }
+
+      return true;
+    }
+
+    @Override
+    public NodeConfig next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return this.iteratorPage.next();
+    }
+
+    /**
+     * Loads the next page of children.
+     */
+    @SuppressWarnings("unchecked")
+    private void loadNextPage() {
+      JpaClassificationNodeConfig jpaClassificationNodeConfig;
+      long startNanos;
+      EntityManager entityManager;
+      Query query;
+      List<NodeData> listNodeData;
+
+      jpaClassificationNodeConfig = JpaClassificationNodeConfig.this;
+      startNanos = System.nanoTime();
+      entityManager = jpaClassificationNodeConfig.entityManagerProvider.acquireReadOnlyEntityManager();
+
+      try {
+        if (this.nameLast == null) {
+          query = entityManager.createNamedQuery("getChildNodeDataFirstPage");
+        } else {
+          query = entityManager.createNamedQuery("getChildNodeDataNextPage");
+          query.setParameter("nameLast", this.nameLast);
+        }
+
+        query.setParameter("parentNodeData", jpaClassificationNodeConfig.nodeData);
+        query.setMaxResults(this.pageSize);
+
+        listNodeData = query.getResultList();
+      } finally {
+        jpaClassificationNodeConfig.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+      }
+
+      this.indLastPage = (listNodeData.size() < this.pageSize);
+
+      if (!listNodeData.isEmpty()) {
+        this.nameLast = listNodeData.get(listNodeData.size() - 1).getName();
+      }
+
+      if (this.indCache) {
+        this.iteratorPage = jpaClassificationNodeConfig.attachListChildNodeData(listNodeData).iterator();
+      } else {
+        this.iteratorPage = jpaClassificationNodeConfig.createListJpaNodeConfigChildUncached(listNodeData).iterator();
+      }
+
+      jpaClassificationNodeConfig.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.CHILD_LOAD, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Snapshot of child {@link NodeConfig}. null if not loaded yet. Can be partial
+   * if only some children were looked up by path.
+   * <p>
+   * The snapshot is never modified once referenced. Modifications create a new
+   * snapshot which replaces it, so that readers never need to lock. This favors
+   * reads over modifications, which are much less frequent.
+   */
+  private volatile ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+  /**
+   * Number of children looked up individually in the DB. Accessed while
+   * synchronized.
+   */
+  private int countChildLookup;
 
   /**
    * Constructor for root ClassificationNodeConfig.
@@ -63,9 +355,10 @@ public class JpaClassificationNodeConfig extends JpaNodeConfig implements Classi
    * @param jpaConfig JpaConfig holding this root ClassificationNodeConfig.
    */
   JpaClassificationNodeConfig(JpaConfig jpaConfig, NodeData nodeData) {
-    super(jpaConfig.getEntityManagerFactory(), nodeData);
+    super(jpaConfig.getEntityManagerProvider(), jpaConfig.getNodeDataCache(), jpaConfig.getJpaConfigMetrics(), nodeData);
 
     this.jpaConfig = jpaConfig;
+    this.indReadOnly = jpaConfig.isReadOnly();
   }
 
   /**
@@ -83,58 +376,310 @@ public class JpaClassificationNodeConfig extends JpaNodeConfig implements Classi
     return NodeType.CLASSIFICATION;
   }
 
+  /**
+   * Ensures the child {@link NodeConfig} are loaded and returns their snapshot.
+   * <p>
+   * Only the loading itself is synchronized.
+   *
+   * @return ChildNodeConfigSnapshot.
+   */
+  private ChildNodeConfigSnapshot ensureCreateChildNodeConfig() {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    if ((childNodeConfigSnapshot == null) || !childNodeConfigSnapshot.indComplete) {
+      long startNanos;
+
+      startNanos = System.nanoTime();
+
+      synchronized(this) {
+        this.loadChildNodeConfig();
+        childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+      }
+
+      this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.CHILD_LOAD, System.nanoTime() - startNanos);
+    }
+
+    return childNodeConfigSnapshot;
+  }
+
+  /**
+   * Loads the child {@link NodeConfig}, if not already loaded or if only some of
+   * them are.
+   * <p>
+   * Must be called while synchronized.
+   */
   @SuppressWarnings("unchecked")
-  private void ensureCreateChildNodeConfig() {
-    if (this.mapJpaNodeConfigChild == null) {
+  private void loadChildNodeConfig() {
+    if ((this.childNodeConfigSnapshot == null) || !this.childNodeConfigSnapshot.indComplete) {
       EntityManager entityManager;
       Query query;
       List<NodeData> listNodeData;
 
-      entityManager = this.entityManagerFactory.createEntityManager();
+      // A new JpaClassificationNodeConfig cannot have children in the DB. This can
+      // happen when children are created within the same JpaBatchSession.
+      if (this.nodeData == null) {
+        this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(new HashMap<String, JpaNodeConfig>());
+        return;
+      }
 
-      query = entityManager.createNamedQuery("getChildNodeData");
-      query.setParameter("parentNodeData", this.nodeData);
+      if (this.nodeDataCache != null) {
+        listNodeData = this.nodeDataCache.getListNodeDataChild(this.nodeData);
 
-      listNodeData = query.getResultList();
+        if (listNodeData != null) {
+          this.createMapJpaNodeConfigChild(listNodeData);
+          return;
+        }
+      }
 
-      this.mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>();
+      entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
 
-      for(NodeData nodeData: listNodeData) {
-        if (nodeData.getType() == 'C') {
-          this.mapJpaNodeConfigChild.put(nodeData.getName(), new JpaClassificationNodeConfig(this, nodeData));
-        } else {
-          this.mapJpaNodeConfigChild.put(nodeData.getName(), new JpaModuleConfig(this, nodeData));
-        }
+      try {
+        query = entityManager.createNamedQuery("getChildNodeData");
+        query.setParameter("parentNodeData", this.nodeData);
+
+        listNodeData = query.getResultList();
+      } finally {
+        this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+      }
+
+      if (this.nodeDataCache != null) {
+        this.nodeDataCache.putListNodeDataChild(this.nodeData, listNodeData);
+      }
+
+      this.createMapJpaNodeConfigChild(listNodeData);
+    }
+  }
+
+  /**
+   * Creates the Map of child {@link NodeConfig} from the List of child
+   * {@link NodeData}.
+   * <p>
+   * The snapshot is fully built before being published.
+   * <p>
+   * Children already in a partial snapshot are kept so that callers holding them
+   * keep working with the same instances.
+   *
+   * @param listNodeData List of child NodeData.
+   */
+  private void createMapJpaNodeConfigChild(List<NodeData> listNodeData) {
+    Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+
+    mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>();
+
+    for(NodeData nodeData: listNodeData) {
+      JpaNodeConfig jpaNodeConfigChildExisting;
+
+      jpaNodeConfigChildExisting = (this.childNodeConfigSnapshot == null) ? null : this.childNodeConfigSnapshot.mapJpaNodeConfigChild.get(nodeData.getName());
+
+      if ((jpaNodeConfigChildExisting != null) && (jpaNodeConfigChildExisting.nodeData.getId() == nodeData.getId())) {
+        mapJpaNodeConfigChild.put(nodeData.getName(), jpaNodeConfigChildExisting);
+      } else if (nodeData.getType() == 'C') {
+        mapJpaNodeConfigChild.put(nodeData.getName(), new JpaClassificationNodeConfig(this, nodeData));
+      } else {
+        mapJpaNodeConfigChild.put(nodeData.getName(), new JpaModuleConfig(this, nodeData));
+      }
+    }
+
+    this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(mapJpaNodeConfigChild);
+  }
+
+  /**
+   * Creates the child {@link NodeConfig} of this JpaClassificationNodeConfig and
+   * of all its descendants from {@link NodeData} already loaded in memory.
+   * <p>
+   * This method is called by {@link JpaConfig} when bulk loading the whole tree so
+   * that {@link #loadChildNodeConfig} does not need to query the DB.
+   * JpaClassificationNodeConfig without children get an empty Map for the same
+   * reason.
+   *
+   * <p>
+   * Also called by {@link JpaConfig#getListNodeConfigSubtree}, in which case
+   * children which are already completely loaded are kept.
+   *
+   * @param mapListNodeDataChild Map of NodeData IDs to the List of their child
+   *   NodeData.
+   */
+  synchronized void bulkCreateChildNodeConfig(Map<Integer, List<NodeData>> mapListNodeDataChild) {
+    List<NodeData> listNodeData;
+
+    if ((this.childNodeConfigSnapshot == null) || !this.childNodeConfigSnapshot.indComplete) {
+      listNodeData = mapListNodeDataChild.get(this.nodeData.getId());
+
+      this.createMapJpaNodeConfigChild(listNodeData == null ? Collections.<NodeData>emptyList() : listNodeData);
+    }
+
+    for(JpaNodeConfig jpaNodeConfigChild: this.childNodeConfigSnapshot.mapJpaNodeConfigChild.values()) {
+      if (jpaNodeConfigChild instanceof JpaClassificationNodeConfig) {
+        ((JpaClassificationNodeConfig)jpaNodeConfigChild).bulkCreateChildNodeConfig(mapListNodeDataChild);
       }
     }
   }
 
   @Override
-  public synchronized List<NodeConfig> getListChildNodeConfig() {
-    this.ensureCreateChildNodeConfig();
+  public List<NodeConfig> getListChildNodeConfig() {
+    // The List is unmodifiable and is rebuilt only when a child is added, renamed
+    // or removed, so that no copy is required.
+    return this.ensureCreateChildNodeConfig().getUnmodifiableListNodeConfigChild();
+  }
+
+  /**
+   * Returns an Iterator over the child {@link NodeConfig}, sorted by name, which
+   * loads them from the DB page by page using keyset pagination on the name.
+   * <p>
+   * Contrary to {@link #getListChildNodeConfig}, the first children are available
+   * as soon as the first page is loaded and, if indCache is false, memory use
+   * does not depend on the number of children since each page can be garbage
+   * collected once iterated.
+   * <p>
+   * If the children are already completely loaded, they are simply iterated.
+   * <p>
+   * If indCache is true, the children are added to the snapshot of this
+   * JpaClassificationNodeConfig as with {@link #getNodeConfigChild}. Otherwise,
+   * those not already loaded are returned as read-only NodeConfig which are not
+   * referenced by this JpaClassificationNodeConfig. They must be obtained again
+   * using getNodeConfigChild to be modified.
+   * <p>
+   * Children created or deleted during the iteration may or may not be returned.
+   *
+   * @param pageSize Maximum number of children loaded in a single query.
+   * @param indCache Indicates to add the children to the snapshot of this
+   *   JpaClassificationNodeConfig.
+   * @return Iterator. Does not support remove.
+   */
+  public Iterator<NodeConfig> iterateChildNodeConfig(int pageSize, boolean indCache) {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    if (pageSize <= 0) {
+      throw new RuntimeException("Page size must be positive.");
+    }
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    // A new JpaClassificationNodeConfig has no children in the DB.
+    if (((childNodeConfigSnapshot != null) && childNodeConfigSnapshot.indComplete) || (this.nodeData == null)) {
+      return this.ensureCreateChildNodeConfig().getUnmodifiableListNodeConfigChild().iterator();
+    }
 
-    // A copy is returned to prevent the internal Map from being modified by the
-    // caller. Ideally, an unmodifiable List view of the Collection returned by
-    // Map.values should be returned, but that does not seem possible.
-    return new ArrayList<NodeConfig>(this.mapJpaNodeConfigChild.values());
+    return new ChildNodeConfigIterator(pageSize, indCache);
   }
 
   @Override
-  public synchronized NodeConfig getNodeConfigChild(String name) {
-    this.ensureCreateChildNodeConfig();
+  public NodeConfig getNodeConfigChild(String name) {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    // A child already known in a partial snapshot does not require loading the
+    // others.
+    if (childNodeConfigSnapshot != null) {
+      JpaNodeConfig jpaNodeConfigChild;
+
+      jpaNodeConfigChild = childNodeConfigSnapshot.mapJpaNodeConfigChild.get(name);
+
+      if ((jpaNodeConfigChild != null) || childNodeConfigSnapshot.indComplete) {
+        return jpaNodeConfigChild;
+      }
+    }
+
+    return this.lookupChildNodeConfig(name);
+  }
+
+  /**
+   * Looks up a child {@link NodeConfig} which is not known in memory.
+   * <p>
+   * Unless the children are available in the {@link NodeDataCache}, only the
+   * requested child {@link NodeData} is queried, using the unique index on the
+   * parent and name, and added to a partial snapshot. This avoids loading all the
+   * children of a classification holding many modules when a single one is
+   * needed. A child which does not exist is not remembered.
+   * <p>
+   * After {@link #MAX_CHILD_LOOKUPS} individual lookups, all the children are
+   * loaded since it is then likely that many of them will be needed.
+   * <p>
+   * The individual query is performed without holding the lock so that lookups
+   * of other children, possibly by other threads, are not serialized behind the
+   * DB round trip. The child is then attached under the lock, unless it was
+   * attached concurrently in the meantime (see {@link #attachChildNodeData}).
+   *
+   * @param name Name of the child.
+   * @return Child JpaNodeConfig. null if none.
+   */
+  @SuppressWarnings("unchecked")
+  private JpaNodeConfig lookupChildNodeConfig(String name) {
+    NodeData nodeData;
+    boolean indLoadAll;
+    JpaNodeConfig jpaNodeConfigChild;
+    long startNanos;
+    EntityManager entityManager;
+    Query query;
+    List<NodeData> listNodeData;
+
+    synchronized(this) {
+      // The child may have been looked up concurrently.
+      if (this.childNodeConfigSnapshot != null) {
+        jpaNodeConfigChild = this.childNodeConfigSnapshot.mapJpaNodeConfigChild.get(name);
+
+        if ((jpaNodeConfigChild != null) || this.childNodeConfigSnapshot.indComplete) {
+          return jpaNodeConfigChild;
+        }
+      }
+
+      nodeData = this.nodeData;
+
+      // A new JpaClassificationNodeConfig has no children in the DB and cached
+      // children are as cheap to load all at once.
+      indLoadAll = (nodeData == null) || (this.countChildLookup >= JpaClassificationNodeConfig.MAX_CHILD_LOOKUPS) || ((this.nodeDataCache != null) && (this.nodeDataCache.getListNodeDataChild(nodeData) != null));
+
+      if (!indLoadAll) {
+        this.countChildLookup++;
+      }
+    }
+
+    if (indLoadAll) {
+      return this.ensureCreateChildNodeConfig().mapJpaNodeConfigChild.get(name);
+    }
+
+    startNanos = System.nanoTime();
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      query = entityManager.createNamedQuery("getChildNodeDataByName");
+      query.setParameter("parentNodeData", nodeData);
+      query.setParameter("name", name);
+
+      listNodeData = query.getResultList();
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
 
-    return this.mapJpaNodeConfigChild.get(name);
+    jpaNodeConfigChild = listNodeData.isEmpty() ? null : this.attachChildNodeData(listNodeData.get(0));
+
+    this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.CHILD_LOAD, System.nanoTime() - startNanos);
+
+    return jpaNodeConfigChild;
+  }
+
+  @Override
+  public void setNodeConfigTransferObject(NodeConfigTransferObject NodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle) throws OptimisticLockException, DuplicateNodeException {
+    this.extractNodeConfigTransferObject(NodeConfigTransferObject, optimisticLockHandle);
   }
 
+  /**
+   * We need to override commitNodeConfigTransferObject which is already defined in
+   * {@link JpaNodeConfig} since only a JpaClassificationNodeConfig can be a root
+   * ClassificationNodeConfig within a {@link Config}.
+   */
   @Override
-  public synchronized void setNodeConfigTransferObject(NodeConfigTransferObject NodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle) throws OptimisticLockException, DuplicateNodeException {
+  synchronized void commitNodeConfigTransferObject(NodeData nodeData, ChildNodeConfigChanges childNodeConfigChanges) {
     boolean indNew;
 
-    // Must check before calling extractNodeConfigTransferObject since the latter sets
-    // nodeData.
+    // Must check before calling super.commitNodeConfigTransferObject since the
+    // latter sets nodeData.
     indNew = (this.nodeData == null);
 
-    this.extractNodeConfigTransferObject(NodeConfigTransferObject, optimisticLockHandle);
+    super.commitNodeConfigTransferObject(nodeData, childNodeConfigChanges);
 
     if (indNew) {
       if (this.jpaConfig != null) {
@@ -144,90 +689,526 @@ public class JpaClassificationNodeConfig extends JpaNodeConfig implements Classi
   }
 
   /**
-   * Sets a child {@link NodeConfig}.
+   * Also invalidates the memoized effective properties of the loaded descendants,
+   * parents before children, which is what makes the invalidation precise and
+   * limited to the subtree.
+   */
+  @Override
+  void invalidateEffectiveProperties() {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    super.invalidateEffectiveProperties();
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    if (childNodeConfigSnapshot != null) {
+      for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigSnapshot.mapJpaNodeConfigChild.values()) {
+        jpaNodeConfigChild.invalidateEffectiveProperties();
+      }
+    }
+  }
+
+  @Override
+  void collectJpaNodeConfig(Map<Integer, JpaNodeConfig> mapJpaNodeConfig) {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    super.collectJpaNodeConfig(mapJpaNodeConfig);
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    if (childNodeConfigSnapshot != null) {
+      for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigSnapshot.mapJpaNodeConfigChild.values()) {
+        jpaNodeConfigChild.collectJpaNodeConfig(mapJpaNodeConfig);
+      }
+    }
+  }
+
+  /**
+   * Adds a child {@link NodeConfig} for a {@link NodeData} created by another JVM.
    * <p>
-   * This method is called by
-   * {@link JpaNodeConfig#extractNodeConfigTransferObject}.
+   * This method is called by {@link JpaConfig#refresh}. If the children are not
+   * completely loaded, nothing is done since the new child will be loaded with
+   * the others.
    *
-   * @param jpaNodeConfigChild Child jpaNodeConfig.
-   * @throws DuplicateNodeException When a JpaNodeConfig already exists with the
-   *   same name.
+   * @param nodeData NodeData of the new child.
+   * @return New child JpaNodeConfig. null if nothing was done.
    */
-  synchronized void setJpaNodeConfigChild(JpaNodeConfig jpaNodeConfigChild) throws DuplicateNodeException {
-    // No need to ensure the child NodeConfig's are loaded since it was done in the
-    // create method.
-    if (this.mapJpaNodeConfigChild.containsKey(jpaNodeConfigChild.getName())) {
-      throw new DuplicateNodeException();
+  synchronized JpaNodeConfig refreshChildNodeData(NodeData nodeData) {
+    Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+    JpaNodeConfig jpaNodeConfigChild;
+
+    if ((this.childNodeConfigSnapshot == null) || !this.childNodeConfigSnapshot.indComplete || this.childNodeConfigSnapshot.mapJpaNodeConfigChild.containsKey(nodeData.getName())) {
+      return null;
+    }
+
+    if (nodeData.getType() == 'C') {
+      jpaNodeConfigChild = new JpaClassificationNodeConfig(this, nodeData);
+    } else {
+      jpaNodeConfigChild = new JpaModuleConfig(this, nodeData);
     }
 
-    this.mapJpaNodeConfigChild.put(jpaNodeConfigChild.getName(), jpaNodeConfigChild);
+    mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>(this.childNodeConfigSnapshot.mapJpaNodeConfigChild);
+    mapJpaNodeConfigChild.put(nodeData.getName(), jpaNodeConfigChild);
+    this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(mapJpaNodeConfigChild);
+
+    return jpaNodeConfigChild;
+  }
+
+  /**
+   * Returns the child {@link NodeConfig} corresponding to a child
+   * {@link NodeData} obtained by path, adding it to a partial snapshot if the
+   * children are not completely loaded.
+   * <p>
+   * This method is called by {@link JpaConfig#getNodeConfigByPath} so that a
+   * NodeConfig can be reached without loading all of its siblings.
+   *
+   * @param nodeData NodeData of the child.
+   * @return Child JpaNodeConfig. null if the children are completely loaded and
+   *   none has the name of nodeData.
+   */
+  synchronized JpaNodeConfig attachChildNodeData(NodeData nodeData) {
+    Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+    JpaNodeConfig jpaNodeConfigChild;
+
+    if (this.childNodeConfigSnapshot != null) {
+      jpaNodeConfigChild = this.childNodeConfigSnapshot.mapJpaNodeConfigChild.get(nodeData.getName());
+
+      if ((jpaNodeConfigChild != null) || this.childNodeConfigSnapshot.indComplete) {
+        return jpaNodeConfigChild;
+      }
+
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>(this.childNodeConfigSnapshot.mapJpaNodeConfigChild);
+    } else {
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>();
+    }
+
+    if (nodeData.getType() == 'C') {
+      jpaNodeConfigChild = new JpaClassificationNodeConfig(this, nodeData);
+    } else {
+      jpaNodeConfigChild = new JpaModuleConfig(this, nodeData);
+    }
+
+    mapJpaNodeConfigChild.put(nodeData.getName(), jpaNodeConfigChild);
+    this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(mapJpaNodeConfigChild, false);
+
+    return jpaNodeConfigChild;
   }
 
   /**
-   * Renames a child {@link NodeConfig}.
+   * Returns the child {@link NodeConfig} corresponding to a page of child
+   * {@link NodeData}, adding those not already known to a partial snapshot.
+   * <p>
+   * The snapshot is copied once for the whole page.
    * <p>
-   * This method is called by
-   * {@link JpaNodeConfig#extractNodeConfigTransferObject}.
+   * This method is called by {@link ChildNodeConfigIterator}.
    *
-   * @param currentName Current name.
-   * @param newName New name.
+   * @param listNodeData List of child NodeData.
+   * @return List of child JpaNodeConfig. If the children became completely
+   *   loaded in the meantime, those which do not exist anymore in memory are
+   *   omitted.
+   */
+  synchronized List<JpaNodeConfig> attachListChildNodeData(List<NodeData> listNodeData) {
+    Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+    boolean indComplete;
+    List<JpaNodeConfig> listJpaNodeConfigChild;
+
+    if (this.childNodeConfigSnapshot != null) {
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>(this.childNodeConfigSnapshot.mapJpaNodeConfigChild);
+      indComplete = this.childNodeConfigSnapshot.indComplete;
+    } else {
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>();
+      indComplete = false;
+    }
+
+    listJpaNodeConfigChild = new ArrayList<JpaNodeConfig>(listNodeData.size());
+
+    for(NodeData nodeData: listNodeData) {
+      JpaNodeConfig jpaNodeConfigChild;
+
+      jpaNodeConfigChild = mapJpaNodeConfigChild.get(nodeData.getName());
+
+      if ((jpaNodeConfigChild == null) && !indComplete) {
+        if (nodeData.getType() == 'C') {
+          jpaNodeConfigChild = new JpaClassificationNodeConfig(this, nodeData);
+        } else {
+          jpaNodeConfigChild = new JpaModuleConfig(this, nodeData);
+        }
+
+        mapJpaNodeConfigChild.put(nodeData.getName(), jpaNodeConfigChild);
+      }
+
+      if (jpaNodeConfigChild != null) {
+        listJpaNodeConfigChild.add(jpaNodeConfigChild);
+      }
+    }
+
+    if (!indComplete) {
+      this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(mapJpaNodeConfigChild, false);
+    }
+
+    return listJpaNodeConfigChild;
+  }
+
+  /**
+   * Returns the child {@link NodeConfig} corresponding to a page of child
+   * {@link NodeData} without modifying the snapshot.
+   * <p>
+   * Children already known in memory are returned as is. The others are created
+   * read-only since they are not referenced by this JpaClassificationNodeConfig.
+   * <p>
+   * This method is called by {@link ChildNodeConfigIterator}.
+   *
+   * @param listNodeData List of child NodeData.
+   * @return List of child JpaNodeConfig.
+   */
+  List<JpaNodeConfig> createListJpaNodeConfigChildUncached(List<NodeData> listNodeData) {
+    List<JpaNodeConfig> listJpaNodeConfigChild;
+
+    listJpaNodeConfigChild = new ArrayList<JpaNodeConfig>(listNodeData.size());
+
+    for(NodeData nodeData: listNodeData) {
+      JpaNodeConfig jpaNodeConfigChild;
+
+      jpaNodeConfigChild = this.getJpaNodeConfigChildIfLoaded(nodeData.getName());
+
+      if ((jpaNodeConfigChild == null) || (jpaNodeConfigChild.nodeData == null) || (jpaNodeConfigChild.nodeData.getId() != nodeData.getId())) {
+        if (nodeData.getType() == 'C') {
+          jpaNodeConfigChild = new JpaClassificationNodeConfig(this, nodeData);
+        } else {
+          jpaNodeConfigChild = new JpaModuleConfig(this, nodeData);
+        }
+
+        jpaNodeConfigChild.indReadOnly = true;
+      }
+
+      listJpaNodeConfigChild.add(jpaNodeConfigChild);
+    }
+
+    return listJpaNodeConfigChild;
+  }
+
+  /**
+   * Loads the payload of a child {@link NodeData} along with that of the siblings
+   * known in memory whose payload is not loaded yet, using a single query.
+   * <p>
+   * This method is called by {@link JpaNodeConfig#getNodeDataPayload}. Siblings
+   * are generally accessed in turn so that this avoids one query per child.
+   *
+   * @param nodeData Child NodeData whose payload is needed.
+   */
+  void loadPayloadChildNodeData(NodeData nodeData) {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+    List<NodeData> listNodeData;
+
+    listNodeData = new ArrayList<NodeData>();
+    listNodeData.add(nodeData);
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    if (childNodeConfigSnapshot != null) {
+      for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigSnapshot.mapJpaNodeConfigChild.values()) {
+        NodeData nodeDataSibling;
+
+        if (listNodeData.size() == JpaClassificationNodeConfig.MAX_IDS_PER_STATEMENT) {
+          break;
+        }
+
+        nodeDataSibling = jpaNodeConfigChild.nodeData;
+
+        if ((nodeDataSibling != null) && (nodeDataSibling != nodeData) && !nodeDataSibling.isPayloadLoaded()) {
+          listNodeData.add(nodeDataSibling);
+        }
+      }
+    }
+
+    this.loadPayload(listNodeData);
+  }
+
+  /**
+   * Returns a child {@link NodeConfig} if it is known in memory, without loading
+   * the children.
+   *
+   * @param name Name of the child.
+   * @return Child JpaNodeConfig. null if not known in memory.
+   */
+  JpaNodeConfig getJpaNodeConfigChildIfLoaded(String name) {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    return (childNodeConfigSnapshot == null) ? null : childNodeConfigSnapshot.mapJpaNodeConfigChild.get(name);
+  }
+
+  /**
+   * @return Indicates if the children are completely loaded in memory.
+   */
+  boolean isChildNodeConfigComplete() {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    childNodeConfigSnapshot = this.childNodeConfigSnapshot;
+
+    return (childNodeConfigSnapshot != null) && childNodeConfigSnapshot.indComplete;
+  }
+
+  /**
+   * Publishes modifications to the child {@link NodeConfig} in a single new
+   * snapshot.
+   * <p>
+   * This method is called by {@link JpaNodeConfig#commitNodeConfigTransferObject}
+   * and {@link JpaNodeConfig#commitDelete} for a single child, and by
+   * {@link JpaBatchSession} for all the children modified within it.
+   * <p>
+   * Removals and previous names of renamed children are processed first so that a
+   * name freed by one child can be taken by another.
+   * <p>
+   * The children need not be completely loaded. Uniqueness was verified by looking
+   * up the children by name and is enforced by the DB.
+   *
+   * @param childNodeConfigChanges ChildNodeConfigChanges.
    * @throws DuplicateNodeException When a JpaNodeConfig already exists with the
-   *   same name.
+   *   name of an added or renamed child.
+   */
+  synchronized void updateChildNodeConfig(ChildNodeConfigChanges childNodeConfigChanges) throws DuplicateNodeException {
+    Map<String, JpaNodeConfig> mapJpaNodeConfigChild;
+    boolean indComplete;
+
+    if (this.childNodeConfigSnapshot == null) {
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>();
+      indComplete = false;
+    } else {
+      mapJpaNodeConfigChild = new HashMap<String, JpaNodeConfig>(this.childNodeConfigSnapshot.mapJpaNodeConfigChild);
+      indComplete = this.childNodeConfigSnapshot.indComplete;
+    }
+
+    for(String name: childNodeConfigChanges.listNameRemoved) {
+      if (mapJpaNodeConfigChild.remove(name) == null) {
+        throw new RuntimeException("JpaNodeConfig with name " + name + " not found.");
+      }
+    }
+
+    for(String previousName: childNodeConfigChanges.mapJpaNodeConfigRenamed.keySet()) {
+      if (mapJpaNodeConfigChild.remove(previousName) == null) {
+        throw new RuntimeException("JpaNodeConfig with current name " + previousName + " not found.");
+      }
+    }
+
+    for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigChanges.mapJpaNodeConfigRenamed.values()) {
+      if (mapJpaNodeConfigChild.put(jpaNodeConfigChild.getName(), jpaNodeConfigChild) != null) {
+        throw new DuplicateNodeException();
+      }
+    }
+
+    for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigChanges.listJpaNodeConfigAdded) {
+      if (mapJpaNodeConfigChild.put(jpaNodeConfigChild.getName(), jpaNodeConfigChild) != null) {
+        throw new DuplicateNodeException();
+      }
+    }
+
+    this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(mapJpaNodeConfigChild, indComplete);
+  }
+
+  /**
+   * Deletes the {@link NodeData} of the whole subtree from the DB.
+   * <p>
+   * The IDs of the descendants are collected level by level, which requires one
+   * query per level. The collection rows and the NodeData are then deleted with
+   * bulk statements, deepest level first because of the foreign key to the
+   * parent.
+   * <p>
+   * Bulk statements bypass the persistence context, so it is flushed before and
+   * cleared after. They also bypass the version of the NodeData, so that the
+   * NodeData of this JpaClassificationNodeConfig is deleted with a statement
+   * which includes its version in the WHERE clause, as the JPA provider does
+   * when deleting a single NodeData. Concurrent modifications of descendants are
+   * not detected, as when deleting a single NodeData.
    */
-  synchronized void renameJpaNodeConfigChild(String currentName, String newName) throws DuplicateNodeException {
-    if (!this.mapJpaNodeConfigChild.containsKey(currentName)) {
-      throw new RuntimeException("JpaNodeConfig with current name " + currentName + " not found.");
+  @Override
+  @SuppressWarnings("unchecked")
+  Map<Integer, Integer> persistDelete(EntityManager entityManager) {
+    NodeData nodeData;
+    List<List<Integer>> listListIdNodeDataLevel;
+    List<Integer> listIdNodeDataLevel;
+    Map<Integer, Integer> mapIdNodeDataParent;
+    Query query;
+
+    entityManager.flush();
+
+    nodeData = entityManager.find(NodeData.class, this.nodeData.getId());
+
+    if (nodeData == null) {
+      return Collections.emptyMap();
+    }
+
+    listListIdNodeDataLevel = new ArrayList<List<Integer>>();
+    mapIdNodeDataParent = new LinkedHashMap<Integer, Integer>();
+    mapIdNodeDataParent.put(nodeData.getId(), nodeData.getIdNodeDataParent());
+    listIdNodeDataLevel = Collections.singletonList(nodeData.getId());
+
+    do {
+      List<Integer> listIdNodeDataNextLevel;
+
+      listListIdNodeDataLevel.add(listIdNodeDataLevel);
+      listIdNodeDataNextLevel = new ArrayList<Integer>();
+
+      for(List<Integer> listIdNodeDataChunk: JpaClassificationNodeConfig.chunk(listIdNodeDataLevel)) {
+        query = entityManager.createNamedQuery("getChildNodeDataIdAndParentIds");
+        query.setParameter("ids", listIdNodeDataChunk);
+
+        for(Object[] arrayIdNodeData: (List<Object[]>)query.getResultList()) {
+          mapIdNodeDataParent.put((Integer)arrayIdNodeData[0], (Integer)arrayIdNodeData[1]);
+          listIdNodeDataNextLevel.add((Integer)arrayIdNodeData[0]);
+        }
+      }
+
+      listIdNodeDataLevel = listIdNodeDataNextLevel;
+    } while (!listIdNodeDataLevel.isEmpty());
+
+    for(List<Integer> listIdNodeDataChunk: JpaClassificationNodeConfig.chunk(new ArrayList<Integer>(mapIdNodeDataParent.keySet()))) {
+      JpaClassificationNodeConfig.deleteCollectionRows(entityManager, "NODE_DATA_PROPERTY", listIdNodeDataChunk);
+      JpaClassificationNodeConfig.deleteCollectionRows(entityManager, "NODE_DATA_PLUGIN", listIdNodeDataChunk);
+    }
+
+    // The first level contains only the NodeData of this
+    // JpaClassificationNodeConfig, which is deleted separately below.
+    for(int i = listListIdNodeDataLevel.size() - 1; i >= 1; i--) {
+      for(List<Integer> listIdNodeDataChunk: JpaClassificationNodeConfig.chunk(listListIdNodeDataLevel.get(i))) {
+        query = entityManager.createNamedQuery("deleteNodeDataByIds");
+        query.setParameter("ids", listIdNodeDataChunk);
+        query.executeUpdate();
+      }
     }
 
-    if (this.mapJpaNodeConfigChild.containsKey(newName)) {
-      throw new DuplicateNodeException();
+    query = entityManager.createNamedQuery("deleteNodeDataByIdAndVersion");
+    query.setParameter("id", nodeData.getId());
+    query.setParameter("version", nodeData.getVersion());
+
+    if (query.executeUpdate() == 0) {
+      throw new OptimisticLockException();
     }
 
-    this.mapJpaNodeConfigChild.put(newName, this.mapJpaNodeConfigChild.remove(currentName));
+    entityManager.clear();
+
+    return mapIdNodeDataParent;
   }
 
   /**
-   * Removes a child {@link NodeConfig}.
+   * Deletes the rows of a collection table for NodeData IDs.
    * <p>
-   * This method is called by {@link JpaNodeConfig#delete}.
+   * JPQL bulk deletes do not cover element collections, hence native SQL. Since
+   * collection-valued parameters are not portable in native queries, one
+   * positional parameter is bound per ID.
+   *
+   * @param entityManager EntityManager.
+   * @param tableName Name of the collection table.
+   * @param listIdNodeData IDs of the NodeData.
+   */
+  private static void deleteCollectionRows(EntityManager entityManager, String tableName, List<Integer> listIdNodeData) {
+    StringBuilder stringBuilder;
+    Query query;
+
+    stringBuilder = new StringBuilder("DELETE FROM ").append(tableName).append(" WHERE NODE_DATA_ID IN (");
+
+    for(int i = 1; i <= listIdNodeData.size(); i++) {
+      if (i != 1) {
+        stringBuilder.append(',');
+      }
+
+      stringBuilder.append('?').append(i);
+    }
+
+    stringBuilder.append(')');
+
+    query = entityManager.createNativeQuery(stringBuilder.toString());
+
+    for(int i = 0; i < listIdNodeData.size(); i++) {
+      query.setParameter(i + 1, listIdNodeData.get(i));
+    }
+
+    query.executeUpdate();
+  }
+
+  /**
+   * Splits a List of IDs into chunks small enough for IN lists.
    *
-   * @param childNodeName Name of the child NodeConig.
+   * @param listId List of IDs.
+   * @return List of chunks. Views of listId.
    */
-  synchronized void removeChildNodeConfig(String childNodeName) {
-    if (this.mapJpaNodeConfigChild.remove(childNodeName) == null) {
-      throw new RuntimeException("JpaNodeConfig with name " + childNodeName + " not found.");
+  private static List<List<Integer>> chunk(List<Integer> listId) {
+    List<List<Integer>> listListIdChunk;
+
+    listListIdChunk = new ArrayList<List<Integer>>();
+
+    for(int i = 0; i < listId.size(); i += JpaClassificationNodeConfig.MAX_IDS_PER_STATEMENT) {
+      listListIdChunk.add(listId.subList(i, Math.min(i + JpaClassificationNodeConfig.MAX_IDS_PER_STATEMENT, listId.size())));
     }
+
+    return listListIdChunk;
   }
 
   /**
-   * We need to override delete which is already defined in {@link JpaNodeConfig}
-   * since only a JpaClassificationNodeConfig can be a root ClassificationNodeConfig
-   * within a {@link Config}.
+   * We need to override commitDelete which is already defined in
+   * {@link JpaNodeConfig} since only a JpaClassificationNodeConfig can be a root
+   * ClassificationNodeConfig within a {@link Config}.
+   * <p>
+   * The loaded descendants, which were deleted along, are also pruned.
    */
   @Override
-  public synchronized void delete() {
-    super.delete();
+  void commitDelete(ChildNodeConfigChanges childNodeConfigChanges) {
+    synchronized(this) {
+      super.commitDelete(childNodeConfigChanges);
+
+      if (this.jpaConfig != null) {
+        this.jpaConfig.setJpaClassificationNodeConfigRoot(null);
+        this.jpaConfig = null;
+      }
+    }
+
+    this.pruneChildNodeConfig();
+  }
+
+  @Override
+  void commitDeleteDescendant() {
+    super.commitDeleteDescendant();
+    this.pruneChildNodeConfig();
+  }
+
+  /**
+   * Removes all loaded child {@link NodeConfig} and makes them reflect their
+   * deletion, recursively.
+   * <p>
+   * The children are processed without holding the lock on this
+   * JpaClassificationNodeConfig since elsewhere locks are acquired from children
+   * to parents.
+   */
+  private void pruneChildNodeConfig() {
+    ChildNodeConfigSnapshot childNodeConfigSnapshot;
+
+    synchronized(this) {
+      childNodeConfigSnapshot = this.childNodeConfigSnapshot;
 
-    if (this.jpaConfig != null) {
-      this.jpaConfig.setJpaClassificationNodeConfigRoot(null);
-      this.jpaConfig = null;
+      // Empty rather than null so that the deleted children are not reloaded.
+      this.childNodeConfigSnapshot = new ChildNodeConfigSnapshot(new HashMap<String, JpaNodeConfig>());
+    }
+
+    if (childNodeConfigSnapshot != null) {
+      for(JpaNodeConfig jpaNodeConfigChild: childNodeConfigSnapshot.mapJpaNodeConfigChild.values()) {
+        jpaNodeConfigChild.commitDeleteDescendant();
+      }
     }
   }
 
   @Override
   public MutableClassificationNodeConfig createChildMutableClassificationNodeConfig() {
-    // We ensure the child NodeConfig are loaded before since otherwise it causes a
-    // conflict when the new child NodeConfig is finalized.
-    this.ensureCreateChildNodeConfig();
+    this.checkNotReadOnly();
 
+    // The children are not loaded. When the new child NodeConfig is finalized, it
+    // is added to the possibly partial snapshot.
     return new JpaClassificationNodeConfig(this, null);
   }
 
   @Override
   public MutableModuleConfig createChildMutableModuleConfig() {
-    // We ensure the child NodeConfig are loaded before since otherwise it causes a
-    // conflict when the new child NodeConfig is finalized.
-    this.ensureCreateChildNodeConfig();
+    this.checkNotReadOnly();
 
     return new JpaModuleConfig(this, null);
   }
@@ -19,6 +19,22 @@
 
 package org.azyva.dragom.model.config.impl.jpa;
 
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
@@ -28,77 +44,1613 @@ import org.azyva.dragom.model.config.ClassificationNodeConfig;
 import org.azyva.dragom.model.config.Config;
 import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
 import org.azyva.dragom.model.config.MutableConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.azyva.dragom.model.config.PluginDefConfig;
+import org.azyva.dragom.model.config.PropertyDefConfig;
+import org.azyva.dragom.model.plugin.NodePlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * JPA implementation of {@link Config} and {@link MutableConfig}.
+ * <p>
+ * By default, the tree of {@link JpaClassificationNodeConfig} and
+ * {@link JpaModuleConfig} is loaded lazily, one classification node at a time.
+ * When bulk loading is enabled, the whole tree is loaded with two queries
+ * when the root ClassificationNodeConfig is first requested, which is more
+ * efficient when most of the model is expected to be traversed.
+ * <p>
+ * A {@link NodeDataCache} can be specified in order to avoid reloading the same
+ * {@link NodeData} when many JpaConfig are created for the same DB within a
+ * JVM.
+ * <p>
+ * All DB accesses go through an {@link EntityManagerProvider} which ensures
+ * every EntityManager is closed and optionally reuses them for reads.
+ * <p>
+ * The loaded tree can be refreshed incrementally with the modifications
+ * performed by other JVMs using {@link #refresh}, or periodically using
+ * {@link #startRefreshPolling}. This is based on the {@link NodeDataChange}
+ * recorded by {@link JpaBatchSession}, which are ordered by the sequence in
+ * which their transactions are committed (see {@link NodeDataChangeSequence}),
+ * independently of the clocks of the JVMs. Old NodeDataChange are deleted using
+ * {@link #purgeChanges}.
+ * <p>
+ * In order to avoid loading the tree from the DB at startup, it can be exported
+ * to a snapshot file using {@link #exportSnapshot} and loaded from it using
+ * {@link #loadSnapshot}, followed by {@link #refresh} to catch up with the DB.
+ * <p>
+ * A read-only JpaConfig can be created using {@link #createReadOnly}. The whole
+ * tree is loaded once at creation and never changes afterwards, so that all
+ * lookups are performed in memory without locking. Modifications are rejected.
  *
  * @author David Raymond
  * @see org.azyva.dragom.model.config.impl.jpa
  */
 public class JpaConfig implements Config, MutableConfig {
-  private EntityManagerFactory entityManagerFactory;
+  /**
+   * Maximum number of IDs or paths in a single getNodeDataByIds or
+   * getNodeDataByPaths query.
+   */
+  private static final int MAX_IDS_PER_QUERY = 500;
+
+  /**
+   * Logger for the class.
+   */
+  private static final Logger logger = LoggerFactory.getLogger(JpaConfig.class);
+
+  /**
+   * EntityManagerProvider used for all DB accesses.
+   */
+  private EntityManagerProvider entityManagerProvider;
 
   /**
    * Root JpaClassificationNodeConfig.
    */
-  private JpaClassificationNodeConfig jpaClassificationNodeConfigRoot;
+  private volatile JpaClassificationNodeConfig jpaClassificationNodeConfigRoot;
+
+  /**
+   * Sequence of the last {@link NodeDataChange} seen by the previous refresh, or
+   * committed before the root JpaClassificationNodeConfig was first loaded. null
+   * if not loaded yet.
+   * <p>
+   * Accessed only while synchronized.
+   */
+  private Long sequenceLastRefresh;
+
+  /**
+   * ScheduledExecutorService used for periodic refreshes. null if not started.
+   */
+  private ScheduledExecutorService scheduledExecutorServiceRefresh;
 
+  /**
+   * Indicates to load the whole tree of {@link NodeData} when the root
+   * ClassificationNodeConfig is first requested.
+   */
+  private boolean indBulkLoad;
+
+  /**
+   * Indicates the JpaConfig is read-only. See {@link #createReadOnly}.
+   */
+  private boolean indReadOnly;
+
+  /**
+   * {@link NodeDataCache} consulted before querying the DB. Can be shared with
+   * other JpaConfig for the same EntityManagerFactory. null if no caching.
+   */
+  private NodeDataCache nodeDataCache;
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   */
   public JpaConfig(EntityManagerFactory entityManagerFactory) {
-    this.entityManagerFactory = entityManagerFactory;
+    this(entityManagerFactory, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   * @param indBulkLoad Indicates to load the whole tree of NodeConfig when the
+   *   root ClassificationNodeConfig is first requested.
+   */
+  public JpaConfig(EntityManagerFactory entityManagerFactory, boolean indBulkLoad) {
+    this(entityManagerFactory, indBulkLoad, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerFactory EntityManagerFactory.
+   * @param indBulkLoad Indicates to load the whole tree of NodeConfig when the
+   *   root ClassificationNodeConfig is first requested.
+   * @param nodeDataCache NodeDataCache. Can be null.
+   */
+  public JpaConfig(EntityManagerFactory entityManagerFactory, boolean indBulkLoad, NodeDataCache nodeDataCache) {
+    this(new EntityManagerProvider(entityManagerFactory), indBulkLoad, nodeDataCache);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entityManagerProvider EntityManagerProvider. Can be shared with other
+   *   JpaConfig.
+   * @param indBulkLoad Indicates to load the whole tree of NodeConfig when the
+   *   root ClassificationNodeConfig is first requested.
+   * @param nodeDataCache NodeDataCache. Can be null.
+   */
+  public JpaConfig(EntityManagerProvider entityManagerProvider, boolean indBulkLoad, NodeDataCache nodeDataCache) {
+    this.entityManagerProvider = entityManagerProvider;
+    this.indBulkLoad = indBulkLoad;
+    this.nodeDataCache = nodeDataCache;
+  }
+
+  /**
+   * Creates a read-only JpaConfig.
+   * <p>
+   * The whole tree of {@link JpaClassificationNodeConfig} and
+   * {@link JpaModuleConfig} is loaded immediately with two queries. The
+   * {@link NodeData} are detached from the EntityManager, which is released, and
+   * the collections instantiated by the JPA provider are replaced by plain ones
+   * so that no state kept by the provider for dirty checking is retained.
+   * <p>
+   * Afterwards, the tree never changes. All lookups, including
+   * {@link #getNodeConfigByPath} and {@link #getListNodeConfigSubtree}, are
+   * performed in memory without locking and the Lists returned are not copied.
+   * Modifications, {@link #refresh} and {@link #loadSnapshot} are rejected.
+   * <p>
+   * The EntityManagerProvider remains in use after this call by
+   * {@link #exportSnapshot} and by the queries by property and by plugin, such as
+   * {@link #getListNodeConfigByProperty}, which are performed in the DB and whose
+   * results are resolved against the tree in memory. It must therefore not be
+   * closed while the JpaConfig is in use.
+   *
+   * @param entityManagerProvider EntityManagerProvider.
+   * @return JpaConfig.
+   */
+  public static JpaConfig createReadOnly(EntityManagerProvider entityManagerProvider) {
+    JpaConfig jpaConfig;
+
+    jpaConfig = new JpaConfig(entityManagerProvider, true, null);
+    jpaConfig.indReadOnly = true;
+    jpaConfig.bulkLoad();
+
+    return jpaConfig;
+  }
+
+  /**
+   * Creates a read-only JpaConfig from a snapshot file exported by
+   * {@link #exportSnapshot}, without accessing the DB.
+   * <p>
+   * See {@link #createReadOnly(EntityManagerProvider)}. Since the snapshot cannot
+   * be refreshed, the caller is responsible for its staleness.
+   * <p>
+   * The resulting JpaConfig has no EntityManagerProvider. The queries by
+   * property and by plugin are performed by traversing the tree in memory and
+   * {@link #exportSnapshot} throws an exception.
+   *
+   * @param file Snapshot file.
+   * @return JpaConfig.
+   */
+  public static JpaConfig createReadOnly(File file) {
+    JpaConfig jpaConfig;
+
+    jpaConfig = new JpaConfig((EntityManagerProvider)null, true, null);
+    jpaConfig.indReadOnly = true;
+    jpaConfig.buildTreeFromSnapshot(NodeDataSnapshot.read(file));
+
+    return jpaConfig;
+  }
+
+  /**
+   * @return Indicates the JpaConfig is read-only. See {@link #createReadOnly}.
+   */
+  public boolean isReadOnly() {
+    return this.indReadOnly;
+  }
+
+  /**
+   * Discards the loaded tree of {@link JpaClassificationNodeConfig} and
+   * {@link JpaModuleConfig}, if any, so that it is loaded from the DB when the
+   * root ClassificationNodeConfig is next requested, and clears the
+   * {@link NodeDataCache}, if any.
+   * <p>
+   * Called by {@link JpaConfigImporter} once an import is committed since it
+   * writes to the DB without going through JpaNodeConfig's.
+   */
+  synchronized void reset() {
+    this.jpaClassificationNodeConfigRoot = null;
+    this.sequenceLastRefresh = null;
+
+    if (this.nodeDataCache != null) {
+      this.nodeDataCache.clear();
+    }
+  }
+
+  /**
+   * Verifies the JpaConfig is not read-only.
+   */
+  void checkNotReadOnly() {
+    if (this.indReadOnly) {
+      throw new RuntimeException("JpaConfig is read-only.");
+    }
+  }
+
+  /**
+   * @return EntityManagerProvider, which exposes counts of EntityManager's. null
+   *   for a JpaConfig created from a snapshot file.
+   */
+  public EntityManagerProvider getEntityManagerProvider() {
+    return this.entityManagerProvider;
+  }
+
+  /**
+   * Verifies the JpaConfig has an EntityManagerProvider, which is not the case
+   * for a JpaConfig created from a snapshot file.
+   *
+   * @param operation Description of the operation requiring the DB, for the
+   *   exception message.
+   */
+  private void checkEntityManagerProvider(String operation) {
+    if (this.entityManagerProvider == null) {
+      throw new RuntimeException(operation + " requires access to the DB, but this JpaConfig was created from a snapshot file and has no EntityManagerProvider.");
+    }
   }
 
-  EntityManagerFactory getEntityManagerFactory() {
-    return this.entityManagerFactory;
+  NodeDataCache getNodeDataCache() {
+    return this.nodeDataCache;
+  }
+
+  /**
+   * @return JpaConfigMetrics of the EntityManagerProvider.
+   *   {@link JpaConfigMetrics#NO_OP} if none, such as for a JpaConfig created from
+   *   a snapshot.
+   */
+  JpaConfigMetrics getJpaConfigMetrics() {
+    if (this.entityManagerProvider == null) {
+      return JpaConfigMetrics.NO_OP;
+    }
+
+    return this.entityManagerProvider.getJpaConfigMetrics();
   }
 
   @Override
   public ClassificationNodeConfig getClassificationNodeConfigRoot() {
+    JpaClassificationNodeConfig jpaClassificationNodeConfigRoot;
+
+    jpaClassificationNodeConfigRoot = this.jpaClassificationNodeConfigRoot;
+
+    // A read-only JpaConfig is loaded at creation. If its root is null, the DB was
+    // empty.
+    if ((jpaClassificationNodeConfigRoot != null) || this.indReadOnly) {
+      return jpaClassificationNodeConfigRoot;
+    }
+
+    return this.loadJpaClassificationNodeConfigRoot();
+  }
+
+  /**
+   * Loads the root {@link JpaClassificationNodeConfig}, and the whole tree if
+   * bulk loading.
+   * <p>
+   * Synchronized so that concurrent first callers do not each load it. The
+   * first one loads it while the others wait and then find it loaded. This also
+   * excludes {@link #refresh}, which must not run before the tree is loaded
+   * and {@link #sequenceLastRefresh} is set.
+   *
+   * @return Root JpaClassificationNodeConfig. null if none.
+   */
+  private synchronized JpaClassificationNodeConfig loadJpaClassificationNodeConfigRoot() {
+    long startNanos;
     EntityManager entityManager;
     Query query;
     NodeData nodeData;
-    JpaClassificationNodeConfig jpaClassificationNodeConfig;
 
     if (this.jpaClassificationNodeConfigRoot != null) {
       return this.jpaClassificationNodeConfigRoot;
     }
 
-    entityManager = this.entityManagerFactory.createEntityManager();
+    this.initSequenceLastRefresh();
+
+    if (this.indBulkLoad) {
+      this.bulkLoad();
+
+      return this.jpaClassificationNodeConfigRoot;
+    }
+
+    if (this.nodeDataCache != null) {
+      List<NodeData> listNodeData;
+
+      listNodeData = this.nodeDataCache.getListNodeDataChild(null);
+
+      if (listNodeData != null) {
+        this.jpaClassificationNodeConfigRoot = new JpaClassificationNodeConfig(this, listNodeData.get(0));
+
+        return this.jpaClassificationNodeConfigRoot;
+      }
+    }
+
+    startNanos = System.nanoTime();
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
 
     try {
       query = entityManager.createNamedQuery("getRootNodeData");
 
       nodeData = (NodeData)query.getSingleResult();
 
+      if (this.nodeDataCache != null) {
+        this.nodeDataCache.putListNodeDataChild(null, Collections.singletonList(nodeData));
+      }
+
       this.jpaClassificationNodeConfigRoot = new JpaClassificationNodeConfig(this, nodeData);
     } catch (NoResultException nre) {
     } finally {
-      entityManager.close();
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+      this.entityManagerProvider.getJpaConfigMetrics().recordOperation(JpaConfigMetrics.Operation.ROOT_LOAD, System.nanoTime() - startNanos);
     }
 
     return this.jpaClassificationNodeConfigRoot;
   }
 
   /**
-   * Sets the root {@link JpaClassificationNodeConfig}.
+   * Loads all {@link NodeData} with their {@link PropertyDefConfig} and
+   * {@link PluginDefConfig} using two queries and builds the whole tree of
+   * {@link JpaClassificationNodeConfig} and {@link JpaModuleConfig} in memory
+   * by matching each NodeData with its parent.
+   */
+  @SuppressWarnings("unchecked")
+  private void bulkLoad() {
+    long startNanos;
+    EntityManager entityManager;
+    List<NodeData> listNodeData;
+    NodeData nodeDataRoot;
+    Map<Integer, List<NodeData>> mapListNodeDataChild;
+
+    startNanos = System.nanoTime();
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      listNodeData = NodeData.getResultListWithPayload(entityManager, "getAllNodeData", null, null);
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+
+    nodeDataRoot = null;
+    mapListNodeDataChild = new HashMap<Integer, List<NodeData>>();
+
+    for(NodeData nodeData: listNodeData) {
+      List<NodeData> listNodeDataChild;
+
+      if (this.indReadOnly) {
+        nodeData.releasePersistenceState();
+      }
+
+      if (nodeData.getIdNodeDataParent() == null) {
+        nodeDataRoot = nodeData;
+      } else {
+        listNodeDataChild = mapListNodeDataChild.get(nodeData.getIdNodeDataParent());
+
+        if (listNodeDataChild == null) {
+          listNodeDataChild = new ArrayList<NodeData>();
+          mapListNodeDataChild.put(nodeData.getIdNodeDataParent(), listNodeDataChild);
+        }
+
+        listNodeDataChild.add(nodeData);
+      }
+    }
+
+    if (this.nodeDataCache != null) {
+      if (nodeDataRoot != null) {
+        this.nodeDataCache.putListNodeDataChild(null, Collections.singletonList(nodeDataRoot));
+      }
+
+      for(NodeData nodeData: listNodeData) {
+        if (nodeData.getType() == 'C') {
+          List<NodeData> listNodeDataChild;
+
+          listNodeDataChild = mapListNodeDataChild.get(nodeData.getId());
+          this.nodeDataCache.putListNodeDataChild(nodeData, listNodeDataChild == null ? Collections.<NodeData>emptyList() : listNodeDataChild);
+        }
+      }
+    }
+
+    // The root is published only once the whole tree is built since readers do
+    // not synchronize.
+    if (nodeDataRoot != null) {
+      JpaClassificationNodeConfig jpaClassificationNodeConfigRoot;
+
+      jpaClassificationNodeConfigRoot = new JpaClassificationNodeConfig(this, nodeDataRoot);
+      jpaClassificationNodeConfigRoot.bulkCreateChildNodeConfig(mapListNodeDataChild);
+      this.jpaClassificationNodeConfigRoot = jpaClassificationNodeConfigRoot;
+    }
+
+    this.entityManagerProvider.getJpaConfigMetrics().recordOperation(JpaConfigMetrics.Operation.BULK_LOAD, System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Exports all {@link NodeData} with their {@link PropertyDefConfig} and
+   * {@link PluginDefConfig} to a snapshot file, in a compact binary format.
    * <p>
-   * This method is intended to be called by
-   * {@link JpaNodeConfig#setNodeConfigTransferObject}.
+   * The NodeData are read from the DB, independently of the tree loaded by this
+   * JpaConfig. See {@link #loadSnapshot}.
    *
-   * @param jpaClassificationNodeConfigRoot Root JpaClassificationNodeConfig.
+   * @param file Snapshot file.
    */
-  void setJpaClassificationNodeConfigRoot(JpaClassificationNodeConfig jpaClassificationNodeConfigRoot) {
-    if (this.jpaClassificationNodeConfigRoot != null && jpaClassificationNodeConfigRoot != null) {
-      throw new RuntimeException("Replacing the root JpaClassificationNodeConfig is not allowed.");
+  @SuppressWarnings("unchecked")
+  public void exportSnapshot(File file) {
+    EntityManager entityManager;
+    long sequenceSnapshot;
+    List<NodeData> listNodeData;
+
+    this.checkEntityManagerProvider("Exporting a snapshot");
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      // Modifications committed after this point will be seen by refresh after the
+      // snapshot is loaded.
+      sequenceSnapshot = JpaConfig.getSequenceLast(entityManager);
+
+      listNodeData = NodeData.getResultListWithPayload(entityManager, "getAllNodeData", null, null);
+
+      NodeDataSnapshot.write(file, sequenceSnapshot, listNodeData);
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
     }
+  }
 
-    // Setting this.simplClassificationNodeRoot to null is allowed since this
-    // can happen when deleting the root JpaClassificationNode.
-    this.jpaClassificationNodeConfigRoot = jpaClassificationNodeConfigRoot;
+  /**
+   * Loads the whole tree of {@link JpaClassificationNodeConfig} and
+   * {@link JpaModuleConfig} from a snapshot file exported by
+   * {@link #exportSnapshot}, instead of from the DB.
+   * <p>
+   * Must be called before the root ClassificationNodeConfig is first requested.
+   * <p>
+   * The DB is not accessed. The snapshot can be stale. {@link #refresh} applies
+   * the modifications performed since it was exported, if any, and its return
+   * value indicates whether there were some. Otherwise the JpaConfig can be used
+   * as if the tree had been loaded from the DB.
+   *
+   * @param file Snapshot file.
+   */
+  public synchronized void loadSnapshot(File file) {
+    this.checkNotReadOnly();
+
+    if (this.jpaClassificationNodeConfigRoot != null) {
+      throw new RuntimeException("Snapshot must be loaded before the root ClassificationNodeConfig is loaded.");
+    }
+
+    this.buildTreeFromSnapshot(NodeDataSnapshot.read(file));
   }
 
-  @Override
-  public MutableClassificationNodeConfig createMutableClassificationNodeConfigRoot() {
-    return new JpaClassificationNodeConfig(this, null);
+  /**
+   * Builds the whole tree of {@link JpaClassificationNodeConfig} and
+   * {@link JpaModuleConfig} from a {@link NodeDataSnapshot}.
+   *
+   * @param nodeDataSnapshot NodeDataSnapshot.
+   */
+  private void buildTreeFromSnapshot(NodeDataSnapshot nodeDataSnapshot) {
+    this.sequenceLastRefresh = nodeDataSnapshot.sequence;
+
+    if (nodeDataSnapshot.nodeDataRoot != null) {
+      JpaClassificationNodeConfig jpaClassificationNodeConfigRoot;
+
+      jpaClassificationNodeConfigRoot = new JpaClassificationNodeConfig(this, nodeDataSnapshot.nodeDataRoot);
+      jpaClassificationNodeConfigRoot.bulkCreateChildNodeConfig(nodeDataSnapshot.mapListNodeDataChild);
+      this.jpaClassificationNodeConfigRoot = jpaClassificationNodeConfigRoot;
+    }
+  }
+
+  /**
+   * Refreshes the loaded tree of {@link JpaClassificationNodeConfig} and
+   * {@link JpaModuleConfig} with the modifications performed since the previous
+   * refresh, generally by other JVMs.
+   * <p>
+   * Only the changed {@link NodeData} are reloaded, using the
+   * {@link NodeDataChange} committed since the previous refresh. Those which
+   * correspond neither to a loaded JpaNodeConfig nor to a child of a loaded
+   * JpaClassificationNodeConfig are not reloaded. For each of them:
+   * <ul>
+   * <li>If the NodeData was deleted, the corresponding loaded JpaNodeConfig, if
+   *     any, is removed from its parent
+   * <li>If a corresponding JpaNodeConfig is loaded, it is updated in place (and
+   *     renamed within its parent, if required)
+   * <li>Otherwise, if the children of its parent are loaded, a new child is
+   *     added
+   * </ul>
+   * The corresponding entries of the {@link NodeDataCache}, if any, are
+   * invalidated.
+   * <p>
+   * If NodeDataChange not seen yet were purged in the meantime (see
+   * {@link #purgeChanges}), the NodeData of all loaded JpaNodeConfig and the
+   * children of all loaded JpaClassificationNodeConfig are reloaded instead and
+   * the NodeDataCache is cleared.
+   * <p>
+   * Modifications performed by this JpaConfig are also seen but have no effect
+   * since the loaded JpaNodeConfig are already up to date.
+   * <p>
+   * If an exception is thrown, the next refresh covers the same modifications.
+   *
+   * @return Number of JpaNodeConfig updated, added or removed.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized int refresh() {
+    long sequenceRefresh;
+    EntityManager entityManager;
+    Query query;
+    Map<Integer, Integer> mapIdNodeDataParent;
+    Map<Integer, JpaNodeConfig> mapJpaNodeConfig;
+    Map<Integer, NodeData> mapNodeData;
+    int count;
+
+    this.checkNotReadOnly();
+
+    if (this.sequenceLastRefresh == null) {
+      return 0;
+    }
+
+    sequenceRefresh = this.sequenceLastRefresh;
+
+    // LinkedHashMap so that changes are processed in order, parents being created
+    // before their children.
+    mapIdNodeDataParent = new LinkedHashMap<Integer, Integer>();
+    mapJpaNodeConfig = new HashMap<Integer, JpaNodeConfig>();
+    mapNodeData = new HashMap<Integer, NodeData>();
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      NodeDataChangeSequence nodeDataChangeSequence;
+      List<Integer> listIdNodeData;
+
+      query = entityManager.createNamedQuery("getNodeDataChangeSince");
+      query.setParameter("sequence", this.sequenceLastRefresh);
+
+      for(NodeDataChange nodeDataChange: (List<NodeDataChange>)query.getResultList()) {
+        if (!mapIdNodeDataParent.containsKey(nodeDataChange.getIdNodeData())) {
+          mapIdNodeDataParent.put(nodeDataChange.getIdNodeData(), nodeDataChange.getIdNodeDataParent());
+        }
+
+        sequenceRefresh = nodeDataChange.getSequenceChange();
+      }
+
+      // Read after the NodeDataChange so that a purge performed in the meantime is
+      // detected.
+      nodeDataChangeSequence = NodeDataChangeSequence.get(entityManager);
+
+      // Collected after the NodeDataChange are obtained since JpaNodeConfig loaded
+      // afterwards already reflect them.
+      if (this.jpaClassificationNodeConfigRoot != null) {
+        this.jpaClassificationNodeConfigRoot.collectJpaNodeConfig(mapJpaNodeConfig);
+      }
+
+      if ((nodeDataChangeSequence != null) && (nodeDataChangeSequence.getSequencePurged() > this.sequenceLastRefresh)) {
+        JpaConfig.addRefreshCandidates(entityManager, mapJpaNodeConfig, mapIdNodeDataParent);
+        sequenceRefresh = nodeDataChangeSequence.getSequenceLast();
+
+        if (this.nodeDataCache != null) {
+          this.nodeDataCache.clear();
+        }
+      }
+
+      listIdNodeData = new ArrayList<Integer>();
+
+      for(Map.Entry<Integer, Integer> mapEntry: mapIdNodeDataParent.entrySet()) {
+        if (mapJpaNodeConfig.containsKey(mapEntry.getKey()) || (mapJpaNodeConfig.get(mapEntry.getValue()) instanceof JpaClassificationNodeConfig)) {
+          listIdNodeData.add(mapEntry.getKey());
+        }
+      }
+
+      for(int i = 0; i < listIdNodeData.size(); i += JpaConfig.MAX_IDS_PER_QUERY) {
+        for(NodeData nodeData: NodeData.getResultListWithPayload(entityManager, "getNodeDataByIds", "ids", listIdNodeData.subList(i, Math.min(i + JpaConfig.MAX_IDS_PER_QUERY, listIdNodeData.size())))) {
+          mapNodeData.put(nodeData.getId(), nodeData);
+        }
+      }
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+
+    count = 0;
+
+    for(Map.Entry<Integer, Integer> mapEntry: mapIdNodeDataParent.entrySet()) {
+      NodeData nodeData;
+      JpaNodeConfig jpaNodeConfig;
+
+      nodeData = mapNodeData.get(mapEntry.getKey());
+      jpaNodeConfig = mapJpaNodeConfig.get(mapEntry.getKey());
+
+      if (this.nodeDataCache != null) {
+        this.nodeDataCache.invalidate(mapEntry.getValue());
+
+        if (nodeData == null) {
+          this.nodeDataCache.invalidate(mapEntry.getKey());
+        }
+      }
+
+      if (nodeData == null) {
+        if (jpaNodeConfig != null) {
+          jpaNodeConfig.commitDelete(null);
+          mapJpaNodeConfig.remove(mapEntry.getKey());
+          count++;
+        }
+      } else if (jpaNodeConfig != null) {
+        if (nodeData.getVersion() > jpaNodeConfig.nodeData.getVersion()) {
+          jpaNodeConfig.commitNodeConfigTransferObject(nodeData, null);
+          count++;
+        }
+      } else if (mapEntry.getValue() != null) {
+        JpaNodeConfig jpaNodeConfigParent;
+
+        jpaNodeConfigParent = mapJpaNodeConfig.get(mapEntry.getValue());
+
+        if (jpaNodeConfigParent instanceof JpaClassificationNodeConfig) {
+          jpaNodeConfig = ((JpaClassificationNodeConfig)jpaNodeConfigParent).refreshChildNodeData(nodeData);
+
+          if (jpaNodeConfig != null) {
+            mapJpaNodeConfig.put(mapEntry.getKey(), jpaNodeConfig);
+            count++;
+          }
+        }
+      }
+
+      // A new root NodeData requires nothing since the root
+      // JpaClassificationNodeConfig is loaded on demand when null.
+    }
+
+    this.sequenceLastRefresh = sequenceRefresh;
+
+    return count;
+  }
+
+  /**
+   * Adds to the changes to be processed by {@link #refresh} all loaded
+   * {@link JpaNodeConfig} and the current children of all loaded
+   * {@link JpaClassificationNodeConfig}, so that the tree can be refreshed even
+   * though the {@link NodeDataChange} which were not seen were purged.
+   *
+   * @param entityManager EntityManager.
+   * @param mapJpaNodeConfig Map of IDs to loaded JpaNodeConfig.
+   * @param mapIdNodeDataParent Map of IDs of changed NodeData to the IDs of their
+   *   parent. Modified.
+   */
+  @SuppressWarnings("unchecked")
+  private static void addRefreshCandidates(EntityManager entityManager, Map<Integer, JpaNodeConfig> mapJpaNodeConfig, Map<Integer, Integer> mapIdNodeDataParent) {
+    List<Integer> listIdNodeDataClassification;
+    Query query;
+
+    listIdNodeDataClassification = new ArrayList<Integer>();
+
+    for(Map.Entry<Integer, JpaNodeConfig> mapEntry: mapJpaNodeConfig.entrySet()) {
+      if (!mapIdNodeDataParent.containsKey(mapEntry.getKey())) {
+        mapIdNodeDataParent.put(mapEntry.getKey(), mapEntry.getValue().nodeData.getIdNodeDataParent());
+      }
+
+      if (mapEntry.getValue() instanceof JpaClassificationNodeConfig) {
+        listIdNodeDataClassification.add(mapEntry.getKey());
+      }
+    }
+
+    for(int i = 0; i < listIdNodeDataClassification.size(); i += JpaConfig.MAX_IDS_PER_QUERY) {
+      query = entityManager.createNamedQuery("getChildNodeDataIdAndParentIds");
+      query.setParameter("ids", listIdNodeDataClassification.subList(i, Math.min(i + JpaConfig.MAX_IDS_PER_QUERY, listIdNodeDataClassification.size())));
+
+      for(Object[] arrayIdNodeData: (List<Object[]>)query.getResultList()) {
+        if (!mapIdNodeDataParent.containsKey(arrayIdNodeData[0])) {
+          mapIdNodeDataParent.put((Integer)arrayIdNodeData[0], (Integer)arrayIdNodeData[1]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets {@link #sequenceLastRefresh}, if not already set, before NodeData are
+   * first loaded from the DB, so that modifications committed afterwards are seen
+   * by {@link #refresh}.
+   * <p>
+   * The {@link NodeDataCache}, if any, is also brought up to date with the
+   * modifications committed up to that point. See
+   * {@link NodeDataCache#invalidateChanges}.
+   */
+  private synchronized void initSequenceLastRefresh() {
+    EntityManager entityManager;
+
+    if ((this.sequenceLastRefresh != null) || this.indReadOnly) {
+      return;
+    }
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      this.sequenceLastRefresh = JpaConfig.getSequenceLast(entityManager);
+
+      if (this.nodeDataCache != null) {
+        this.nodeDataCache.invalidateChanges(entityManager);
+      }
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+  }
+
+  /**
+   * @param entityManager EntityManager.
+   * @return Sequence of the last {@link NodeDataChange} committed. 0 if none.
+   */
+  private static long getSequenceLast(EntityManager entityManager) {
+    NodeDataChangeSequence nodeDataChangeSequence;
+
+    nodeDataChangeSequence = NodeDataChangeSequence.get(entityManager);
+
+    return (nodeDataChangeSequence == null) ? 0 : nodeDataChangeSequence.getSequenceLast();
+  }
+
+  /**
+   * Deletes the {@link NodeDataChange} recorded more than a given time ago, so
+   * that they do not accumulate.
+   * <p>
+   * The retention should be well above the interval between refreshes of all
+   * JpaConfig accessing the DB. A JpaConfig which did not see some of the deleted
+   * NodeDataChange still refreshes correctly, but reloads all of its loaded
+   * {@link NodeData} (see {@link #refresh}).
+   * <p>
+   * Only a single JpaConfig needs to purge, but concurrent purges are harmless.
+   *
+   * @param retentionMillis Retention in milliseconds.
+   * @return Number of NodeDataChange deleted.
+   */
+  public int purgeChanges(long retentionMillis) {
+    EntityManager entityManager;
+    NodeDataChangeSequence nodeDataChangeSequence;
+    Query query;
+    Long sequencePurge;
+    int count;
+
+    this.checkNotReadOnly();
+
+    entityManager = this.entityManagerProvider.acquireEntityManager();
+
+    try {
+      entityManager.getTransaction().begin();
+
+      // Locked so that concurrent purges do not overwrite each other's
+      // sequencePurged.
+      nodeDataChangeSequence = NodeDataChangeSequence.getLocked(entityManager);
+
+      if (nodeDataChangeSequence == null) {
+        return 0;
+      }
+
+      query = entityManager.createNamedQuery("getNodeDataChangeMaxSequenceBefore");
+      query.setParameter("timestamp", new Timestamp(System.currentTimeMillis() - retentionMillis));
+      sequencePurge = (Long)query.getSingleResult();
+
+      if (sequencePurge == null) {
+        return 0;
+      }
+
+      // Deleting up to a sequence rather than by timestamp ensures readers can
+      // detect that changes are missing by comparing with sequencePurged.
+      query = entityManager.createNamedQuery("deleteNodeDataChangeUpTo");
+      query.setParameter("sequence", sequencePurge);
+      count = query.executeUpdate();
+
+      nodeDataChangeSequence.setSequencePurged(Math.max(sequencePurge, nodeDataChangeSequence.getSequencePurged()));
+
+      entityManager.getTransaction().commit();
+
+      return count;
+    } finally {
+      try {
+        if (entityManager.getTransaction().isActive()) {
+          entityManager.getTransaction().rollback();
+        }
+      } finally {
+        this.entityManagerProvider.releaseEntityManager(entityManager);
+      }
+    }
+  }
+
+  /**
+   * Starts periodically calling {@link #refresh} in a background daemon thread.
+   *
+   * @param intervalMillis Interval in milliseconds between the end of a refresh
+   *   and the start of the next one.
+   */
+  public void startRefreshPolling(long intervalMillis) {
+    this.startRefreshPolling(intervalMillis, 0);
+  }
+
+  /**
+   * Starts periodically calling {@link #refresh} and {@link #purgeChanges} in a
+   * background daemon thread.
+   * <p>
+   * The purge is performed every quarter of the retention, but not more often
+   * than the refresh.
+   *
+   * @param intervalMillis Interval in milliseconds between the end of a refresh
+   *   and the start of the next one.
+   * @param retentionMillis Retention in milliseconds passed to purgeChanges. 0 to
+   *   not purge.
+   */
+  public synchronized void startRefreshPolling(final long intervalMillis, final long retentionMillis) {
+    final long intervalPurgeMillis;
+
+    this.checkNotReadOnly();
+
+    if (this.scheduledExecutorServiceRefresh != null) {
+      throw new RuntimeException("Refresh polling is already started.");
+    }
+
+    this.scheduledExecutorServiceRefresh = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread;
+
+        thread = new Thread(runnable, "JpaConfig refresh");
+        thread.setDaemon(true);
+
+        return thread;
+      }
+    });
+
+    this.scheduledExecutorServiceRefresh.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          JpaConfig.this.refresh();
+        } catch (RuntimeException re) {
+          // The next refresh covers the same modifications, so that there is
+          // nothing to do other than reporting the failure and preventing the
+          // ScheduledExecutorService from cancelling subsequent executions. A
+          // persistent failure is reported at each attempt.
+          JpaConfig.logger.error("Periodic refresh of the JpaConfig failed. It will be attempted again in " + intervalMillis + " ms.", re);
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+    if (retentionMillis > 0) {
+      intervalPurgeMillis = Math.max(intervalMillis, retentionMillis / 4);
+
+      this.scheduledExecutorServiceRefresh.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            JpaConfig.this.purgeChanges(retentionMillis);
+          } catch (RuntimeException re) {
+            // The next purge deletes the same NodeDataChange.
+            JpaConfig.logger.error("Periodic purge of the NodeDataChange failed. It will be attempted again in " + intervalPurgeMillis + " ms.", re);
+          }
+        }
+      }, intervalPurgeMillis, intervalPurgeMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the periodic refreshes started with {@link #startRefreshPolling}.
+   */
+  public synchronized void stopRefreshPolling() {
+    if (this.scheduledExecutorServiceRefresh != null) {
+      this.scheduledExecutorServiceRefresh.shutdownNow();
+      this.scheduledExecutorServiceRefresh = null;
+    }
+  }
+
+  /**
+   * Returns a {@link NodeConfig} by path.
+   * <p>
+   * The path is made of the names of the NodeConfig from the root
+   * ClassificationNodeConfig (excluded) separated by "/", such as
+   * "Domain/SubDomain/module". Leading and trailing "/" are ignored, so that an
+   * empty path designates the root ClassificationNodeConfig.
+   * <p>
+   * If the NodeConfig and its ancestors are known in memory, no query is
+   * performed. Otherwise they are all obtained with a single query on the
+   * indexed materialized path of {@link NodeData} and attached to the tree
+   * without loading their siblings.
+   *
+   * @param path Path.
+   * @return NodeConfig. null if none.
+   */
+  @SuppressWarnings("unchecked")
+  public NodeConfig getNodeConfigByPath(String path) {
+    List<String> listName;
+    JpaNodeConfig jpaNodeConfig;
+    List<String> listPath;
+    EntityManager entityManager;
+    Query query;
+    Map<String, NodeData> mapNodeData;
+
+    listName = JpaConfig.splitPath(path);
+
+    if (this.indBulkLoad || (this.jpaClassificationNodeConfigRoot != null)) {
+      boolean indQueryRequired;
+
+      // When bulk loading, everything is in memory once the root is.
+      jpaNodeConfig = (JpaNodeConfig)this.getClassificationNodeConfigRoot();
+      indQueryRequired = false;
+
+      for(String name: listName) {
+        JpaClassificationNodeConfig jpaClassificationNodeConfig;
+
+        if (!(jpaNodeConfig instanceof JpaClassificationNodeConfig)) {
+          return null;
+        }
+
+        jpaClassificationNodeConfig = (JpaClassificationNodeConfig)jpaNodeConfig;
+        jpaNodeConfig = jpaClassificationNodeConfig.getJpaNodeConfigChildIfLoaded(name);
+
+        if (jpaNodeConfig == null) {
+          if (this.indBulkLoad || jpaClassificationNodeConfig.isChildNodeConfigComplete()) {
+            return null;
+          }
+
+          indQueryRequired = true;
+          break;
+        }
+      }
+
+      if (!indQueryRequired) {
+        return jpaNodeConfig;
+      }
+    }
+
+    listPath = JpaConfig.buildListPathAncestor(listName);
+    mapNodeData = new HashMap<String, NodeData>();
+
+    if (this.jpaClassificationNodeConfigRoot == null) {
+      this.initSequenceLastRefresh();
+    }
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      query = entityManager.createNamedQuery("getNodeDataByPaths");
+      query.setParameter("paths", listPath);
+
+      for(NodeData nodeDataFound: (List<NodeData>)query.getResultList()) {
+        mapNodeData.put(nodeDataFound.getPath(), nodeDataFound);
+      }
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+
+    return this.attachNodeDataByPath(listPath, mapNodeData);
+  }
+
+  /**
+   * Attaches {@link NodeData} obtained by path to the tree, from the root down to
+   * a NodeConfig.
+   *
+   * @param listPath Paths of the root, of the ancestors and of the NodeConfig, as
+   *   returned by {@link #buildListPathAncestor}.
+   * @param mapNodeData Map of paths to NodeData. Must contain those of listPath.
+   * @return JpaNodeConfig. null if one of the NodeData is missing.
+   */
+  private JpaNodeConfig attachNodeDataByPath(List<String> listPath, Map<String, NodeData> mapNodeData) {
+    NodeData nodeData;
+    JpaNodeConfig jpaNodeConfig;
+
+    nodeData = mapNodeData.get(listPath.get(0));
+
+    if (nodeData == null) {
+      return null;
+    }
+
+    jpaNodeConfig = this.setJpaClassificationNodeConfigRootIfNull(nodeData);
+
+    for(int i = 1; i < listPath.size(); i++) {
+      nodeData = mapNodeData.get(listPath.get(i));
+
+      if ((nodeData == null) || !(jpaNodeConfig instanceof JpaClassificationNodeConfig)) {
+        return null;
+      }
+
+      jpaNodeConfig = ((JpaClassificationNodeConfig)jpaNodeConfig).attachChildNodeData(nodeData);
+
+      if (jpaNodeConfig == null) {
+        return null;
+      }
+    }
+
+    return jpaNodeConfig;
+  }
+
+  /**
+   * Returns the {@link NodeConfig} within the subtree of a NodeConfig, including
+   * itself.
+   * <p>
+   * The whole subtree is loaded with two queries on the indexed materialized
+   * path of {@link NodeData}, after the root of the subtree is obtained with
+   * {@link #getNodeConfigByPath}. NodeConfig already loaded in memory are kept.
+   *
+   * @param path Path of the root of the subtree. See {@link #getNodeConfigByPath}.
+   * @return List of NodeConfig, depth first, children being sorted by name. null
+   *   if the path does not exist.
+   */
+  @SuppressWarnings("unchecked")
+  public List<NodeConfig> getListNodeConfigSubtree(String path) {
+    JpaNodeConfig jpaNodeConfig;
+    List<NodeConfig> listNodeConfig;
+
+    jpaNodeConfig = (JpaNodeConfig)this.getNodeConfigByPath(path);
+
+    if (jpaNodeConfig == null) {
+      return null;
+    }
+
+    if ((jpaNodeConfig instanceof JpaClassificationNodeConfig) && !this.indBulkLoad) {
+      EntityManager entityManager;
+      List<NodeData> listNodeData;
+      Map<Integer, List<NodeData>> mapListNodeDataChild;
+
+      entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+      try {
+        listNodeData = NodeData.getResultListWithPayload(entityManager, "getSubtreeNodeData", "pathPattern", NodeData.buildPathPrefixPattern(JpaConfig.buildPath(JpaConfig.splitPath(path))));
+      } finally {
+        this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+      }
+
+      mapListNodeDataChild = new HashMap<Integer, List<NodeData>>();
+
+      for(NodeData nodeData: listNodeData) {
+        List<NodeData> listNodeDataChild;
+
+        // The root of the subtree is grouped under its parent, which is outside of
+        // the subtree and thus never looked up. The root NodeData has no parent.
+        if (nodeData.getIdNodeDataParent() == null) {
+          continue;
+        }
+
+        listNodeDataChild = mapListNodeDataChild.get(nodeData.getIdNodeDataParent());
+
+        if (listNodeDataChild == null) {
+          listNodeDataChild = new ArrayList<NodeData>();
+          mapListNodeDataChild.put(nodeData.getIdNodeDataParent(), listNodeDataChild);
+        }
+
+        listNodeDataChild.add(nodeData);
+      }
+
+      ((JpaClassificationNodeConfig)jpaNodeConfig).bulkCreateChildNodeConfig(mapListNodeDataChild);
+    }
+
+    listNodeConfig = new ArrayList<NodeConfig>();
+    JpaConfig.collectSubtree(jpaNodeConfig, listNodeConfig);
+
+    return listNodeConfig;
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a property with a given value.
+   * <p>
+   * The query is performed on the PropertyDefConfig in the DB, so that the tree
+   * does not need to be traversed. They are found through the index on their
+   * name and then filtered on their value, which is not indexed since it is too
+   * long for the index key of some DBs. Only the NodeConfig which define the
+   * property themselves are returned, not those which inherit it.
+   * <p>
+   * The NodeConfig are resolved from the tree in memory when they are already
+   * loaded. The others are attached to the tree without loading their siblings,
+   * as with {@link #getNodeConfigByPath}.
+   * <p>
+   * For a JpaConfig created from a snapshot, the tree in memory is traversed
+   * instead.
+   *
+   * @param name Name of the property.
+   * @param value Value of the property. If null, the NodeConfig which define the
+   *   property are returned whatever its value.
+   * @return List of NodeConfig, sorted by path, except for a JpaConfig created
+   *   from a snapshot for which they are depth first.
+   */
+  public List<NodeConfig> getListNodeConfigByProperty(String name, String value) {
+    Map<String, Object> mapParameter;
+
+    if (this.entityManagerProvider == null) {
+      return this.getListNodeConfigByPropertyInMemory(name, value, false);
+    }
+
+    mapParameter = new HashMap<String, Object>();
+    mapParameter.put("name", name);
+
+    if (value == null) {
+      return this.getListNodeConfigByQuery("getNodeDataPathByPropertyName", mapParameter);
+    }
+
+    mapParameter.put("value", value);
+
+    return this.getListNodeConfigByQuery("getNodeDataPathByPropertyValue", mapParameter);
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a property whose value matches a
+   * pattern.
+   * <p>
+   * Same as {@link #getListNodeConfigByProperty}, except that the value is
+   * matched using the SQL LIKE operator: "%" matches any sequence of characters,
+   * "_" matches any single character and "\" escapes them. As with
+   * getListNodeConfigByProperty, the PropertyDefConfig are found through the
+   * index on their name and the pattern is then evaluated on their value.
+   *
+   * @param name Name of the property.
+   * @param valuePattern Pattern of the value.
+   * @return List of NodeConfig, sorted by path, except for a JpaConfig created
+   *   from a snapshot for which they are depth first.
+   */
+  public List<NodeConfig> getListNodeConfigByPropertyPattern(String name, String valuePattern) {
+    Map<String, Object> mapParameter;
+
+    if (this.entityManagerProvider == null) {
+      return this.getListNodeConfigByPropertyInMemory(name, valuePattern, true);
+    }
+
+    mapParameter = new HashMap<String, Object>();
+    mapParameter.put("name", name);
+    mapParameter.put("valuePattern", valuePattern);
+
+    return this.getListNodeConfigByQuery("getNodeDataPathByPropertyValuePattern", mapParameter);
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a {@link PluginDefConfig} for a
+   * {@link NodePlugin} class, whatever the plugin ID.
+   * <p>
+   * The query is performed on the PluginDefConfig in the DB, which are indexed
+   * on the NodePlugin class and plugin ID, so that the tree does not need to be
+   * traversed. Only the NodeConfig which define the PluginDefConfig themselves
+   * are returned.
+   * <p>
+   * The NodeConfig are resolved as with {@link #getListNodeConfigByProperty}.
+   *
+   * @param classNodePlugin NodePlugin class.
+   * @return List of NodeConfig, sorted by path, except for a JpaConfig created
+   *   from a snapshot for which they are depth first.
+   */
+  public List<NodeConfig> getListNodeConfigByPlugin(Class<? extends NodePlugin> classNodePlugin) {
+    Map<String, Object> mapParameter;
+
+    if (this.entityManagerProvider == null) {
+      return this.getListNodeConfigByPluginInMemory(classNodePlugin, null, false);
+    }
+
+    mapParameter = new HashMap<String, Object>();
+    mapParameter.put("classNodePlugin", classNodePlugin);
+
+    return this.getListNodeConfigByQuery("getNodeDataPathByPluginClass", mapParameter);
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a {@link PluginDefConfig} for a
+   * {@link NodePlugin} class and plugin ID.
+   * <p>
+   * Same as {@link #getListNodeConfigByPlugin(Class)}, except that only the
+   * PluginDefConfig with the given plugin ID are considered.
+   *
+   * @param classNodePlugin NodePlugin class.
+   * @param pluginId Plugin ID. If null, only the PluginDefConfig without a plugin
+   *   ID, which define the default plugin, are considered.
+   * @return List of NodeConfig, sorted by path, except for a JpaConfig created
+   *   from a snapshot for which they are depth first.
+   */
+  public List<NodeConfig> getListNodeConfigByPlugin(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
+    Map<String, Object> mapParameter;
+
+    if (this.entityManagerProvider == null) {
+      return this.getListNodeConfigByPluginInMemory(classNodePlugin, pluginId, true);
+    }
+
+    mapParameter = new HashMap<String, Object>();
+    mapParameter.put("classNodePlugin", classNodePlugin);
+
+    if (pluginId == null) {
+      return this.getListNodeConfigByQuery("getNodeDataPathByPluginClassDefaultPluginId", mapParameter);
+    }
+
+    mapParameter.put("pluginId", pluginId);
+
+    return this.getListNodeConfigByQuery("getNodeDataPathByPluginClassPluginId", mapParameter);
+  }
+
+  /**
+   * Performs a query returning the paths of {@link NodeData} and resolves them to
+   * {@link NodeConfig}.
+   *
+   * @param queryName Name of the query.
+   * @param mapParameter Map of query parameters.
+   * @return List of NodeConfig, in the order returned by the query.
+   */
+  @SuppressWarnings("unchecked")
+  private List<NodeConfig> getListNodeConfigByQuery(String queryName, Map<String, Object> mapParameter) {
+    EntityManager entityManager;
+    Query query;
+    List<String> listPath;
+
+    this.checkEntityManagerProvider("Query " + queryName);
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      query = entityManager.createNamedQuery(queryName);
+
+      for(Map.Entry<String, Object> mapEntry: mapParameter.entrySet()) {
+        query.setParameter(mapEntry.getKey(), mapEntry.getValue());
+      }
+
+      listPath = query.getResultList();
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+
+    return this.resolveListPath(listPath);
+  }
+
+  /**
+   * Resolves paths of {@link NodeData} to {@link NodeConfig}.
+   * <p>
+   * The NodeConfig already known in memory are used as is. The NodeData of the
+   * others and of their ancestors are obtained with as few queries as possible
+   * and attached to the tree.
+   *
+   * @param listPath List of paths of NodeData.
+   * @return List of NodeConfig, in the order of listPath. Paths which cannot be
+   *   resolved, such as when the NodeData was deleted in the meantime, are
+   *   omitted.
+   */
+  @SuppressWarnings("unchecked")
+  private List<NodeConfig> resolveListPath(List<String> listPath) {
+    Map<String, JpaNodeConfig> mapJpaNodeConfig;
+    Map<String, List<String>> mapListPathAncestorMissing;
+    List<NodeConfig> listNodeConfig;
+
+    mapJpaNodeConfig = new HashMap<String, JpaNodeConfig>();
+    mapListPathAncestorMissing = new LinkedHashMap<String, List<String>>();
+
+    for(String path: listPath) {
+      List<String> listName;
+      JpaNodeConfig jpaNodeConfig;
+
+      listName = JpaConfig.splitPath(path);
+      jpaNodeConfig = this.getJpaNodeConfigIfLoaded(listName);
+
+      if (jpaNodeConfig != null) {
+        mapJpaNodeConfig.put(path, jpaNodeConfig);
+      } else if (!this.indBulkLoad && !this.indReadOnly) {
+        mapListPathAncestorMissing.put(path, JpaConfig.buildListPathAncestor(listName));
+      }
+    }
+
+    if (!mapListPathAncestorMissing.isEmpty()) {
+      Set<String> setPathAncestor;
+      List<String> listPathAncestor;
+      Map<String, NodeData> mapNodeData;
+      EntityManager entityManager;
+
+      // The ancestors are shared by many NodeData so that they are obtained only
+      // once.
+      setPathAncestor = new LinkedHashSet<String>();
+
+      for(List<String> listPathAncestorMissing: mapListPathAncestorMissing.values()) {
+        setPathAncestor.addAll(listPathAncestorMissing);
+      }
+
+      listPathAncestor = new ArrayList<String>(setPathAncestor);
+      mapNodeData = new HashMap<String, NodeData>();
+
+      entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+      try {
+        for(int i = 0; i < listPathAncestor.size(); i += JpaConfig.MAX_IDS_PER_QUERY) {
+          Query query;
+
+          query = entityManager.createNamedQuery("getNodeDataByPaths");
+          query.setParameter("paths", listPathAncestor.subList(i, Math.min(i + JpaConfig.MAX_IDS_PER_QUERY, listPathAncestor.size())));
+
+          for(NodeData nodeData: (List<NodeData>)query.getResultList()) {
+            mapNodeData.put(nodeData.getPath(), nodeData);
+          }
+        }
+      } finally {
+        this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+      }
+
+      for(Map.Entry<String, List<String>> mapEntry: mapListPathAncestorMissing.entrySet()) {
+        JpaNodeConfig jpaNodeConfig;
+
+        jpaNodeConfig = this.attachNodeDataByPath(mapEntry.getValue(), mapNodeData);
+
+        if (jpaNodeConfig != null) {
+          mapJpaNodeConfig.put(mapEntry.getKey(), jpaNodeConfig);
+        }
+      }
+    }
+
+    listNodeConfig = new ArrayList<NodeConfig>();
+
+    for(String path: listPath) {
+      JpaNodeConfig jpaNodeConfig;
+
+      jpaNodeConfig = mapJpaNodeConfig.get(path);
+
+      if (jpaNodeConfig != null) {
+        listNodeConfig.add(jpaNodeConfig);
+      }
+    }
+
+    return listNodeConfig;
+  }
+
+  /**
+   * Returns a {@link NodeConfig} if it and its ancestors are known in memory,
+   * without performing any query.
+   *
+   * @param listName List of names, excluding the root.
+   * @return JpaNodeConfig. null if not known in memory.
+   */
+  private JpaNodeConfig getJpaNodeConfigIfLoaded(List<String> listName) {
+    JpaNodeConfig jpaNodeConfig;
+
+    if (this.indBulkLoad || this.indReadOnly) {
+      jpaNodeConfig = (JpaNodeConfig)this.getClassificationNodeConfigRoot();
+    } else {
+      jpaNodeConfig = this.jpaClassificationNodeConfigRoot;
+    }
+
+    for(String name: listName) {
+      if (!(jpaNodeConfig instanceof JpaClassificationNodeConfig)) {
+        return null;
+      }
+
+      jpaNodeConfig = ((JpaClassificationNodeConfig)jpaNodeConfig).getJpaNodeConfigChildIfLoaded(name);
+    }
+
+    return jpaNodeConfig;
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a {@link PluginDefConfig} by
+   * traversing the tree in memory.
+   * <p>
+   * Used for a JpaConfig created from a snapshot, which has no DB.
+   *
+   * @param classNodePlugin NodePlugin class.
+   * @param pluginId Plugin ID. null for the default plugin.
+   * @param indPluginId Indicates to consider only the PluginDefConfig with
+   *   pluginId. Otherwise pluginId is ignored.
+   * @return List of NodeConfig, depth first.
+   */
+  private List<NodeConfig> getListNodeConfigByPluginInMemory(Class<? extends NodePlugin> classNodePlugin, String pluginId, boolean indPluginId) {
+    List<NodeConfig> listNodeConfig;
+    List<NodeConfig> listNodeConfigMatching;
+
+    listNodeConfig = new ArrayList<NodeConfig>();
+
+    if (this.jpaClassificationNodeConfigRoot != null) {
+      JpaConfig.collectSubtree(this.jpaClassificationNodeConfigRoot, listNodeConfig);
+    }
+
+    listNodeConfigMatching = new ArrayList<NodeConfig>();
+
+    for(NodeConfig nodeConfig: listNodeConfig) {
+      if (indPluginId) {
+        if (nodeConfig.getPluginDefConfig(classNodePlugin, pluginId) != null) {
+          listNodeConfigMatching.add(nodeConfig);
+        }
+      } else {
+        for(PluginDefConfig pluginDefConfig: nodeConfig.getListPluginDefConfig()) {
+          if (pluginDefConfig.getClassNodePlugin() == classNodePlugin) {
+            listNodeConfigMatching.add(nodeConfig);
+            break;
+          }
+        }
+      }
+    }
+
+    return listNodeConfigMatching;
+  }
+
+  /**
+   * Returns the {@link NodeConfig} which define a property by traversing the
+   * tree in memory.
+   * <p>
+   * Used for a JpaConfig created from a snapshot, which has no DB.
+   *
+   * @param name Name of the property.
+   * @param value Value or pattern of the property. null to match any value.
+   * @param indPattern Indicates value is a LIKE pattern.
+   * @return List of NodeConfig, depth first.
+   */
+  private List<NodeConfig> getListNodeConfigByPropertyInMemory(String name, String value, boolean indPattern) {
+    List<NodeConfig> listNodeConfig;
+    Pattern pattern;
+    List<NodeConfig> listNodeConfigMatching;
+
+    listNodeConfig = new ArrayList<NodeConfig>();
+
+    if (this.jpaClassificationNodeConfigRoot != null) {
+      JpaConfig.collectSubtree(this.jpaClassificationNodeConfigRoot, listNodeConfig);
+    }
+
+    pattern = indPattern ? JpaConfig.convertLikePattern(value) : null;
+    listNodeConfigMatching = new ArrayList<NodeConfig>();
+
+    for(NodeConfig nodeConfig: listNodeConfig) {
+      PropertyDefConfig propertyDefConfig;
+
+      propertyDefConfig = nodeConfig.getPropertyDefConfig(name);
+
+      if (propertyDefConfig == null) {
+        continue;
+      }
+
+      if (value == null) {
+        listNodeConfigMatching.add(nodeConfig);
+      } else if (indPattern) {
+        if ((propertyDefConfig.getValue() != null) && pattern.matcher(propertyDefConfig.getValue()).matches()) {
+          listNodeConfigMatching.add(nodeConfig);
+        }
+      } else if (value.equals(propertyDefConfig.getValue())) {
+        listNodeConfigMatching.add(nodeConfig);
+      }
+    }
+
+    return listNodeConfigMatching;
+  }
+
+  /**
+   * Converts a SQL LIKE pattern, with "\" as the escape character, to a regular
+   * expression.
+   *
+   * @param likePattern LIKE pattern.
+   * @return Pattern.
+   */
+  private static Pattern convertLikePattern(String likePattern) {
+    StringBuilder stringBuilder;
+    boolean indEscape;
+
+    stringBuilder = new StringBuilder();
+    indEscape = false;
+
+    for(char character: likePattern.toCharArray()) {
+      if (indEscape) {
+        stringBuilder.append(Pattern.quote(String.valueOf(character)));
+        indEscape = false;
+      } else if (character == '\\') {
+        indEscape = true;
+      } else if (character == '%') {
+        stringBuilder.append(".*");
+      } else if (character == '_') {
+        stringBuilder.append('.');
+      } else {
+        stringBuilder.append(Pattern.quote(String.valueOf(character)));
+      }
+    }
+
+    return Pattern.compile(stringBuilder.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * Builds the paths of the root, of the ancestors and of a {@link NodeData}.
+   *
+   * @param listName List of names, excluding the root.
+   * @return List of paths, from the root down.
+   */
+  private static List<String> buildListPathAncestor(List<String> listName) {
+    List<String> listPath;
+
+    listPath = new ArrayList<String>();
+    listPath.add(NodeData.buildPath(null, null));
+
+    for(String name: listName) {
+      listPath.add(NodeData.buildPath(listPath.get(listPath.size() - 1), name));
+    }
+
+    return listPath;
+  }
+
+  /**
+   * Adds a {@link NodeConfig} and its descendants to a List, depth first.
+   *
+   * @param nodeConfig NodeConfig.
+   * @param listNodeConfig List.
+   */
+  private static void collectSubtree(NodeConfig nodeConfig, List<NodeConfig> listNodeConfig) {
+    listNodeConfig.add(nodeConfig);
+
+    if (nodeConfig instanceof ClassificationNodeConfig) {
+      for(NodeConfig nodeConfigChild: ((ClassificationNodeConfig)nodeConfig).getListChildNodeConfig()) {
+        JpaConfig.collectSubtree(nodeConfigChild, listNodeConfig);
+      }
+    }
+  }
+
+  /**
+   * Splits a path as accepted by {@link #getNodeConfigByPath} into names.
+   *
+   * @param path Path.
+   * @return List of names.
+   */
+  private static List<String> splitPath(String path) {
+    List<String> listName;
+
+    listName = new ArrayList<String>();
+
+    for(String name: path.split(String.valueOf(NodeData.PATH_SEPARATOR))) {
+      if (!name.isEmpty()) {
+        listName.add(name);
+      }
+    }
+
+    return listName;
+  }
+
+  /**
+   * Builds the materialized path of a {@link NodeData} from its names.
+   *
+   * @param listName List of names, excluding the root.
+   * @return Path.
+   */
+  private static String buildPath(List<String> listName) {
+    String path;
+
+    path = NodeData.buildPath(null, null);
+
+    for(String name: listName) {
+      path = NodeData.buildPath(path, name);
+    }
+
+    return path;
+  }
+
+  /**
+   * Sets the root {@link JpaClassificationNodeConfig} from a root {@link NodeData}
+   * obtained by path, unless it is already loaded.
+   *
+   * @param nodeDataRoot Root NodeData.
+   * @return Root JpaClassificationNodeConfig.
+   */
+  private synchronized JpaClassificationNodeConfig setJpaClassificationNodeConfigRootIfNull(NodeData nodeDataRoot) {
+    if (this.jpaClassificationNodeConfigRoot == null) {
+      this.jpaClassificationNodeConfigRoot = new JpaClassificationNodeConfig(this, nodeDataRoot);
+    }
+
+    return this.jpaClassificationNodeConfigRoot;
+  }
+
+  /**
+   * Sets the root {@link JpaClassificationNodeConfig}.
+   * <p>
+   * This method is intended to be called by
+   * {@link JpaNodeConfig#setNodeConfigTransferObject}.
+   *
+   * @param jpaClassificationNodeConfigRoot Root JpaClassificationNodeConfig.
+   */
+  void setJpaClassificationNodeConfigRoot(JpaClassificationNodeConfig jpaClassificationNodeConfigRoot) {
+    if (this.jpaClassificationNodeConfigRoot != null && jpaClassificationNodeConfigRoot != null) {
+      throw new RuntimeException("Replacing the root JpaClassificationNodeConfig is not allowed.");
+    }
+
+    // Setting this.simplClassificationNodeRoot to null is allowed since this
+    // can happen when deleting the root JpaClassificationNode.
+    this.jpaClassificationNodeConfigRoot = jpaClassificationNodeConfigRoot;
+  }
+
+  @Override
+  public MutableClassificationNodeConfig createMutableClassificationNodeConfigRoot() {
+    this.checkNotReadOnly();
+
+    return new JpaClassificationNodeConfig(this, null);
+  }
+
+  /**
+   * Creates a {@link JpaBatchSession} for persisting many modifications to the
+   * NodeConfig's of this JpaConfig within a single transaction.
+   *
+   * @return JpaBatchSession.
+   */
+  public JpaBatchSession createBatchSession() {
+    this.checkNotReadOnly();
+
+    return new JpaBatchSession(this.entityManagerProvider, this.nodeDataCache);
   }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.net.URL;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.Config;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.azyva.dragom.model.config.NodeType;
+import org.azyva.dragom.model.config.PluginDefConfig;
+import org.azyva.dragom.model.config.PropertyDefConfig;
+import org.azyva.dragom.model.config.impl.simple.SimplePluginDefConfig;
+import org.azyva.dragom.model.config.impl.simple.SimplePropertyDefConfig;
+import org.azyva.dragom.model.config.impl.xml.XmlConfig;
+
+/**
+ * Imports a whole {@link Config}, such as an {@link XmlConfig}, into the DB of a
+ * {@link JpaConfig}.
+ * <p>
+ * Contrary to creating each node using {@link MutableClassificationNodeConfig}
+ * and {@link JpaBatchSession}, no JpaNodeConfig is created and no query is
+ * performed to load children. The source tree is traversed depth-first and each
+ * {@link NodeData} is inserted with a reference to its parent NodeData, which
+ * is kept in memory only while its children are imported. The EntityManager is
+ * flushed and cleared periodically so that memory use does not depend on the
+ * size of the model, and so that the inserts are batched.
+ * <p>
+ * The whole import is performed within a single transaction. The DB must not
+ * contain any NodeData.
+ * <p>
+ * As with {@link JpaBatchSession}, a {@link NodeDataChange} is recorded for each
+ * NodeData so that JpaConfig instances in other JVMs can refresh themselves. It
+ * is persisted along with the NodeData so that it does not need to be kept in
+ * memory. The {@link NodeDataChangeSequence} is therefore locked for the whole
+ * import instead of only at the end of the transaction.
+ * Once the import is committed, the tree loaded by the JpaConfig, if any, is
+ * discarded and its {@link NodeDataCache} is cleared so that the imported model
+ * is loaded when next requested.
+ * <p>
+ * Progress can be followed using a {@link ProgressListener}.
+ * <p>
+ * A JpaConfigImporter can be used for a single import. It is not thread-safe.
+ *
+ * @author David Raymond
+ */
+public class JpaConfigImporter {
+  /**
+   * Number of NodeData after which the EntityManager is flushed and cleared.
+   * Matches the allocation size of the ID generator.
+   */
+  private static final int BATCH_SIZE = 50;
+
+  /**
+   * Default number of NodeData after which progress is reported.
+   */
+  private static final int DEFAULT_PROGRESS_INTERVAL = 1000;
+
+  /**
+   * Listener notified of the progress of an import.
+   */
+  public interface ProgressListener {
+    /**
+     * Called periodically during the import, and once at the end.
+     *
+     * @param countNodeImported Number of nodes imported so far.
+     * @param elapsedMillis Milliseconds elapsed since the import started.
+     */
+    void progress(int countNodeImported, long elapsedMillis);
+  }
+
+  /**
+   * JpaConfig into which to import.
+   */
+  private JpaConfig jpaConfig;
+
+  /**
+   * ProgressListener. null if none.
+   */
+  private ProgressListener progressListener;
+
+  /**
+   * Number of NodeData after which progress is reported.
+   */
+  private int progressInterval;
+
+  /**
+   * EntityManager used during the import.
+   */
+  private EntityManager entityManager;
+
+  /**
+   * Sequence assigned to the {@link NodeDataChange} of the import.
+   */
+  private long sequenceChange;
+
+  /**
+   * Time at which the import started, as returned by System.currentTimeMillis.
+   */
+  private long startMillis;
+
+  /**
+   * Number of NodeData imported.
+   */
+  private int countNodeImported;
+
+  /**
+   * Milliseconds elapsed during the import. Set once the import is complete.
+   */
+  private long elapsedMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param jpaConfig JpaConfig into which to import. Must not be read-only.
+   */
+  public JpaConfigImporter(JpaConfig jpaConfig) {
+    this.jpaConfig = jpaConfig;
+    this.progressInterval = JpaConfigImporter.DEFAULT_PROGRESS_INTERVAL;
+  }
+
+  /**
+   * Sets the ProgressListener.
+   *
+   * @param progressListener ProgressListener. null if none.
+   * @param progressInterval Number of nodes after which progress is reported.
+   */
+  public void setProgressListener(ProgressListener progressListener, int progressInterval) {
+    if (progressInterval <= 0) {
+      throw new RuntimeException("Progress interval must be positive.");
+    }
+
+    this.progressListener = progressListener;
+    this.progressInterval = progressInterval;
+  }
+
+  /**
+   * Imports an {@link XmlConfig}.
+   * <p>
+   * The XML file is loaded using XmlConfig, which is what defines its format,
+   * and the resulting tree is imported.
+   *
+   * @param urlXmlConfig URL of the XML file.
+   * @return Number of nodes imported.
+   */
+  public int importXmlConfig(URL urlXmlConfig) {
+    return this.importConfig(XmlConfig.load(urlXmlConfig));
+  }
+
+  /**
+   * Imports a {@link Config}.
+   *
+   * @param config Config.
+   * @return Number of nodes imported.
+   */
+  public int importConfig(Config config) {
+    ClassificationNodeConfig classificationNodeConfigRoot;
+    EntityManagerProvider entityManagerProvider;
+
+    this.jpaConfig.checkNotReadOnly();
+
+    if ((this.entityManager != null) || (this.countNodeImported != 0)) {
+      throw new RuntimeException("JpaConfigImporter can be used for a single import.");
+    }
+
+    classificationNodeConfigRoot = config.getClassificationNodeConfigRoot();
+
+    this.startMillis = System.currentTimeMillis();
+
+    if (classificationNodeConfigRoot == null) {
+      return 0;
+    }
+
+    entityManagerProvider = this.jpaConfig.getEntityManagerProvider();
+    this.entityManager = entityManagerProvider.acquireEntityManager();
+
+    try {
+      this.entityManager.getTransaction().begin();
+
+      if (!this.entityManager.createNamedQuery("getRootNodeData").getResultList().isEmpty()) {
+        throw new RuntimeException("The DB already contains a model.");
+      }
+
+      this.sequenceChange = NodeDataChangeSequence.lockNextSequence(this.entityManager);
+
+      this.importNodeConfig(classificationNodeConfigRoot, null);
+
+      this.entityManager.getTransaction().commit();
+
+      this.jpaConfig.reset();
+    } finally {
+      try {
+        if (this.entityManager.getTransaction().isActive()) {
+          this.entityManager.getTransaction().rollback();
+        }
+      } finally {
+        entityManagerProvider.releaseEntityManager(this.entityManager);
+      }
+    }
+
+    this.elapsedMillis = System.currentTimeMillis() - this.startMillis;
+
+    if (this.progressListener != null) {
+      this.progressListener.progress(this.countNodeImported, this.elapsedMillis);
+    }
+
+    return this.countNodeImported;
+  }
+
+  /**
+   * @return Number of nodes imported.
+   */
+  public int getCountNodeImported() {
+    return this.countNodeImported;
+  }
+
+  /**
+   * @return Milliseconds elapsed during the import. 0 if not complete.
+   */
+  public long getElapsedMillis() {
+    return this.elapsedMillis;
+  }
+
+  /**
+   * @return Number of nodes imported per second. 0 if not complete.
+   */
+  public double getThroughput() {
+    if (this.elapsedMillis == 0) {
+      return 0;
+    }
+
+    return (this.countNodeImported * 1000.0) / this.elapsedMillis;
+  }
+
+  /**
+   * Imports a {@link NodeConfig} and, recursively, its children.
+   *
+   * @param nodeConfig NodeConfig.
+   * @param nodeDataParent Parent NodeData. null for the root. It can be
+   *   detached, in which case only its ID is used.
+   */
+  private void importNodeConfig(NodeConfig nodeConfig, NodeData nodeDataParent) {
+    NodeData nodeData;
+    List<PropertyDefConfig> listPropertyDefConfig;
+    List<PluginDefConfig> listPluginDefConfig;
+    NodeDataChange nodeDataChange;
+
+    nodeData = new NodeData(nodeConfig.getNodeType() == NodeType.CLASSIFICATION ? 'C' : 'M', nodeDataParent);
+
+    // The root NodeData has no name, as enforced by JpaNodeConfig.
+    if (nodeDataParent != null) {
+      nodeData.setName(nodeConfig.getName());
+    }
+
+    nodeData.setPath(NodeData.buildPath(nodeDataParent == null ? null : nodeDataParent.getPath(), nodeData.getName()));
+
+    // PropertyDefConfig and PluginDefConfig of the source Config are copied since
+    // only the Simple implementations are mapped.
+    listPropertyDefConfig = new ArrayList<PropertyDefConfig>();
+
+    for(PropertyDefConfig propertyDefConfig: nodeConfig.getListPropertyDefConfig()) {
+      listPropertyDefConfig.add(new SimplePropertyDefConfig(propertyDefConfig.getName(), propertyDefConfig.getValue(), propertyDefConfig.isOnlyThisNode()));
+    }
+
+    listPluginDefConfig = new ArrayList<PluginDefConfig>();
+
+    for(PluginDefConfig pluginDefConfig: nodeConfig.getListPluginDefConfig()) {
+      listPluginDefConfig.add(new SimplePluginDefConfig(pluginDefConfig.getClassNodePlugin(), pluginDefConfig.getPluginId(), pluginDefConfig.getPluginClass(), pluginDefConfig.isOnlyThisNode()));
+    }
+
+    nodeData.updatePropertyDefConfig(listPropertyDefConfig);
+    nodeData.updatePluginDefConfig(listPluginDefConfig);
+    nodeData.setTimestampLastMod(new Timestamp(System.currentTimeMillis()));
+
+    this.entityManager.persist(nodeData);
+
+    // Recorded so that JpaConfig instances in other JVMs can refresh themselves.
+    nodeDataChange = new NodeDataChange(nodeData.getId(), nodeData.getIdNodeDataParent(), new Timestamp(System.currentTimeMillis()));
+    nodeDataChange.setSequenceChange(this.sequenceChange);
+    this.entityManager.persist(nodeDataChange);
+
+    this.countNodeImported++;
+
+    if ((this.countNodeImported % JpaConfigImporter.BATCH_SIZE) == 0) {
+      this.entityManager.flush();
+      this.entityManager.clear();
+    }
+
+    if ((this.progressListener != null) && ((this.countNodeImported % this.progressInterval) == 0)) {
+      this.progressListener.progress(this.countNodeImported, System.currentTimeMillis() - this.startMillis);
+    }
+
+    if (nodeConfig.getNodeType() == NodeType.CLASSIFICATION) {
+      for(NodeConfig nodeConfigChild: ((ClassificationNodeConfig)nodeConfig).getListChildNodeConfig()) {
+        this.importNodeConfig(nodeConfigChild, nodeData);
+      }
+    }
+  }
+}
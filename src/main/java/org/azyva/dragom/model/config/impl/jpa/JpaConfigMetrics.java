@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+/**
+ * Receives metrics about the operations performed by {@link JpaConfig} and the
+ * {@link JpaNodeConfig} it holds.
+ * <p>
+ * Implementations typically publish to a metrics library, recording a counter
+ * and a latency histogram for each {@link Operation} and a counter for each
+ * {@link Event}. They must be thread-safe and fast since they are called on
+ * every lookup.
+ * <p>
+ * A JpaConfigMetrics is set on the {@link EntityManagerProvider} so that it
+ * applies to all JpaConfig sharing it. {@link #NO_OP} is used by default. When
+ * {@link #isEnabled} returns false, durations are not even measured so that the
+ * overhead is negligible.
+ *
+ * @author David Raymond
+ */
+public interface JpaConfigMetrics {
+  /**
+   * Timed operation.
+   */
+  enum Operation {
+    /**
+     * Loading the root ClassificationNodeConfig.
+     */
+    ROOT_LOAD,
+
+    /**
+     * Loading the whole tree (bulk load).
+     */
+    BULK_LOAD,
+
+    /**
+     * Loading the children of a ClassificationNodeConfig, whether from the DB or
+     * from the {@link NodeDataCache}, or looking up a single child in the DB.
+     * Includes waiting for concurrent loads of the same children.
+     */
+    CHILD_LOAD,
+
+    /**
+     * Loading the PropertyDefConfig and PluginDefConfig of NodeConfig loaded as
+     * skeletons, for a batch of siblings.
+     */
+    PAYLOAD_LOAD,
+
+    /**
+     * Looking up a PropertyDefConfig.
+     */
+    PROPERTY_LOOKUP,
+
+    /**
+     * Looking up a PluginDefConfig.
+     */
+    PLUGIN_LOOKUP,
+
+    /**
+     * Creating a NodeConfig through
+     * {@link JpaNodeConfig#setNodeConfigTransferObject}.
+     */
+    CREATE,
+
+    /**
+     * Updating a NodeConfig through
+     * {@link JpaNodeConfig#setNodeConfigTransferObject}.
+     */
+    UPDATE,
+
+    /**
+     * Deleting a NodeConfig through {@link JpaNodeConfig#delete}.
+     */
+    DELETE,
+
+    /**
+     * Committing a {@link JpaBatchSession}, whatever the number of operations it
+     * contains. CREATE, UPDATE and DELETE include their own commit.
+     */
+    COMMIT
+  }
+
+  /**
+   * Counted event.
+   */
+  enum Event {
+    /**
+     * An OptimisticLockException was thrown.
+     */
+    OPTIMISTIC_LOCK_FAILURE,
+
+    /**
+     * An EntityManager was created.
+     */
+    ENTITY_MANAGER_OPEN,
+
+    /**
+     * An EntityManager was closed.
+     */
+    ENTITY_MANAGER_CLOSE
+  }
+
+  /**
+   * JpaConfigMetrics which records nothing.
+   */
+  JpaConfigMetrics NO_OP = new JpaConfigMetrics() {
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+
+    @Override
+    public void recordOperation(Operation operation, long durationNanos) {
+    }
+
+    @Override
+    public void recordEvent(Event event) {
+    }
+  };
+
+  /**
+   * @return Indicates if metrics are recorded. If false, callers can avoid
+   *   measuring durations.
+   */
+  boolean isEnabled();
+
+  /**
+   * Records an operation.
+   *
+   * @param operation Operation.
+   * @param durationNanos Duration in nanoseconds.
+   */
+  void recordOperation(Operation operation, long durationNanos);
+
+  /**
+   * Records an event.
+   *
+   * @param event Event.
+   */
+  void recordEvent(Event event);
+}
@@ -50,7 +50,7 @@ public class JpaModuleConfig extends JpaNodeConfig implements ModuleConfig, Muta
   }
 
   @Override
-  public synchronized void setNodeConfigTransferObject(NodeConfigTransferObject nodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle) throws OptimisticLockException, DuplicateNodeException {
+  public void setNodeConfigTransferObject(NodeConfigTransferObject nodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle) throws OptimisticLockException, DuplicateNodeException {
     this.extractNodeConfigTransferObject(nodeConfigTransferObject, optimisticLockHandle);
   }
 }
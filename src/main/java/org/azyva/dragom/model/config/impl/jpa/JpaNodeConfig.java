@@ -21,11 +21,14 @@ package org.azyva.dragom.model.config.impl.jpa;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
 
 import org.azyva.dragom.model.MutableNode;
 import org.azyva.dragom.model.config.DuplicateNodeException;
@@ -36,41 +39,135 @@ import org.azyva.dragom.model.config.NodeType;
 import org.azyva.dragom.model.config.OptimisticLockException;
 import org.azyva.dragom.model.config.OptimisticLockHandle;
 import org.azyva.dragom.model.config.PluginDefConfig;
-import org.azyva.dragom.model.config.PluginKey;
 import org.azyva.dragom.model.config.PropertyDefConfig;
 import org.azyva.dragom.model.config.impl.simple.SimpleNodeConfigTransferObject;
 import org.azyva.dragom.model.plugin.NodePlugin;
 
 /**
  * JPA implementation for {@link NodeConfig} and {@link MutableNodeConfig}.
+ * <p>
+ * Read methods are not synchronized. The {@link NodeData} referenced by a
+ * JpaNodeConfig is never modified. Modifications are performed on another
+ * NodeData instance (see {@link JpaBatchSession}) which is then published by
+ * replacing the volatile reference, so that readers always see a consistent
+ * revision without locking.
+ * <p>
+ * Writing modifications to the DB is not synchronized either. Conflicts are
+ * detected by the DB through the version of the NodeData (see
+ * {@link JpaOptimisticLockHandle}). Only publishing the committed modifications
+ * in memory is synchronized.
  *
  * @author David Raymond
  * @see org.azyva.dragom.model.config.impl.jpa
  */
 public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
-  protected EntityManagerFactory entityManagerFactory;
+  /**
+   * Memoized effective {@link PropertyDefConfig}, taking into account those
+   * inherited from ancestors.
+   */
+  private static class EffectivePropertySnapshot {
+    /**
+     * Value of {@link JpaNodeConfig#effectivePropertyStamp} when the snapshot was
+     * built. The snapshot is valid only as long as it has not changed.
+     */
+    final int stamp;
+
+    /**
+     * Unmodifiable Map of effective PropertyDefConfig for this JpaNodeConfig.
+     */
+    final Map<String, PropertyDefConfig> mapPropertyDefConfigEffective;
+
+    /**
+     * Unmodifiable Map of PropertyDefConfig inherited by children. Differs from
+     * mapPropertyDefConfigEffective in that PropertyDefConfig which apply only to
+     * this JpaNodeConfig are excluded.
+     */
+    final Map<String, PropertyDefConfig> mapPropertyDefConfigInherited;
+
+    /**
+     * Constructor.
+     *
+     * @param stamp Stamp.
+     * @param mapPropertyDefConfigEffective Map of effective PropertyDefConfig.
+     * @param mapPropertyDefConfigInherited Map of PropertyDefConfig inherited by
+     *   children.
+     */
+    EffectivePropertySnapshot(int stamp, Map<String, PropertyDefConfig> mapPropertyDefConfigEffective, Map<String, PropertyDefConfig> mapPropertyDefConfigInherited) {
+      this.stamp = stamp;
+      this.mapPropertyDefConfigEffective = mapPropertyDefConfigEffective;
+      this.mapPropertyDefConfigInherited = mapPropertyDefConfigInherited;
+    }
+  }
+
+  /**
+   * EntityManagerProvider.
+   */
+  protected EntityManagerProvider entityManagerProvider;
+
+  /**
+   * NodeDataCache. null if no caching.
+   */
+  protected NodeDataCache nodeDataCache;
+
+  /**
+   * JpaConfigMetrics. Never null.
+   */
+  protected JpaConfigMetrics jpaConfigMetrics;
 
   /**
    * Associated NodeData. If null it means the JpaNodeConfig is new and has not been
    * finalized yet. This is the state in which it is after having been created using
    * the create methods of {@link JpaConfig} or
    * {@link JpaClassificationNodeConfig}.
+   * <p>
+   * The NodeData must not be modified once referenced. It is replaced as a whole.
    */
-  NodeData nodeData;
+  volatile NodeData nodeData;
 
   /**
    * Parent {@link JpaClassificationNodeConfig}.
    */
   private JpaClassificationNodeConfig jpaClassificationNodeConfigParent;
 
+  /**
+   * Indicates the containing {@link JpaConfig} is read-only, or that this
+   * JpaNodeConfig is not referenced by its parent, as when iterating over children
+   * without caching them. Inherited from the parent.
+   */
+  boolean indReadOnly;
+
+  /**
+   * Memoized EffectivePropertySnapshot. null if not built yet.
+   */
+  private volatile EffectivePropertySnapshot effectivePropertySnapshot;
+
+  /**
+   * Incremented each time the effective {@link PropertyDefConfig} of this
+   * JpaNodeConfig may have changed, which invalidates any EffectivePropertySnapshot
+   * built before, including one being built concurrently.
+   */
+  private final AtomicInteger effectivePropertyStamp = new AtomicInteger();
+
+  /**
+   * Indicates a {@link JpaBatchSession} is committing the creation of the
+   * NodeData of this new JpaNodeConfig. See {@link #claimCreate}.
+   * <p>
+   * Accessed only while synchronized.
+   */
+  private boolean indCreatePending;
+
   /**
    * Constructor.
    *
    * @param nodeData NodeData. null for new JpaNodeConfig.
-   * @param entityManagerFactory EntityManagerFactory.
+   * @param entityManagerProvider EntityManagerProvider.
+   * @param nodeDataCache NodeDataCache. Can be null.
+   * @param jpaConfigMetrics JpaConfigMetrics.
    */
-  protected JpaNodeConfig(EntityManagerFactory entityManagerFactory, NodeData nodeData) {
-    this.entityManagerFactory = entityManagerFactory;
+  protected JpaNodeConfig(EntityManagerProvider entityManagerProvider, NodeDataCache nodeDataCache, JpaConfigMetrics jpaConfigMetrics, NodeData nodeData) {
+    this.entityManagerProvider = entityManagerProvider;
+    this.nodeDataCache = nodeDataCache;
+    this.jpaConfigMetrics = jpaConfigMetrics;
 
     this.nodeData = nodeData;
   }
@@ -82,13 +179,82 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
    * @param jpaClassificationNodeConfigParent Parent JpaClassificationNodeConfig.
    */
   JpaNodeConfig(JpaClassificationNodeConfig jpaClassificationNodeConfigParent, NodeData nodeData) {
-    this(jpaClassificationNodeConfigParent.getEntityManagerFactory(), nodeData);
+    this(jpaClassificationNodeConfigParent.getEntityManagerProvider(), jpaClassificationNodeConfigParent.getNodeDataCache(), jpaClassificationNodeConfigParent.jpaConfigMetrics, nodeData);
 
     this.jpaClassificationNodeConfigParent = jpaClassificationNodeConfigParent;
+    this.indReadOnly = jpaClassificationNodeConfigParent.indReadOnly;
+  }
+
+  EntityManagerProvider getEntityManagerProvider() {
+    return this.entityManagerProvider;
   }
 
-  EntityManagerFactory getEntityManagerFactory() {
-    return this.entityManagerFactory;
+  NodeDataCache getNodeDataCache() {
+    return this.nodeDataCache;
+  }
+
+  /**
+   * Returns the {@link NodeData}, ensuring its payload ({@link PropertyDefConfig}
+   * and {@link PluginDefConfig}) is loaded.
+   * <p>
+   * NodeData are generally loaded as skeletons so that traversing the tree is
+   * cheap. The payload is loaded the first time it is needed, along with that of
+   * the siblings known in memory.
+   *
+   * @return NodeData. null for a new JpaNodeConfig.
+   */
+  NodeData getNodeDataPayload() {
+    NodeData nodeData;
+
+    nodeData = this.nodeData;
+
+    if ((nodeData != null) && !nodeData.isPayloadLoaded()) {
+      if (this.jpaClassificationNodeConfigParent != null) {
+        this.jpaClassificationNodeConfigParent.loadPayloadChildNodeData(nodeData);
+      } else {
+        this.loadPayload(Collections.singletonList(nodeData));
+      }
+
+      if (!nodeData.isPayloadLoaded()) {
+        throw new RuntimeException("NodeData " + nodeData.getPath() + " does not exist anymore in the DB.");
+      }
+    }
+
+    return nodeData;
+  }
+
+  /**
+   * Loads the payload of skeleton {@link NodeData} using the getNodeDataByIds
+   * query (see {@link NodeData#getResultListWithPayload}).
+   * <p>
+   * The payload of NodeData which do not exist anymore in the DB is not loaded.
+   *
+   * @param listNodeData List of NodeData. Must not be too long for the IN list of
+   *   a query.
+   */
+  void loadPayload(List<NodeData> listNodeData) {
+    long startNanos;
+    Map<Integer, NodeData> mapNodeData;
+    EntityManager entityManager;
+
+    startNanos = System.nanoTime();
+    mapNodeData = new HashMap<Integer, NodeData>();
+
+    for(NodeData nodeData: listNodeData) {
+      mapNodeData.put(nodeData.getId(), nodeData);
+    }
+
+    entityManager = this.entityManagerProvider.acquireReadOnlyEntityManager();
+
+    try {
+      for(NodeData nodeDataPayload: NodeData.getResultListWithPayload(entityManager, "getNodeDataByIds", "ids", new ArrayList<Integer>(mapNodeData.keySet()))) {
+        mapNodeData.get(nodeDataPayload.getId()).setPayload(nodeDataPayload);
+      }
+    } finally {
+      this.entityManagerProvider.releaseReadOnlyEntityManager(entityManager);
+    }
+
+    this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.PAYLOAD_LOAD, System.nanoTime() - startNanos);
   }
 
   protected JpaClassificationNodeConfig getJpaClassificationNodeConfigParent() {
@@ -101,39 +267,209 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
   }
 
   @Override
-  public synchronized PropertyDefConfig getPropertyDefConfig(String name) {
-    return this.nodeData.getMapPropertyDefConfig().get(name);
+  public PropertyDefConfig getPropertyDefConfig(String name) {
+    long startNanos;
+    PropertyDefConfig propertyDefConfig;
+
+    // Durations of lookups are comparable to that of System.nanoTime, which is
+    // therefore avoided when metrics are not enabled.
+    if (!this.jpaConfigMetrics.isEnabled()) {
+      return this.getNodeDataPayload().getMapPropertyDefConfig().get(name);
+    }
+
+    startNanos = System.nanoTime();
+    propertyDefConfig = this.getNodeDataPayload().getMapPropertyDefConfig().get(name);
+    this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.PROPERTY_LOOKUP, System.nanoTime() - startNanos);
+
+    return propertyDefConfig;
   }
 
   @Override
-  public synchronized boolean isPropertyExists(String name) {
-    return this.nodeData.getMapPropertyDefConfig().containsKey(name);
+  public boolean isPropertyExists(String name) {
+    return this.getNodeDataPayload().getMapPropertyDefConfig().containsKey(name);
   }
 
   @Override
-  public synchronized List<PropertyDefConfig> getListPropertyDefConfig() {
-    // A copy is returned to prevent the internal Map from being modified by the
-    // caller. Ideally, an unmodifiable List view of the Collection returned by
-    // Map.values should be returned, but that does not seem possible.
-    return new ArrayList<PropertyDefConfig>(this.nodeData.getMapPropertyDefConfig().values());
+  public List<PropertyDefConfig> getListPropertyDefConfig() {
+    // The List is unmodifiable and is rebuilt only when the NodeData is replaced,
+    // so that no copy is required.
+    return this.getNodeDataPayload().getUnmodifiableListPropertyDefConfig();
   }
 
   @Override
-  public synchronized PluginDefConfig getPluginDefConfig(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
-    return this.nodeData.getMapPluginDefConfig().get(new PluginKey(classNodePlugin, pluginId));
+  public PluginDefConfig getPluginDefConfig(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
+    long startNanos;
+    PluginDefConfig pluginDefConfig;
+
+    if (!this.jpaConfigMetrics.isEnabled()) {
+      return this.getNodeDataPayload().getPluginDefConfig(classNodePlugin, pluginId);
+    }
+
+    startNanos = System.nanoTime();
+    pluginDefConfig = this.getNodeDataPayload().getPluginDefConfig(classNodePlugin, pluginId);
+    this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.PLUGIN_LOOKUP, System.nanoTime() - startNanos);
+
+    return pluginDefConfig;
   }
 
   @Override
-  public synchronized boolean isPluginDefConfigExists(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
-    return this.nodeData.getMapPluginDefConfig().containsKey(new PluginKey(classNodePlugin, pluginId));
+  public boolean isPluginDefConfigExists(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
+    return this.getNodeDataPayload().getPluginDefConfig(classNodePlugin, pluginId) != null;
   }
 
   @Override
-  public synchronized List<PluginDefConfig> getListPluginDefConfig() {
-    // A copy is returned to prevent the internal Map from being modified by the
-    // caller. Ideally, an unmodifiable List view of the Collection returned by
-    // Map.values should be returned, but that does not seem possible.
-    return new ArrayList<PluginDefConfig>(this.nodeData.getMapPluginDefConfig().values());
+  public List<PluginDefConfig> getListPluginDefConfig() {
+    // The List is unmodifiable and is rebuilt only when the NodeData is replaced,
+    // so that no copy is required.
+    return this.getNodeDataPayload().getUnmodifiableListPluginDefConfig();
+  }
+
+  /**
+   * Returns the effective {@link PropertyDefConfig} for a property, taking into
+   * account those inherited from ancestors.
+   * <p>
+   * The PropertyDefConfig defined on this JpaNodeConfig has precedence. Otherwise,
+   * the PropertyDefConfig defined on the closest ancestor which does not apply
+   * only to that ancestor ({@link PropertyDefConfig#isOnlyThisNode}) is
+   * returned.
+   * <p>
+   * The effective PropertyDefConfig are flattened in a Map which is memoized
+   * until this JpaNodeConfig or one of its ancestors is modified.
+   *
+   * @param name Name of the property.
+   * @return PropertyDefConfig. null if none.
+   */
+  public PropertyDefConfig getEffectivePropertyDefConfig(String name) {
+    long startNanos;
+    PropertyDefConfig propertyDefConfig;
+
+    if (!this.jpaConfigMetrics.isEnabled()) {
+      return this.getEffectivePropertySnapshot().mapPropertyDefConfigEffective.get(name);
+    }
+
+    startNanos = System.nanoTime();
+    propertyDefConfig = this.getEffectivePropertySnapshot().mapPropertyDefConfigEffective.get(name);
+    this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.PROPERTY_LOOKUP, System.nanoTime() - startNanos);
+
+    return propertyDefConfig;
+  }
+
+  /**
+   * Returns all effective {@link PropertyDefConfig}. See
+   * {@link #getEffectivePropertyDefConfig}.
+   *
+   * @return Unmodifiable Map of property names to effective PropertyDefConfig.
+   */
+  public Map<String, PropertyDefConfig> getMapEffectivePropertyDefConfig() {
+    return this.getEffectivePropertySnapshot().mapPropertyDefConfigEffective;
+  }
+
+  /**
+   * Returns the memoized EffectivePropertySnapshot, building it if it does not
+   * exist or is not valid anymore.
+   * <p>
+   * Not synchronized. Concurrent callers may build the same snapshot more than
+   * once, which is harmless.
+   *
+   * @return EffectivePropertySnapshot.
+   */
+  private EffectivePropertySnapshot getEffectivePropertySnapshot() {
+    EffectivePropertySnapshot effectivePropertySnapshot;
+    int stamp;
+    NodeData nodeData;
+    Map<String, PropertyDefConfig> mapPropertyDefConfigInheritedParent;
+    Map<String, PropertyDefConfig> mapPropertyDefConfigEffective;
+    Map<String, PropertyDefConfig> mapPropertyDefConfigInherited;
+
+    // The stamp must be obtained before the data the snapshot is built from so that
+    // an invalidation occurring while building it is detected.
+    stamp = this.effectivePropertyStamp.get();
+    effectivePropertySnapshot = this.effectivePropertySnapshot;
+
+    if ((effectivePropertySnapshot != null) && (effectivePropertySnapshot.stamp == stamp)) {
+      return effectivePropertySnapshot;
+    }
+
+    if (this.jpaClassificationNodeConfigParent == null) {
+      mapPropertyDefConfigInheritedParent = Collections.emptyMap();
+    } else {
+      mapPropertyDefConfigInheritedParent = ((JpaNodeConfig)this.jpaClassificationNodeConfigParent).getEffectivePropertySnapshot().mapPropertyDefConfigInherited;
+    }
+
+    nodeData = this.getNodeDataPayload();
+
+    // When this JpaNodeConfig does not define properties, the Map of the parent is
+    // reused, which avoids duplicating it for each module.
+    if ((nodeData == null) || nodeData.getMapPropertyDefConfig().isEmpty()) {
+      mapPropertyDefConfigEffective = mapPropertyDefConfigInheritedParent;
+      mapPropertyDefConfigInherited = mapPropertyDefConfigInheritedParent;
+    } else {
+      mapPropertyDefConfigEffective = new HashMap<String, PropertyDefConfig>(mapPropertyDefConfigInheritedParent);
+      mapPropertyDefConfigEffective.putAll(nodeData.getMapPropertyDefConfig());
+      mapPropertyDefConfigEffective = Collections.unmodifiableMap(mapPropertyDefConfigEffective);
+
+      if (this.getNodeType() == NodeType.MODULE) {
+        // Modules do not have children.
+        mapPropertyDefConfigInherited = null;
+      } else {
+        mapPropertyDefConfigInherited = new HashMap<String, PropertyDefConfig>(mapPropertyDefConfigInheritedParent);
+
+        for(PropertyDefConfig propertyDefConfig: nodeData.getMapPropertyDefConfig().values()) {
+          if (!propertyDefConfig.isOnlyThisNode()) {
+            mapPropertyDefConfigInherited.put(propertyDefConfig.getName(), propertyDefConfig);
+          }
+        }
+
+        mapPropertyDefConfigInherited = Collections.unmodifiableMap(mapPropertyDefConfigInherited);
+      }
+    }
+
+    effectivePropertySnapshot = new EffectivePropertySnapshot(stamp, mapPropertyDefConfigEffective, mapPropertyDefConfigInherited);
+
+    this.effectivePropertySnapshot = effectivePropertySnapshot;
+
+    return effectivePropertySnapshot;
+  }
+
+  /**
+   * Invalidates the memoized effective {@link PropertyDefConfig} of this
+   * JpaNodeConfig.
+   * <p>
+   * Called when this JpaNodeConfig or one of its ancestors is modified, after the
+   * new NodeData is published. {@link JpaClassificationNodeConfig} overrides this
+   * method in order to also invalidate its loaded descendants.
+   */
+  void invalidateEffectiveProperties() {
+    this.effectivePropertyStamp.incrementAndGet();
+    this.effectivePropertySnapshot = null;
+  }
+
+  /**
+   * Adds this JpaNodeConfig to a Map of JpaNodeConfig by {@link NodeData} ID.
+   * {@link JpaClassificationNodeConfig} overrides this method in order to also
+   * add its loaded descendants.
+   * <p>
+   * Used by {@link JpaConfig#refresh}.
+   *
+   * @param mapJpaNodeConfig Map of NodeData IDs to JpaNodeConfig.
+   */
+  void collectJpaNodeConfig(Map<Integer, JpaNodeConfig> mapJpaNodeConfig) {
+    NodeData nodeData;
+
+    nodeData = this.nodeData;
+
+    if (nodeData != null) {
+      mapJpaNodeConfig.put(nodeData.getId(), this);
+    }
+  }
+
+  /**
+   * Verifies this JpaNodeConfig is not read-only.
+   */
+  void checkNotReadOnly() {
+    if (this.indReadOnly) {
+      throw new RuntimeException("JpaNodeConfig is read-only.");
+    }
   }
 
   @Override
@@ -141,6 +477,33 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
     return this.nodeData == null;
   }
 
+  /**
+   * Claims the creation of the NodeData of this new JpaNodeConfig.
+   * <p>
+   * Called by {@link JpaBatchSession} before writing to the DB so that two
+   * threads cannot both insert a NodeData for the same JpaNodeConfig. The claim is
+   * released by {@link #commitNodeConfigTransferObject} or, if the transaction
+   * fails, by {@link #releaseCreate}.
+   *
+   * @throws OptimisticLockException If the NodeData was created or is being
+   *   created in the meantime.
+   */
+  synchronized void claimCreate() throws OptimisticLockException {
+    if ((this.nodeData != null) || this.indCreatePending) {
+      throw new OptimisticLockException();
+    }
+
+    this.indCreatePending = true;
+  }
+
+  /**
+   * Releases the claim obtained with {@link #claimCreate} when the transaction
+   * fails.
+   */
+  synchronized void releaseCreate() {
+    this.indCreatePending = false;
+  }
+
   private enum OptimisticLockCheckContext {
     /**
      * Getting a {@link NodeConfigTransferObject} on an existing JpaNodeConfig.
@@ -179,18 +542,26 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
    * <p>
    * If jpaOptimisticLockHandle is not null and is not locked, it is simply locked
    * to the current state of the data.
+   * <p>
+   * The check is done against the NodeData passed by the caller, which is the
+   * revision it works with, so that no synchronization is required. For updates,
+   * this check only allows failing early. The version check enforced by the DB
+   * when {@link JpaBatchSession} writes the data is what guarantees conflicts are
+   * detected.
    *
    * @param jpaOptimisticLockHandle JpaOptimisticLockHandle. Can be null.
    * @param optimisticLockCheckContext OptimisticLockCheckContext.
+   * @param nodeData NodeData against which to check. null if NEW.
    */
-  protected void checkOptimisticLock(JpaOptimisticLockHandle jpaOptimisticLockHandle, OptimisticLockCheckContext optimisticLockCheckContext) {
+  protected void checkOptimisticLock(JpaOptimisticLockHandle jpaOptimisticLockHandle, OptimisticLockCheckContext optimisticLockCheckContext, NodeData nodeData) {
     if (jpaOptimisticLockHandle != null) {
       if (jpaOptimisticLockHandle.isLocked()) {
         if (optimisticLockCheckContext == OptimisticLockCheckContext.NEW) {
           throw new RuntimeException("OptimisticLockHandle must not be locked for a new JpaNodeConfig.");
         }
 
-        if (!jpaOptimisticLockHandle.getTimestampLastMod().equals(this.nodeData.getTimestampLastMod())) {
+        if (jpaOptimisticLockHandle.getVersion().longValue() != nodeData.getVersion()) {
+          this.jpaConfigMetrics.recordEvent(JpaConfigMetrics.Event.OPTIMISTIC_LOCK_FAILURE);
           throw new OptimisticLockException();
         }
       } else {
@@ -198,39 +569,47 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
           throw new RuntimeException("OptimisticLockHandle must be locked for an existing JpaNodeConfig.");
         }
 
-        jpaOptimisticLockHandle.setTimestampLastMod(this.nodeData.getTimestampLastMod());
+        if (nodeData != null) {
+          jpaOptimisticLockHandle.setVersion(nodeData.getVersion());
+        }
       }
     }
   }
 
   @Override
   public OptimisticLockHandle createOptimisticLockHandle(boolean indLock) {
-    return new JpaOptimisticLockHandle(indLock ? this.nodeData.getTimestampLastMod() : null);
+    return new JpaOptimisticLockHandle(indLock ? Long.valueOf(this.nodeData.getVersion()) : null);
   }
 
   @Override
   public boolean isOptimisticLockValid(OptimisticLockHandle optimisticLockHandle) {
-    return (((JpaOptimisticLockHandle)optimisticLockHandle).getTimestampLastMod().equals(this.nodeData.getTimestampLastMod()));
+    return (((JpaOptimisticLockHandle)optimisticLockHandle).getVersion().longValue() == this.nodeData.getVersion());
   }
 
   @Override
-  public synchronized NodeConfigTransferObject getNodeConfigTransferObject(OptimisticLockHandle optimisticLockHandle)
+  public NodeConfigTransferObject getNodeConfigTransferObject(OptimisticLockHandle optimisticLockHandle)
       throws OptimisticLockException {
     NodeConfigTransferObject nodeConfigTransferObject;
+    NodeData nodeData;
+
+    // The NodeData is read only once so that the optimistic lock check and the
+    // data correspond to the same revision without synchronizing with
+    // modifications.
+    nodeData = this.getNodeDataPayload();
 
-    this.checkOptimisticLock((JpaOptimisticLockHandle)optimisticLockHandle, this.nodeData == null ? OptimisticLockCheckContext.NEW : OptimisticLockCheckContext.GET);
+    this.checkOptimisticLock((JpaOptimisticLockHandle)optimisticLockHandle, nodeData == null ? OptimisticLockCheckContext.NEW : OptimisticLockCheckContext.GET, nodeData);
 
     nodeConfigTransferObject = new SimpleNodeConfigTransferObject();
 
-    if (this.nodeData != null) {
+    if (nodeData != null) {
 
-      nodeConfigTransferObject.setName(this.nodeData.getName());
+      nodeConfigTransferObject.setName(nodeData.getName());
 
-      for(PropertyDefConfig propertyDefConfig: this.nodeData.getMapPropertyDefConfig().values()) {
+      for(PropertyDefConfig propertyDefConfig: nodeData.getMapPropertyDefConfig().values()) {
         nodeConfigTransferObject.setPropertyDefConfig(propertyDefConfig);
       }
 
-      for(PluginDefConfig pluginDefConfig: this.nodeData.getMapPluginDefConfig().values()) {
+      for(PluginDefConfig pluginDefConfig: nodeData.getMapPluginDefConfig().values()) {
         nodeConfigTransferObject.setPluginDefConfig(pluginDefConfig);
       }
     }
@@ -253,6 +632,8 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
    * state of the data it represents, otherwise {@link OptimisticLockException} is
    * thrown. The state of the OptimisticLockHandle is updated to the new revision of
    * the JpaNodeConfig.
+   * <p>
+   * This is a {@link JpaBatchSession} containing a single operation.
    *
    * @param nodeConfigTransferObject NodeConfigTransferObject.
    * @param optimisticLockHandle OptimisticLockHandle. Can be null.
@@ -265,11 +646,47 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
    */
   protected void extractNodeConfigTransferObject(NodeConfigTransferObject nodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle)
       throws OptimisticLockException, DuplicateNodeException {
-    boolean indNew;
-    String previousName = null;
-    EntityManager entityManager;
+    JpaConfigMetrics.Operation operation;
+    long startNanos;
+    JpaBatchSession jpaBatchSession;
 
-    this.checkOptimisticLock((JpaOptimisticLockHandle)optimisticLockHandle, this.nodeData == null ? OptimisticLockCheckContext.NEW : OptimisticLockCheckContext.UPDATE);
+    this.checkNotReadOnly();
+
+    operation = (this.nodeData == null) ? JpaConfigMetrics.Operation.CREATE : JpaConfigMetrics.Operation.UPDATE;
+    startNanos = System.nanoTime();
+
+    try {
+      jpaBatchSession = new JpaBatchSession(this.entityManagerProvider, this.nodeDataCache);
+
+      jpaBatchSession.setNodeConfigTransferObject(this, nodeConfigTransferObject, optimisticLockHandle);
+      jpaBatchSession.commit();
+    } finally {
+      this.jpaConfigMetrics.recordOperation(operation, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Validates a {@link NodeConfigTransferObject} before it is registered within a
+   * {@link JpaBatchSession}.
+   * <p>
+   * Nothing is modified. The validation is done against the current committed
+   * state of the JpaNodeConfig.
+   *
+   * @param nodeConfigTransferObject NodeConfigTransferObject.
+   * @param optimisticLockHandle OptimisticLockHandle. Can be null.
+   * @throws OptimisticLockException See
+   *   {@link #extractNodeConfigTransferObject}.
+   * @throws DuplicateNodeException See {@link #extractNodeConfigTransferObject}.
+   */
+  void checkNodeConfigTransferObject(NodeConfigTransferObject nodeConfigTransferObject, OptimisticLockHandle optimisticLockHandle)
+      throws OptimisticLockException, DuplicateNodeException {
+    NodeData nodeData;
+
+    this.checkNotReadOnly();
+
+    nodeData = this.nodeData;
+
+    this.checkOptimisticLock((JpaOptimisticLockHandle)optimisticLockHandle, nodeData == null ? OptimisticLockCheckContext.NEW : OptimisticLockCheckContext.UPDATE, nodeData);
 
     if ((nodeConfigTransferObject.getName() == null) && (this.jpaClassificationNodeConfigParent != null)) {
       throw new RuntimeException("Name of NodeConfigTrnmsferObject must not be null for non-root JpaClassificationNodeConfig.");
@@ -279,89 +696,298 @@ public abstract class JpaNodeConfig implements NodeConfig, MutableNodeConfig {
       throw new RuntimeException("Name of NodeConfigTrnmsferObject must be null for root JpaClassificationNodeConfig.");
     }
 
-    indNew = (this.nodeData == null);
-
-    if (indNew) {
-      this.nodeData =
-          new NodeData(
-              this.getNodeType() == NodeType.CLASSIFICATION ? 'C' : 'M',
-              this.getJpaClassificationNodeConfigParent() == null ? null : this.getJpaClassificationNodeConfigParent().nodeData);
-    } else {
-      previousName = this.nodeData.getName();
+    if (nodeConfigTransferObject.getName() != null) {
+      NodeData.checkName(nodeConfigTransferObject.getName());
+    }
 
-      this.nodeData.getMapPropertyDefConfig().clear();
-      this.nodeData.getMapPluginDefConfig().clear();
+    if ((this.jpaClassificationNodeConfigParent != null) && ((nodeData == null) || !nodeData.getName().equals(nodeConfigTransferObject.getName()))) {
+      if (this.jpaClassificationNodeConfigParent.getNodeConfigChild(nodeConfigTransferObject.getName()) != null) {
+        throw new DuplicateNodeException();
+      }
     }
+  }
+
+  /**
+   * Writes the data of a {@link NodeConfigTransferObject} to the DB.
+   * <p>
+   * Called by {@link JpaBatchSession} within its transaction. The JpaNodeConfig
+   * itself is not modified. {@link #commitNodeConfigTransferObject} is called
+   * once the transaction is committed.
+   * <p>
+   * No synchronization is required. If versionExpected is not null, it is
+   * compared with the version currently in the DB, and the JPA provider includes
+   * the version in the WHERE clause of the UPDATE so that a modification committed
+   * concurrently by another thread or JVM causes the transaction to fail.
+   *
+   * @param entityManager EntityManager of the JpaBatchSession.
+   * @param nodeDataParent Parent NodeData for a new JpaNodeConfig. It can
+   *   itself be new within the JpaBatchSession.
+   * @param nodeConfigTransferObject NodeConfigTransferObject.
+   * @param versionExpected Version of the NodeData the caller's
+   *   {@link JpaOptimisticLockHandle} is locked to. null if no check is required.
+   * @return NodeData. Managed, except when renaming a JpaClassificationNodeConfig
+   *   in which case the persistence context is flushed and cleared.
+   */
+  NodeData persistNodeConfigTransferObject(EntityManager entityManager, NodeData nodeDataParent, NodeConfigTransferObject nodeConfigTransferObject, Long versionExpected) {
+    NodeData nodeDataCurrent;
+    NodeData nodeData;
+    String pathOld;
 
-    this.nodeData.setName(nodeConfigTransferObject.getName());
+    nodeDataCurrent = this.nodeData;
 
-    entityManager = this.entityManagerFactory.createEntityManager();
+    if (nodeDataCurrent == null) {
+      nodeData = new NodeData(this.getNodeType() == NodeType.CLASSIFICATION ? 'C' : 'M', nodeDataParent);
+      pathOld = null;
+    } else {
+      nodeData = entityManager.find(NodeData.class, nodeDataCurrent.getId());
 
-    try {
-      for(PropertyDefConfig propertyDefConfig: nodeConfigTransferObject.getListPropertyDefConfig()) {
-        this.nodeData.getMapPropertyDefConfig().put(propertyDefConfig.getName(),  propertyDefConfig);
+      if (nodeData == null) {
+        throw new OptimisticLockException();
       }
 
-      for(PluginDefConfig pluginDefConfig: nodeConfigTransferObject.getListPluginDefConfig()) {
-        this.nodeData.getMapPluginDefConfig().put(new PluginKey(pluginDefConfig.getClassNodePlugin(), pluginDefConfig.getPluginId()), pluginDefConfig);
+      if ((versionExpected != null) && (versionExpected.longValue() != nodeData.getVersion())) {
+        throw new OptimisticLockException();
       }
 
-      this.nodeData.setTimestampLastMod(new Timestamp(System.currentTimeMillis()));
+      // The lazy collections are loaded while the NodeData is managed.
+      if (!nodeData.isPayloadLoaded()) {
+        nodeData.initPayload();
+      }
 
-      try {
-        entityManager.getTransaction().begin();
+      pathOld = nodeData.getPath();
+    }
 
-        if (indNew) {
-          entityManager.persist(this.nodeData);
-        } else {
-          this.nodeData = entityManager.merge(this.nodeData);
-        }
+    nodeData.setName(nodeConfigTransferObject.getName());
+    nodeData.setPath(NodeData.buildPath(JpaNodeConfig.getPathParent(entityManager, nodeData.getIdNodeDataParent()), nodeData.getName()));
 
-        entityManager.getTransaction().commit();
-      } catch (EntityExistsException eee) {
-        throw new DuplicateNodeException();
-      }
+    // Only the differences are applied so that unchanged collection rows are not
+    // rewritten.
+    nodeData.updatePropertyDefConfig(nodeConfigTransferObject.getListPropertyDefConfig());
+    nodeData.updatePluginDefConfig(nodeConfigTransferObject.getListPluginDefConfig());
 
+    nodeData.setTimestampLastMod(new Timestamp(System.currentTimeMillis()));
 
-      if (indNew) {
-        if (this.jpaClassificationNodeConfigParent != null) {
-          this.jpaClassificationNodeConfigParent.setJpaNodeConfigChild(this);
-        }
-      } else {
-        if ((this.jpaClassificationNodeConfigParent != null) && (!this.nodeData.getName().equals(previousName))) {
-          this.jpaClassificationNodeConfigParent.renameJpaNodeConfigChild(previousName, this.nodeData.getName());
+    if (nodeDataCurrent == null) {
+      entityManager.persist(nodeData);
+    }
+
+    if ((pathOld != null) && (nodeData.getType() == 'C') && !pathOld.equals(nodeData.getPath())) {
+      Query query;
+
+      // The bulk update bypasses the persistence context. The renamed NodeData
+      // must be flushed first since its new path must not match the pattern, and
+      // descendants which may be managed must not keep their stale paths.
+      entityManager.flush();
+
+      // Paths of descendants grow with that of the renamed NodeData.
+      if (nodeData.getPath().length() > pathOld.length()) {
+        Number pathMaxLength;
+
+        query = entityManager.createNamedQuery("getDescendantMaxPathLength");
+        query.setParameter("pathPattern", NodeData.buildPathPrefixPattern(pathOld));
+        pathMaxLength = (Number)query.getSingleResult();
+
+        if ((pathMaxLength != null) && ((pathMaxLength.intValue() - pathOld.length() + nodeData.getPath().length()) > NodeData.PATH_MAX_LENGTH)) {
+          throw new RuntimeException("Renaming " + pathOld + " to " + nodeData.getPath() + " would make the path of a descendant exceed the maximum length of " + NodeData.PATH_MAX_LENGTH + ".");
         }
       }
-    } finally {
-      entityManager.close();
+
+      query = entityManager.createNamedQuery("updateDescendantPaths");
+      query.setParameter("pathNew", nodeData.getPath());
+      query.setParameter("pathOldLength", pathOld.length());
+      query.setParameter("pathPattern", NodeData.buildPathPrefixPattern(pathOld));
+      query.executeUpdate();
+
+      entityManager.clear();
     }
 
-    if (optimisticLockHandle != null) {
-      ((JpaOptimisticLockHandle)optimisticLockHandle).setTimestampLastMod(this.nodeData.getTimestampLastMod());
+    return nodeData;
+  }
+
+  /**
+   * Returns the current path of a parent {@link NodeData}.
+   * <p>
+   * The parent is obtained from the EntityManager by ID. The instance managed by
+   * the EntityManager, if any, is returned as is. Otherwise it is reloaded, which
+   * is required since the path of a detached NodeData can be stale if one of its
+   * ancestors was renamed.
+   *
+   * @param entityManager EntityManager.
+   * @param idNodeDataParent ID of the parent NodeData. null for the root
+   *   NodeData.
+   * @return Path of the parent NodeData. null for the root NodeData.
+   */
+  private static String getPathParent(EntityManager entityManager, Integer idNodeDataParent) {
+    NodeData nodeDataParent;
+
+    if (idNodeDataParent == null) {
+      return null;
+    }
+
+    nodeDataParent = entityManager.find(NodeData.class, idNodeDataParent);
+
+    if (nodeDataParent == null) {
+      throw new OptimisticLockException();
+    }
+
+    return nodeDataParent.getPath();
+  }
+
+  /**
+   * Makes the JpaNodeConfig reflect the {@link NodeData} written by
+   * {@link #persistNodeConfigTransferObject}.
+   * <p>
+   * Called by {@link JpaBatchSession} once its transaction is committed.
+   * Subclasses can override this method in order to perform other tasks, in which
+   * case they must call this method.
+   * <p>
+   * Also called by {@link JpaConfig#refresh} with a NodeData reloaded from the DB
+   * after it was modified by another JVM.
+   * <p>
+   * A NodeData whose version is not more recent than the one already published is
+   * ignored. This happens when a refresh which read the NodeData before a commit
+   * by this JVM publishes it after, or when two commits publish out of order.
+   * <p>
+   * If the JpaNodeConfig is added to or renamed within its parent and
+   * childNodeConfigChanges is not null, the modification is recorded in it
+   * instead of being published immediately, so that the caller can publish the
+   * modifications of many siblings at once (see
+   * {@link JpaClassificationNodeConfig#updateChildNodeConfig}).
+   *
+   * @param nodeData NodeData returned by persistNodeConfigTransferObject.
+   * @param childNodeConfigChanges ChildNodeConfigChanges of the parent. Can be
+   *   null.
+   */
+  synchronized void commitNodeConfigTransferObject(NodeData nodeData, JpaClassificationNodeConfig.ChildNodeConfigChanges childNodeConfigChanges) {
+    JpaClassificationNodeConfig.ChildNodeConfigChanges childNodeConfigChangesPublish;
+    boolean indNew;
+    String previousName;
+
+    this.indCreatePending = false;
+
+    if ((this.nodeData != null) && (nodeData.getVersion() <= this.nodeData.getVersion())) {
+      return;
+    }
+
+    indNew = (this.nodeData == null);
+    previousName = indNew ? null : this.nodeData.getName();
+
+    nodeData.buildReadStructures();
+    this.nodeData = nodeData;
+
+    if (!indNew) {
+      this.invalidateEffectiveProperties();
+    }
+
+    if ((this.jpaClassificationNodeConfigParent == null) || (!indNew && this.nodeData.getName().equals(previousName))) {
+      return;
+    }
+
+    childNodeConfigChangesPublish = (childNodeConfigChanges == null) ? new JpaClassificationNodeConfig.ChildNodeConfigChanges() : childNodeConfigChanges;
+
+    if (indNew) {
+      childNodeConfigChangesPublish.add(this);
+    } else {
+      childNodeConfigChangesPublish.rename(previousName, this);
+    }
+
+    if (childNodeConfigChanges == null) {
+      this.jpaClassificationNodeConfigParent.updateChildNodeConfig(childNodeConfigChangesPublish);
     }
   }
 
   @Override
   public void delete() {
+    this.checkNotReadOnly();
+
     if (this.nodeData != null) {
-      EntityManager entityManager;
-      NodeData nodeData;
+      long startNanos;
+      JpaBatchSession jpaBatchSession;
 
-      entityManager = this.entityManagerFactory.createEntityManager();
+      startNanos = System.nanoTime();
 
       try {
-        nodeData = entityManager.find(NodeData.class, this.nodeData.getId());
-        entityManager.getTransaction().begin();
-        entityManager.remove(nodeData);
-        entityManager.getTransaction().commit();
+        jpaBatchSession = new JpaBatchSession(this.entityManagerProvider, this.nodeDataCache);
+
+        jpaBatchSession.delete(this);
+        jpaBatchSession.commit();
       } finally {
-        entityManager.close();
+        this.jpaConfigMetrics.recordOperation(JpaConfigMetrics.Operation.DELETE, System.nanoTime() - startNanos);
       }
+    }
+  }
 
-      if (this.jpaClassificationNodeConfigParent != null) {
-        this.jpaClassificationNodeConfigParent.removeChildNodeConfig(this.nodeData.getName());
-        this.jpaClassificationNodeConfigParent = null;
+  /**
+   * Deletes the {@link NodeData} from the DB.
+   * <p>
+   * Called by {@link JpaBatchSession} within its transaction. The JpaNodeConfig
+   * itself is not modified. {@link #commitDelete} is called once the transaction
+   * is committed.
+   * <p>
+   * No synchronization is required. The JPA provider includes the version in the
+   * WHERE clause of the DELETE.
+   *
+   * @param entityManager EntityManager of the JpaBatchSession.
+   * @return Map of the IDs of the deleted NodeData to the IDs of their parent.
+   *   Subclasses can delete more than the NodeData of this JpaNodeConfig. Empty if
+   *   the NodeData was already deleted.
+   */
+  Map<Integer, Integer> persistDelete(EntityManager entityManager) {
+    NodeData nodeData;
+
+    nodeData = entityManager.find(NodeData.class, this.nodeData.getId());
+
+    if (nodeData == null) {
+      return Collections.emptyMap();
+    }
+
+    entityManager.remove(nodeData);
+
+    return Collections.singletonMap(nodeData.getId(), nodeData.getIdNodeDataParent());
+  }
+
+  /**
+   * Makes the JpaNodeConfig reflect its deletion by {@link #persistDelete}.
+   * <p>
+   * Called by {@link JpaBatchSession} once its transaction is committed.
+   * Subclasses can override this method in order to perform other tasks, in which
+   * case they must call this method.
+   * <p>
+   * Also called by {@link JpaConfig#refresh} when the JpaNodeConfig was deleted
+   * by another JVM.
+   * <p>
+   * See {@link #commitNodeConfigTransferObject} for childNodeConfigChanges.
+   *
+   * @param childNodeConfigChanges ChildNodeConfigChanges of the parent. Can be
+   *   null.
+   */
+  synchronized void commitDelete(JpaClassificationNodeConfig.ChildNodeConfigChanges childNodeConfigChanges) {
+    this.invalidateEffectiveProperties();
+
+    if (this.jpaClassificationNodeConfigParent != null) {
+      if (childNodeConfigChanges == null) {
+        JpaClassificationNodeConfig.ChildNodeConfigChanges childNodeConfigChangesPublish;
+
+        childNodeConfigChangesPublish = new JpaClassificationNodeConfig.ChildNodeConfigChanges();
+        childNodeConfigChangesPublish.remove(this.nodeData.getName());
+        this.jpaClassificationNodeConfigParent.updateChildNodeConfig(childNodeConfigChangesPublish);
+      } else {
+        childNodeConfigChanges.remove(this.nodeData.getName());
       }
+
+      this.jpaClassificationNodeConfigParent = null;
     }
   }
+
+  /**
+   * Makes the JpaNodeConfig reflect its deletion as part of the subtree of a
+   * deleted ancestor.
+   * <p>
+   * Contrary to {@link #commitDelete}, the JpaNodeConfig is not removed from its
+   * parent since the parent is being pruned as a whole.
+   */
+  synchronized void commitDeleteDescendant() {
+    this.invalidateEffectiveProperties();
+    this.jpaClassificationNodeConfigParent = null;
+  }
 }
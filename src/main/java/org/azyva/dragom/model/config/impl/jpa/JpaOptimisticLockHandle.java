@@ -19,54 +19,57 @@
 
 package org.azyva.dragom.model.config.impl.jpa;
 
-import java.sql.Timestamp;
-
 import org.azyva.dragom.model.config.OptimisticLockHandle;
 
 /**
  * Simple implementation of {@link OptimisticLockHandle} used by
- * {@link JpaNodeConfig} that is based on a last modification timestamp.
+ * {@link JpaNodeConfig} that is based on the version of the {@link NodeData}.
+ * <p>
+ * The version is maintained by the JPA provider which increments it with each
+ * update and includes it in the WHERE clause of UPDATE and DELETE statements, so
+ * that a conflicting modification is detected by the DB itself, even if made by
+ * another JVM.
  *
  * @author David Raymond
  */
 public class JpaOptimisticLockHandle implements OptimisticLockHandle {
   /**
-   * Last modification timesatmp.
+   * Version. null if not locked.
    */
-  Timestamp timestampLastMod;
+  Long version;
 
   /**
    * Constructor.
    *
-   * @param timestampLastMod Last modification timestamp.
+   * @param version Version. null if not locked.
    */
-  JpaOptimisticLockHandle(Timestamp timestampLastMod) {
-    this.timestampLastMod = timestampLastMod;
+  JpaOptimisticLockHandle(Long version) {
+    this.version = version;
   }
 
   @Override
   public boolean isLocked() {
-    return this.timestampLastMod != null;
+    return this.version != null;
   }
 
   @Override
   public void clearLock() {
-    this.timestampLastMod = null;
+    this.version = null;
   }
 
   /**
-   * @return Last modification timestamp.
+   * @return Version.
    */
-  Timestamp getTimestampLastMod() {
-    return this.timestampLastMod;
+  Long getVersion() {
+    return this.version;
   }
 
   /**
-   * Sets the last modification timestamp.
+   * Sets the version.
    *
-   * @param timestampLastMod See description.
+   * @param version See description.
    */
-  void setTimestampLastMod(Timestamp timestampLastMod) {
-    this.timestampLastMod = timestampLastMod;
+  void setVersion(Long version) {
+    this.version = version;
   }
 }
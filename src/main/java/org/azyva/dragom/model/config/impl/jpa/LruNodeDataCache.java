@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link NodeDataCache} which evicts the least recently used entries.
+ * <p>
+ * The size is bounded by the total number of {@link NodeData} cached, not by the
+ * number of entries, since entries for classification nodes containing many
+ * modules are much larger than others. Each entry also counts for one so that
+ * entries for classification nodes without children are bounded as well.
+ *
+ * @author David Raymond
+ */
+public class LruNodeDataCache extends NodeDataCache {
+  /**
+   * Maximum number of NodeData cached.
+   */
+  private int maxSize;
+
+  /**
+   * Map of keys to entries, in access order.
+   */
+  private LinkedHashMap<Integer, Entry> mapEntry;
+
+  /**
+   * Size of the cache, as computed by {@link #getWeight}.
+   */
+  private int size;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize Maximum number of NodeData cached. An entry larger than this
+   *   is not cached.
+   */
+  public LruNodeDataCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.mapEntry = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+  }
+
+  @Override
+  synchronized Entry get(int key) {
+    return this.mapEntry.get(key);
+  }
+
+  @Override
+  synchronized void put(int key, Entry entry) {
+    Iterator<Map.Entry<Integer, Entry>> iteratorMapEntry;
+    int evictedCount;
+
+    this.remove(key);
+
+    if (LruNodeDataCache.getWeight(entry) > this.maxSize) {
+      return;
+    }
+
+    iteratorMapEntry = this.mapEntry.entrySet().iterator();
+    evictedCount = 0;
+
+    while ((this.size + LruNodeDataCache.getWeight(entry)) > this.maxSize) {
+      this.size -= LruNodeDataCache.getWeight(iteratorMapEntry.next().getValue());
+      iteratorMapEntry.remove();
+      evictedCount++;
+    }
+
+    if (evictedCount != 0) {
+      this.recordEviction(evictedCount);
+    }
+
+    this.mapEntry.put(key, entry);
+    this.size += LruNodeDataCache.getWeight(entry);
+  }
+
+  @Override
+  synchronized boolean remove(int key) {
+    Entry entry;
+
+    entry = this.mapEntry.remove(key);
+
+    if (entry != null) {
+      this.size -= LruNodeDataCache.getWeight(entry);
+      return true;
+    }
+
+    return false;
+  }
+
+  @Override
+  public synchronized void clear() {
+    this.mapEntry.clear();
+    this.size = 0;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return this.size;
+  }
+
+  /**
+   * @param entry Entry.
+   * @return Weight of the entry with respect to the maximum size.
+   */
+  private static int getWeight(Entry entry) {
+    return 1 + entry.listNodeDataChild.size();
+  }
+}
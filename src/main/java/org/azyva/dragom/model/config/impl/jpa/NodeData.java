@@ -21,13 +21,21 @@ package org.azyva.dragom.model.config.impl.jpa;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
 import org.azyva.dragom.model.config.PluginDefConfig;
 import org.azyva.dragom.model.config.PluginKey;
 import org.azyva.dragom.model.config.PropertyDefConfig;
+import org.azyva.dragom.model.plugin.NodePlugin;
 
 /**
  * Main class which represents entities in the DB.
@@ -39,9 +47,53 @@ import org.azyva.dragom.model.config.PropertyDefConfig;
  * only. Mapped DB entities can be detached from the EntityManager, but it is not
  * possible to re-attach them.
  *
+ * <p>The {@link PropertyDefConfig} and {@link PluginDefConfig}, called the
+ * payload, are mapped as lazy collections so that NodeData can be loaded as
+ * lightweight skeletons when traversing the tree. Queries which need the
+ * payload fetch it explicitly. In all cases {@link #initPayload} must be called
+ * before the payload is accessed, either while the NodeData is managed or after
+ * the payload was fetched. The payload of a detached skeleton is set using
+ * {@link #setPayload}.
+ *
  * @author David Raymond
  */
 class NodeData {
+  /**
+   * Separator of the names in a path.
+   */
+  static final char PATH_SEPARATOR = '/';
+
+  /**
+   * Path of the root NodeData.
+   */
+  static final String PATH_ROOT = "/";
+
+  /**
+   * Maximum length of a path, which is bounded by the maximum key size of the
+   * unique index on the path: 3072 bytes on MySQL with utf8mb4 (4 bytes per
+   * character) and 1700 bytes on SQL Server with NVARCHAR (2 bytes per
+   * character). Must match the length of the PATH column.
+   */
+  static final int PATH_MAX_LENGTH = 768;
+
+  /**
+   * Second level of the index of {@link PluginDefConfig}, for a given
+   * {@link NodePlugin} class.
+   */
+  private static class PluginIdIndex {
+    /**
+     * PluginDefConfig with a null plugin ID. This is by far the most frequent
+     * case, which is why it does not go through a Map.
+     */
+    PluginDefConfig pluginDefConfigDefaultPluginId;
+
+    /**
+     * Map of plugin IDs to PluginDefConfig, for non-null plugin IDs. null if
+     * there are none.
+     */
+    Map<String, PluginDefConfig> mapPluginDefConfig;
+  }
+
   /**
    * Id.
    */
@@ -49,13 +101,21 @@ class NodeData {
 
   /**
    * Parent NodeData.
+   *
+   * <p>Mapped as lazy so that loading a NodeData does not load all of its
+   * ancestors. It must therefore not be accessed once the NodeData is detached,
+   * unless it was created in memory. {@link #idNodeDataParent} is used instead
+   * to identify the parent.
    */
   private NodeData nodeDataParent;
 
-  //TODO: I think this used to be mapped as a one-to-many relationship, but I could
-  // not make the cascade delete work properly. I do not recall the details. I
-  // decided to only have the direct parent relationship.
-  //private List<NodeData> child;
+  /**
+   * ID of the parent NodeData. null for the root NodeData.
+   *
+   * <p>Mapped read-only on the same column as {@link #nodeDataParent} so that
+   * the parent can be identified without being loaded.
+   */
+  private Integer idNodeDataParent;
 
   /**
    * Node type.
@@ -69,6 +129,21 @@ class NodeData {
    */
   private String name;
 
+  /**
+   * Materialized path, made of the names of the ancestors and of this NodeData,
+   * each followed by {@link #PATH_SEPARATOR}, after an initial PATH_SEPARATOR
+   * for the root. The path of the root NodeData is thus "/" and that of a
+   * module could be "/Domain/SubDomain/module/".
+   * <p>
+   * Persisted and indexed so that a NodeData can be found by path, and a subtree
+   * queried, with a single query.
+   * <p>
+   * Maintained by {@link JpaNodeConfig} in the DB. The path of a NodeData in
+   * memory can be stale after an ancestor was renamed since descendants are
+   * updated with a bulk statement. It is therefore not used in memory.
+   */
+  private String path;
+
   /**
    * Map of {@link PropertyDefConfig}.
    */
@@ -87,13 +162,57 @@ class NodeData {
    */
   private List<PluginDefConfig> listPluginDefConfig;
 
+  /**
+   * Unmodifiable List of {@link PropertyDefConfig}, sorted by name.
+   *
+   * <p>Built by {@link #buildReadStructures} so that it can be returned to
+   * callers without copying.
+   */
+  private transient List<PropertyDefConfig> unmodifiableListPropertyDefConfig;
+
+  /**
+   * Unmodifiable List of {@link PluginDefConfig}, in the order in which they were
+   * defined.
+   *
+   * <p>Built by {@link #buildReadStructures} so that it can be returned to
+   * callers without copying.
+   */
+  private transient List<PluginDefConfig> unmodifiableListPluginDefConfig;
+
+  /**
+   * Index of {@link PluginDefConfig} by {@link NodePlugin} class, then by plugin
+   * ID.
+   *
+   * <p>Built by {@link #buildReadStructures} so that lookups do not need to
+   * create a {@link PluginKey}.
+   */
+  private transient Map<Class<? extends NodePlugin>, PluginIdIndex> mapPluginIdIndex;
+
   /**
    * Last modification timestamp.
    *
-   * <p>Used for optimistic locking.
+   * <p>Informational only. See {@link #version} for optimistic locking.
    */
   private Timestamp timestampLastMod;
 
+  /**
+   * Version.
+   *
+   * <p>Maintained by the JPA provider and used for optimistic locking. It is
+   * incremented with each update and UPDATE and DELETE statements include it in
+   * their WHERE clause so that a concurrent modification is detected by the DB.
+   */
+  private long version;
+
+  /**
+   * Indicates the payload is loaded and the read structures are built.
+   *
+   * <p>Volatile since the payload of a skeleton NodeData can be set after the
+   * NodeData is published to other threads. It is set last so that the other
+   * fields are visible to threads which observe it.
+   */
+  private transient volatile boolean indPayloadLoaded;
+
   /**
    * Default constructor.
    *
@@ -102,32 +221,296 @@ class NodeData {
   protected NodeData() {
   }
 
+  /**
+   * Constructor for a new NodeData.
+   *
+   * @param type Node type.
+   * @param nodeDataParent Parent NodeData. null for the root NodeData. Must
+   *   already have its ID.
+   */
   public NodeData(char type, NodeData nodeDataParent) {
     this.type = type;
     this.nodeDataParent = nodeDataParent;
+    this.idNodeDataParent = (nodeDataParent == null) ? null : nodeDataParent.getId();
+
+    this.mapPropertyDefConfig = new HashMap<String, PropertyDefConfig>();
+    this.mapPluginDefConfig = new LinkedHashMap<PluginKey, PluginDefConfig>();
+  }
+
+  /**
+   * Constructor for a NodeData read from a {@link NodeDataSnapshot}.
+   *
+   * <p>The NodeData is initialized as if loaded from the DB. It is not managed by
+   * any EntityManager.
+   *
+   * @param id ID.
+   * @param type Node type.
+   * @param nodeDataParent Parent NodeData. null for the root NodeData.
+   * @param name Name.
+   * @param version Version.
+   * @param timestampLastMod Last modification timestamp.
+   * @param listPropertyDefConfig List of PropertyDefConfig.
+   * @param listPluginDefConfig List of PluginDefConfig.
+   */
+  NodeData(int id, char type, NodeData nodeDataParent, String name, long version, Timestamp timestampLastMod, List<PropertyDefConfig> listPropertyDefConfig, List<PluginDefConfig> listPluginDefConfig) {
+    this.id = id;
+    this.type = type;
+    this.nodeDataParent = nodeDataParent;
+    this.idNodeDataParent = (nodeDataParent == null) ? null : nodeDataParent.id;
+    this.name = name;
+    this.path = NodeData.buildPath(nodeDataParent == null ? null : nodeDataParent.path, name);
+    this.version = version;
+    this.timestampLastMod = timestampLastMod;
 
     this.mapPropertyDefConfig = new HashMap<String, PropertyDefConfig>();
-    this.mapPluginDefConfig = new HashMap<PluginKey, PluginDefConfig>();
+
+    for(PropertyDefConfig propertyDefConfig: listPropertyDefConfig) {
+      this.mapPropertyDefConfig.put(propertyDefConfig.getName(), propertyDefConfig);
+    }
+
+    this.listPluginDefConfig = listPluginDefConfig;
+
+    this.initPayload();
   }
 
-  private void postLoad() {
-    this.mapPluginDefConfig = new HashMap<PluginKey, PluginDefConfig>();
+  /**
+   * Releases the state kept for the JPA provider.
+   *
+   * <p>The collections instantiated by the JPA provider, which keep a copy of
+   * their elements for dirty checking, are replaced by plain unmodifiable ones,
+   * and listPluginDefConfig, which is only used for persisting, is dropped. The
+   * read structures must already be built.
+   *
+   * <p>Used for read-only {@link JpaConfig}. The NodeData can no longer be
+   * persisted nor modified afterwards.
+   */
+  void releasePersistenceState() {
+    this.mapPropertyDefConfig = Collections.unmodifiableMap(new HashMap<String, PropertyDefConfig>(this.mapPropertyDefConfig));
+    this.listPluginDefConfig = null;
+  }
+
+  /**
+   * Builds mapPluginDefConfig and the read structures from the persisted
+   * collections.
+   *
+   * <p>The collections are lazy. This method must therefore be called either
+   * while the NodeData is managed by an EntityManager or after they were fetched
+   * by the query which loaded the NodeData.
+   */
+  void initPayload() {
+    // A LinkedHashMap is used so that the order of the PluginDefConfig is
+    // preserved.
+    this.mapPluginDefConfig = new LinkedHashMap<PluginKey, PluginDefConfig>();
 
     for(PluginDefConfig pluginDefConfig: this.listPluginDefConfig) {
       this.mapPluginDefConfig.put(new PluginKey(pluginDefConfig.getClassNodePlugin(), pluginDefConfig.getPluginId()), pluginDefConfig);
     }
+
+    this.buildReadStructures();
   }
 
+  /**
+   * Sets the payload of a skeleton NodeData from another instance of the same
+   * NodeData loaded with its payload.
+   *
+   * <p>Does nothing if the payload is already loaded, as when it was loaded
+   * concurrently.
+   *
+   * <p>If the other instance has a different version, the payload is still used.
+   * The NodeData is then stale, which is detected by the optimistic lock check
+   * when it is modified, and corrected by {@link JpaConfig#refresh}.
+   *
+   * @param nodeDataPayload NodeData whose payload was fetched.
+   */
+  synchronized void setPayload(NodeData nodeDataPayload) {
+    if (this.indPayloadLoaded) {
+      return;
+    }
+
+    if (nodeDataPayload.id != this.id) {
+      throw new RuntimeException("NodeData ID mismatch.");
+    }
+
+    this.mapPropertyDefConfig = nodeDataPayload.mapPropertyDefConfig;
+    this.listPluginDefConfig = nodeDataPayload.listPluginDefConfig;
+
+    this.initPayload();
+  }
+
+  /**
+   * @return Indicates the payload is loaded.
+   */
+  boolean isPayloadLoaded() {
+    return this.indPayloadLoaded;
+  }
+
+  /**
+   * Builds the unmodifiable Lists of {@link PropertyDefConfig} and
+   * {@link PluginDefConfig}, as well as the index of PluginDefConfig, from the
+   * Map's.
+   *
+   * <p>Must be called after the NodeData is modified and before it is published
+   * to readers.
+   */
+  void buildReadStructures() {
+    List<PropertyDefConfig> listPropertyDefConfig;
+
+    listPropertyDefConfig = new ArrayList<PropertyDefConfig>(this.mapPropertyDefConfig.values());
+
+    Collections.sort(listPropertyDefConfig, new Comparator<PropertyDefConfig>() {
+      @Override
+      public int compare(PropertyDefConfig propertyDefConfig1, PropertyDefConfig propertyDefConfig2) {
+        return propertyDefConfig1.getName().compareTo(propertyDefConfig2.getName());
+      }
+    });
+
+    this.unmodifiableListPropertyDefConfig = Collections.unmodifiableList(listPropertyDefConfig);
+    this.unmodifiableListPluginDefConfig = Collections.unmodifiableList(new ArrayList<PluginDefConfig>(this.mapPluginDefConfig.values()));
+
+    // Class does not override equals and hashCode, so an IdentityHashMap is
+    // equivalent and cheaper.
+    this.mapPluginIdIndex = new IdentityHashMap<Class<? extends NodePlugin>, PluginIdIndex>();
+
+    for(PluginDefConfig pluginDefConfig: this.mapPluginDefConfig.values()) {
+      PluginIdIndex pluginIdIndex;
+
+      pluginIdIndex = this.mapPluginIdIndex.get(pluginDefConfig.getClassNodePlugin());
+
+      if (pluginIdIndex == null) {
+        pluginIdIndex = new PluginIdIndex();
+        this.mapPluginIdIndex.put(pluginDefConfig.getClassNodePlugin(), pluginIdIndex);
+      }
+
+      if (pluginDefConfig.getPluginId() == null) {
+        pluginIdIndex.pluginDefConfigDefaultPluginId = pluginDefConfig;
+      } else {
+        if (pluginIdIndex.mapPluginDefConfig == null) {
+          pluginIdIndex.mapPluginDefConfig = new HashMap<String, PluginDefConfig>();
+        }
+
+        pluginIdIndex.mapPluginDefConfig.put(pluginDefConfig.getPluginId(), pluginDefConfig);
+      }
+    }
+
+    this.indPayloadLoaded = true;
+  }
+
+  /**
+   * Makes listPluginDefConfig, which is what is persisted, reflect
+   * mapPluginDefConfig.
+   * <p>
+   * The List is updated in place and only the elements which differ are
+   * replaced, so that the persistence provider only writes the rows whose index
+   * changed.
+   */
   private void preSave() {
+    int index;
+
     if (this.listPluginDefConfig == null) {
       this.listPluginDefConfig = new ArrayList<PluginDefConfig>();
-    } else {
-      this.listPluginDefConfig.clear();
     }
 
+    index = 0;
+
     for(PluginDefConfig pluginDefConfig: this.mapPluginDefConfig.values()) {
-      this.listPluginDefConfig.add(pluginDefConfig);
+      if (index == this.listPluginDefConfig.size()) {
+        this.listPluginDefConfig.add(pluginDefConfig);
+      } else if (this.listPluginDefConfig.get(index) != pluginDefConfig) {
+        this.listPluginDefConfig.set(index, pluginDefConfig);
+      }
+
+      index++;
     }
+
+    while (this.listPluginDefConfig.size() > index) {
+      this.listPluginDefConfig.remove(this.listPluginDefConfig.size() - 1);
+    }
+  }
+
+  /**
+   * Updates the {@link PropertyDefConfig} to match a List of PropertyDefConfig,
+   * keeping the existing instances which are equivalent so that the persistence
+   * provider only writes the rows which actually changed.
+   *
+   * @param listPropertyDefConfig List of PropertyDefConfig.
+   */
+  void updatePropertyDefConfig(List<PropertyDefConfig> listPropertyDefConfig) {
+    Map<String, PropertyDefConfig> mapPropertyDefConfigNew;
+
+    mapPropertyDefConfigNew = new HashMap<String, PropertyDefConfig>();
+
+    for(PropertyDefConfig propertyDefConfig: listPropertyDefConfig) {
+      mapPropertyDefConfigNew.put(propertyDefConfig.getName(), propertyDefConfig);
+    }
+
+    this.mapPropertyDefConfig.keySet().retainAll(mapPropertyDefConfigNew.keySet());
+
+    for(PropertyDefConfig propertyDefConfig: mapPropertyDefConfigNew.values()) {
+      if (!NodeData.isEquivalent(this.mapPropertyDefConfig.get(propertyDefConfig.getName()), propertyDefConfig)) {
+        this.mapPropertyDefConfig.put(propertyDefConfig.getName(), propertyDefConfig);
+      }
+    }
+  }
+
+  /**
+   * Updates the {@link PluginDefConfig} to match a List of PluginDefConfig,
+   * keeping the existing instances which are equivalent so that the persistence
+   * provider only writes the rows which actually changed. The order of the List
+   * is preserved.
+   *
+   * @param listPluginDefConfig List of PluginDefConfig.
+   */
+  void updatePluginDefConfig(List<PluginDefConfig> listPluginDefConfig) {
+    Map<PluginKey, PluginDefConfig> mapPluginDefConfigNew;
+
+    mapPluginDefConfigNew = new LinkedHashMap<PluginKey, PluginDefConfig>();
+
+    for(PluginDefConfig pluginDefConfig: listPluginDefConfig) {
+      PluginKey pluginKey;
+      PluginDefConfig pluginDefConfigExisting;
+
+      pluginKey = new PluginKey(pluginDefConfig.getClassNodePlugin(), pluginDefConfig.getPluginId());
+      pluginDefConfigExisting = this.mapPluginDefConfig.get(pluginKey);
+
+      mapPluginDefConfigNew.put(pluginKey, NodeData.isEquivalent(pluginDefConfigExisting, pluginDefConfig) ? pluginDefConfigExisting : pluginDefConfig);
+    }
+
+    this.mapPluginDefConfig = mapPluginDefConfigNew;
+    this.preSave();
+  }
+
+  /**
+   * @param propertyDefConfig1 PropertyDefConfig. Can be null.
+   * @param propertyDefConfig2 PropertyDefConfig.
+   * @return Indicates if both PropertyDefConfig have the same values.
+   */
+  private static boolean isEquivalent(PropertyDefConfig propertyDefConfig1, PropertyDefConfig propertyDefConfig2) {
+    return    (propertyDefConfig1 != null)
+           && propertyDefConfig1.getName().equals(propertyDefConfig2.getName())
+           && NodeData.isEqual(propertyDefConfig1.getValue(), propertyDefConfig2.getValue())
+           && (propertyDefConfig1.isOnlyThisNode() == propertyDefConfig2.isOnlyThisNode());
+  }
+
+  /**
+   * @param pluginDefConfig1 PluginDefConfig. Can be null.
+   * @param pluginDefConfig2 PluginDefConfig.
+   * @return Indicates if both PluginDefConfig have the same values.
+   */
+  private static boolean isEquivalent(PluginDefConfig pluginDefConfig1, PluginDefConfig pluginDefConfig2) {
+    return    (pluginDefConfig1 != null)
+           && (pluginDefConfig1.getClassNodePlugin() == pluginDefConfig2.getClassNodePlugin())
+           && NodeData.isEqual(pluginDefConfig1.getPluginId(), pluginDefConfig2.getPluginId())
+           && NodeData.isEqual(pluginDefConfig1.getPluginClass(), pluginDefConfig2.getPluginClass())
+           && (pluginDefConfig1.isOnlyThisNode() == pluginDefConfig2.isOnlyThisNode());
+  }
+
+  /**
+   * @param string1 String. Can be null.
+   * @param string2 String. Can be null.
+   * @return Indicates if both Strings are equal or null.
+   */
+  private static boolean isEqual(String string1, String string2) {
+    return (string1 == null) ? (string2 == null) : string1.equals(string2);
   }
 
   public int getId() {
@@ -138,6 +521,13 @@ class NodeData {
     return this.nodeDataParent;
   }
 
+  /**
+   * @return ID of the parent NodeData. null for the root NodeData.
+   */
+  Integer getIdNodeDataParent() {
+    return this.idNodeDataParent;
+  }
+
   public char getType() {
     return this.type;
   }
@@ -150,6 +540,123 @@ class NodeData {
     this.name = name;
   }
 
+  public String getPath() {
+    return this.path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  /**
+   * Builds the path of a NodeData.
+   *
+   * @param pathParent Path of the parent NodeData. null for the root NodeData.
+   * @param name Name of the NodeData. Ignored for the root NodeData.
+   * @return Path.
+   */
+  static String buildPath(String pathParent, String name) {
+    String path;
+
+    if (pathParent == null) {
+      return NodeData.PATH_ROOT;
+    }
+
+    NodeData.checkName(name);
+
+    path = pathParent + name + NodeData.PATH_SEPARATOR;
+
+    NodeData.checkPathLength(path);
+
+    return path;
+  }
+
+  /**
+   * Verifies a name does not contain {@link #PATH_SEPARATOR}, which would make
+   * lookups by path and subtree queries ambiguous.
+   *
+   * @param name Name.
+   */
+  static void checkName(String name) {
+    if (name.indexOf(NodeData.PATH_SEPARATOR) != -1) {
+      throw new RuntimeException("Name " + name + " must not contain " + NodeData.PATH_SEPARATOR + " since it separates the names in a path.");
+    }
+  }
+
+  /**
+   * Verifies a path does not exceed {@link #PATH_MAX_LENGTH}.
+   *
+   * @param path Path.
+   */
+  static void checkPathLength(String path) {
+    if (path.length() > NodeData.PATH_MAX_LENGTH) {
+      throw new RuntimeException("Path " + path + " exceeds the maximum length of " + NodeData.PATH_MAX_LENGTH + ".");
+    }
+  }
+
+  /**
+   * Builds a LIKE pattern matching the paths of the NodeData within the subtree
+   * of a NodeData, including itself. '\' is used as the escape character.
+   *
+   * @param path Path of the root of the subtree.
+   * @return LIKE pattern.
+   */
+  static String buildPathPrefixPattern(String path) {
+    return path.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+  }
+
+  /**
+   * Executes one of the named queries which load NodeData with their payload and
+   * initializes it (see {@link #initPayload}).
+   *
+   * <p>Fetching both collections in a single query would return the cartesian
+   * product of the {@link PropertyDefConfig} and {@link PluginDefConfig} of each
+   * NodeData. The named query therefore fetches only the PropertyDefConfig. It is
+   * followed by the query of the same name suffixed with "PluginDefConfig" which
+   * fetches the PluginDefConfig of the same NodeData. Since both are executed
+   * within the same EntityManager, the second one initializes the collections of
+   * the NodeData returned by the first one.
+   *
+   * <p>A NodeData deleted between both queries has its PluginDefConfig loaded
+   * lazily (and empty) while initializing its payload.
+   *
+   * @param entityManager EntityManager.
+   * @param queryName Name of the query.
+   * @param parameterName Name of the single parameter of both queries. null if
+   *   none.
+   * @param parameterValue Value of the parameter.
+   * @return NodeData returned by the query.
+   */
+  @SuppressWarnings("unchecked")
+  static List<NodeData> getResultListWithPayload(EntityManager entityManager, String queryName, String parameterName, Object parameterValue) {
+    Query query;
+    List<NodeData> listNodeData;
+
+    query = entityManager.createNamedQuery(queryName);
+
+    if (parameterName != null) {
+      query.setParameter(parameterName, parameterValue);
+    }
+
+    listNodeData = query.getResultList();
+
+    if (!listNodeData.isEmpty()) {
+      query = entityManager.createNamedQuery(queryName + "PluginDefConfig");
+
+      if (parameterName != null) {
+        query.setParameter(parameterName, parameterValue);
+      }
+
+      query.getResultList();
+
+      for(NodeData nodeData: listNodeData) {
+        nodeData.initPayload();
+      }
+    }
+
+    return listNodeData;
+  }
+
   public Map<String, PropertyDefConfig> getMapPropertyDefConfig() {
     return this.mapPropertyDefConfig;
   }
@@ -158,6 +665,42 @@ class NodeData {
     return this.mapPluginDefConfig;
   }
 
+  /**
+   * Returns a {@link PluginDefConfig} using the index built by
+   * {@link #buildReadStructures}, without allocating anything.
+   *
+   * @param classNodePlugin Class of the {@link NodePlugin}.
+   * @param pluginId Plugin ID. Can be null.
+   * @return PluginDefConfig. null if none.
+   */
+  public PluginDefConfig getPluginDefConfig(Class<? extends NodePlugin> classNodePlugin, String pluginId) {
+    PluginIdIndex pluginIdIndex;
+
+    pluginIdIndex = this.mapPluginIdIndex.get(classNodePlugin);
+
+    if (pluginIdIndex == null) {
+      return null;
+    }
+
+    if (pluginId == null) {
+      return pluginIdIndex.pluginDefConfigDefaultPluginId;
+    }
+
+    if (pluginIdIndex.mapPluginDefConfig == null) {
+      return null;
+    }
+
+    return pluginIdIndex.mapPluginDefConfig.get(pluginId);
+  }
+
+  public List<PropertyDefConfig> getUnmodifiableListPropertyDefConfig() {
+    return this.unmodifiableListPropertyDefConfig;
+  }
+
+  public List<PluginDefConfig> getUnmodifiableListPluginDefConfig() {
+    return this.unmodifiableListPluginDefConfig;
+  }
+
   public Timestamp getTimestampLastMod() {
     return this.timestampLastMod;
   }
@@ -165,4 +708,12 @@ class NodeData {
   public void setTimestampLastMod(Timestamp timestampLastMod) {
     this.timestampLastMod = timestampLastMod;
   }
+
+  /**
+   * @return Version. There is no setter since the version is maintained by the
+   *   JPA provider.
+   */
+  public long getVersion() {
+    return this.version;
+  }
 }
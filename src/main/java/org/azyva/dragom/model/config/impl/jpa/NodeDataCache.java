@@ -0,0 +1,337 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Cache of {@link NodeData} which can be shared among many {@link JpaConfig}
+ * instances accessing the same DB (the same EntityManagerFactory), for instance
+ * when a single JVM instance is used for multiple tool executions.
+ * <p>
+ * What is cached is the List of child NodeData of a given parent NodeData, keyed
+ * by the ID of the parent. This is what {@link JpaClassificationNodeConfig} needs
+ * when loading its children. The root NodeData is cached as the only child of a
+ * null parent.
+ * <p>
+ * An entry is valid only for the revision of the parent NodeData for which it was
+ * loaded, as identified by its version. But creating, deleting or renaming a
+ * child does not modify its parent, so that entries must also be invalidated
+ * based on the {@link NodeDataChange} recorded for the children:
+ * <ul>
+ * <li>By {@link JpaBatchSession} when it commits modifications
+ * <li>By {@link JpaConfig#refresh} for the modifications it sees, generally
+ *     performed by other JVMs
+ * <li>By {@link #invalidateChanges}, called when a JpaConfig first accesses the
+ *     DB, for all modifications committed since the previous call
+ * </ul>
+ * Between these, an entry can be stale relative to the DB, in the same way as
+ * the tree loaded by a JpaConfig which is not refreshed.
+ * <p>
+ * Modifications are applied to new NodeData instances, not to those shared
+ * through the cache, which are therefore never modified once loaded. This is
+ * what makes sharing them among JpaConfig instances safe. Their path can become
+ * stale if an ancestor is renamed, but it is not used once loaded.
+ * <p>
+ * This class implements the statistics. Subclasses implement the storage and
+ * eviction policy. Since NodeData is not public, subclasses can only be
+ * implemented within this package. See {@link LruNodeDataCache}.
+ * <p>
+ * Subclasses must be thread-safe.
+ *
+ * @author David Raymond
+ */
+public abstract class NodeDataCache {
+  /**
+   * Cache entry.
+   */
+  static class Entry {
+    /**
+     * Version of the parent NodeData for which the entry was loaded. Not used for
+     * the root entry.
+     */
+    long versionParent;
+
+    /**
+     * List of child NodeData.
+     */
+    List<NodeData> listNodeDataChild;
+
+    /**
+     * Constructor.
+     *
+     * @param versionParent Version of the parent.
+     * @param listNodeDataChild List of child NodeData.
+     */
+    Entry(long versionParent, List<NodeData> listNodeDataChild) {
+      this.versionParent = versionParent;
+      this.listNodeDataChild = listNodeDataChild;
+    }
+  }
+
+  /**
+   * Key used for the entry containing the root NodeData. NodeData IDs are always
+   * positive.
+   */
+  static final int KEY_ROOT = -1;
+
+  /**
+   * Sequence of the last {@link NodeDataChange} seen by {@link #invalidateChanges}.
+   * -1 if it was never called.
+   * <p>
+   * Accessed only while synchronized on {@link #objectLockChange}.
+   */
+  private long sequenceChange = -1;
+
+  /**
+   * Lock for {@link #invalidateChanges}, distinct from the NodeDataCache itself so
+   * that the statistics can be updated while the DB is accessed.
+   */
+  private final Object objectLockChange = new Object();
+
+  /**
+   * Number of hits.
+   */
+  private volatile long hitCount;
+
+  /**
+   * Number of misses.
+   */
+  private volatile long missCount;
+
+  /**
+   * Number of evictions.
+   */
+  private volatile long evictionCount;
+
+  /**
+   * Number of invalidations.
+   */
+  private volatile long invalidationCount;
+
+  /**
+   * Returns the List of child {@link NodeData} of a parent NodeData.
+   *
+   * @param nodeDataParent Parent NodeData. null to get the List containing the
+   *   root NodeData.
+   * @return List of child NodeData. null if not cached or if the entry does not
+   *   correspond to the revision of nodeDataParent. Must not be modified.
+   */
+  List<NodeData> getListNodeDataChild(NodeData nodeDataParent) {
+    Entry entry;
+    int key;
+
+    key = NodeDataCache.getKey(nodeDataParent);
+
+    entry = this.get(key);
+
+    if ((entry != null) && (nodeDataParent != null) && (nodeDataParent.getVersion() != entry.versionParent)) {
+      this.remove(key);
+      entry = null;
+    }
+
+    synchronized(this) {
+      if (entry == null) {
+        this.missCount++;
+      } else {
+        this.hitCount++;
+      }
+    }
+
+    return (entry == null) ? null : entry.listNodeDataChild;
+  }
+
+  /**
+   * Caches the List of child {@link NodeData} of a parent NodeData.
+   *
+   * @param nodeDataParent Parent NodeData. null for the List containing the root
+   *   NodeData.
+   * @param listNodeDataChild List of child NodeData. Must not be modified
+   *   afterwards.
+   */
+  void putListNodeDataChild(NodeData nodeDataParent, List<NodeData> listNodeDataChild) {
+    this.put(NodeDataCache.getKey(nodeDataParent), new Entry(nodeDataParent == null ? 0 : nodeDataParent.getVersion(), listNodeDataChild));
+  }
+
+  /**
+   * Invalidates the List of child {@link NodeData} of a parent NodeData.
+   *
+   * @param nodeDataParent Parent NodeData. null for the List containing the root
+   *   NodeData.
+   */
+  void invalidate(NodeData nodeDataParent) {
+    if (this.remove(NodeDataCache.getKey(nodeDataParent))) {
+      synchronized(this) {
+        this.invalidationCount++;
+      }
+    }
+  }
+
+  /**
+   * Invalidates the List of child {@link NodeData} of a parent NodeData
+   * identified by its ID.
+   *
+   * @param idNodeDataParent ID of the parent NodeData. null for the List
+   *   containing the root NodeData.
+   */
+  void invalidate(Integer idNodeDataParent) {
+    if (this.remove(idNodeDataParent == null ? NodeDataCache.KEY_ROOT : idNodeDataParent)) {
+      synchronized(this) {
+        this.invalidationCount++;
+      }
+    }
+  }
+
+  /**
+   * Invalidates the entries affected by the {@link NodeDataChange} committed since
+   * the previous call, including those committed by other JVMs.
+   * <p>
+   * Called by {@link JpaConfig} before it first loads NodeData, so that it does
+   * not get entries which are stale relative to the DB at that time.
+   * <p>
+   * The first call clears the NodeDataCache since it cannot know which entries
+   * are stale. So does a call after NodeDataChange not seen yet were purged.
+   *
+   * @param entityManager EntityManager.
+   */
+  @SuppressWarnings("unchecked")
+  void invalidateChanges(EntityManager entityManager) {
+    Query query;
+    NodeDataChangeSequence nodeDataChangeSequence;
+
+    synchronized(this.objectLockChange) {
+      if (this.sequenceChange >= 0) {
+        query = entityManager.createNamedQuery("getNodeDataChangeSince");
+        query.setParameter("sequence", this.sequenceChange);
+
+        for(NodeDataChange nodeDataChange: (List<NodeDataChange>)query.getResultList()) {
+          // The NodeData itself is invalidated in case it was deleted.
+          this.invalidate(nodeDataChange.getIdNodeDataParent());
+          this.invalidate(nodeDataChange.getIdNodeData());
+          this.sequenceChange = nodeDataChange.getSequenceChange();
+        }
+      }
+
+      // Read after the NodeDataChange so that a purge performed in the meantime is
+      // detected.
+      nodeDataChangeSequence = NodeDataChangeSequence.get(entityManager);
+
+      if (nodeDataChangeSequence == null) {
+        this.sequenceChange = Math.max(this.sequenceChange, 0);
+      } else if ((this.sequenceChange < 0) || (nodeDataChangeSequence.getSequencePurged() > this.sequenceChange)) {
+        this.clear();
+        this.sequenceChange = nodeDataChangeSequence.getSequenceLast();
+      }
+    }
+  }
+
+  /**
+   * Called by subclasses when an entry is evicted.
+   *
+   * @param count Number of evicted entries.
+   */
+  protected synchronized void recordEviction(int count) {
+    this.evictionCount += count;
+  }
+
+  /**
+   * @return Number of hits.
+   */
+  public long getHitCount() {
+    return this.hitCount;
+  }
+
+  /**
+   * @return Number of misses.
+   */
+  public long getMissCount() {
+    return this.missCount;
+  }
+
+  /**
+   * @return Number of entries evicted to respect the size bound.
+   */
+  public long getEvictionCount() {
+    return this.evictionCount;
+  }
+
+  /**
+   * @return Number of entries explicitly invalidated.
+   */
+  public long getInvalidationCount() {
+    return this.invalidationCount;
+  }
+
+  /**
+   * Resets the statistics.
+   */
+  public synchronized void resetStatistics() {
+    this.hitCount = 0;
+    this.missCount = 0;
+    this.evictionCount = 0;
+    this.invalidationCount = 0;
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public abstract void clear();
+
+  /**
+   * @return Size of the cache, roughly corresponding to the number of
+   *   {@link NodeData} cached. The exact meaning depends on the subclass.
+   */
+  public abstract int getSize();
+
+  /**
+   * Returns an entry.
+   *
+   * @param key Key.
+   * @return Entry. null if none.
+   */
+  abstract Entry get(int key);
+
+  /**
+   * Adds or replaces an entry, evicting other entries as necessary.
+   *
+   * @param key Key.
+   * @param entry Entry.
+   */
+  abstract void put(int key, Entry entry);
+
+  /**
+   * Removes an entry.
+   *
+   * @param key Key.
+   * @return Indicates if an entry was removed.
+   */
+  abstract boolean remove(int key);
+
+  /**
+   * @param nodeDataParent Parent NodeData. Can be null.
+   * @return Key of the entry for the parent NodeData.
+   */
+  private static int getKey(NodeData nodeDataParent) {
+    return (nodeDataParent == null) ? NodeDataCache.KEY_ROOT : nodeDataParent.getId();
+  }
+}
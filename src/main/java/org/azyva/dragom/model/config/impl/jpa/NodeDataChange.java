@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.sql.Timestamp;
+
+/**
+ * Entity recording a change to a {@link NodeData}, used to refresh
+ * {@link JpaConfig} instances in other JVMs accessing the same DB.
+ *
+ * <p>A row is inserted by {@link JpaBatchSession} for each NodeData which is
+ * created, updated or deleted, within the same transaction. The type of change
+ * is not recorded since the current state of the NodeData is reloaded when
+ * refreshing, and a NodeData which cannot be reloaded was deleted.
+ *
+ * <p>All NodeDataChange of a transaction have the same sequence, assigned in
+ * commit order by {@link NodeDataChangeSequence}. Readers track the highest
+ * sequence they have seen. The timestamp is used only to purge old rows.
+ *
+ * @author David Raymond
+ */
+class NodeDataChange {
+  /**
+   * Id.
+   */
+  private long id;
+
+  /**
+   * ID of the changed NodeData.
+   */
+  private int idNodeData;
+
+  /**
+   * ID of the parent of the changed NodeData. null for the root NodeData.
+   */
+  private Integer idNodeDataParent;
+
+  /**
+   * Sequence of the transaction which recorded the change. See
+   * {@link NodeDataChangeSequence}.
+   */
+  private long sequenceChange;
+
+  /**
+   * Timestamp of the change.
+   */
+  private Timestamp timestampChange;
+
+  /**
+   * Default constructor.
+   *
+   * <p>Required for JPA.
+   */
+  protected NodeDataChange() {
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param idNodeData ID of the changed NodeData.
+   * @param idNodeDataParent ID of the parent of the changed NodeData. null for the
+   *   root NodeData.
+   * @param timestampChange Timestamp of the change.
+   */
+  public NodeDataChange(int idNodeData, Integer idNodeDataParent, Timestamp timestampChange) {
+    this.idNodeData = idNodeData;
+    this.idNodeDataParent = idNodeDataParent;
+    this.timestampChange = timestampChange;
+  }
+
+  public long getId() {
+    return this.id;
+  }
+
+  public int getIdNodeData() {
+    return this.idNodeData;
+  }
+
+  public Integer getIdNodeDataParent() {
+    return this.idNodeDataParent;
+  }
+
+  public long getSequenceChange() {
+    return this.sequenceChange;
+  }
+
+  /**
+   * @param sequenceChange Sequence of the transaction which recorded the
+   *   change.
+   */
+  void setSequenceChange(long sequenceChange) {
+    this.sequenceChange = sequenceChange;
+  }
+
+  public Timestamp getTimestampChange() {
+    return this.timestampChange;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+/**
+ * Entity holding the sequence assigned to the {@link NodeDataChange} recorded by
+ * each transaction, in the order in which the transactions are committed.
+ *
+ * <p>There is a single row, which is locked by each writing transaction just
+ * before it is committed. The lock is held until the commit, so that the
+ * sequence of a transaction is assigned only once all transactions with a lower
+ * sequence are committed. A reader which has seen all NodeDataChange up to a
+ * given sequence therefore knows that any NodeDataChange committed afterwards
+ * has a higher sequence, without depending on the clocks of the writers nor on
+ * the duration of their transactions. Only the commits are serialized, not the
+ * writes which precede them.
+ *
+ * <p>The row is created by the first writing transaction, which is the one
+ * creating the root NodeData. Two such transactions running concurrently would
+ * conflict anyway.
+ *
+ * <p>Also records the highest sequence purged (see
+ * {@link JpaConfig#purgeChanges}), so that readers which have not seen all
+ * NodeDataChange up to it can detect that some are missing.
+ *
+ * @author David Raymond
+ */
+class NodeDataChangeSequence {
+  /**
+   * ID of the single row.
+   */
+  static final int ID = 1;
+
+  /**
+   * Number of NodeDataChange after which the EntityManager is flushed and cleared.
+   */
+  private static final int BATCH_SIZE = 50;
+
+  /**
+   * Id. Always {@link #ID}.
+   */
+  private int id;
+
+  /**
+   * Sequence assigned to the NodeDataChange of the last committed transaction. 0
+   * if none.
+   */
+  private long sequenceLast;
+
+  /**
+   * Highest sequence of the purged NodeDataChange. 0 if none.
+   */
+  private long sequencePurged;
+
+  /**
+   * Default constructor.
+   *
+   * <p>Required for JPA.
+   */
+  protected NodeDataChangeSequence() {
+  }
+
+  /**
+   * Returns the NodeDataChangeSequence without locking it.
+   *
+   * @param entityManager EntityManager.
+   * @return NodeDataChangeSequence. null if no change was ever recorded.
+   */
+  static NodeDataChangeSequence get(EntityManager entityManager) {
+    return entityManager.find(NodeDataChangeSequence.class, NodeDataChangeSequence.ID);
+  }
+
+  /**
+   * Returns the NodeDataChangeSequence locked until the end of the current
+   * transaction.
+   *
+   * @param entityManager EntityManager.
+   * @return NodeDataChangeSequence. null if no change was ever recorded.
+   */
+  static NodeDataChangeSequence getLocked(EntityManager entityManager) {
+    return entityManager.find(NodeDataChangeSequence.class, NodeDataChangeSequence.ID, LockModeType.PESSIMISTIC_WRITE);
+  }
+
+  /**
+   * Assigns the next sequence to the NodeDataChange of the current transaction
+   * and persists them.
+   *
+   * <p>Must be called last within the transaction, just before it is committed,
+   * since the NodeDataChangeSequence remains locked until then. The
+   * EntityManager is flushed and cleared periodically.
+   *
+   * @param entityManager EntityManager.
+   * @param listNodeDataChange List of NodeDataChange.
+   */
+  static void persistListNodeDataChange(EntityManager entityManager, List<NodeDataChange> listNodeDataChange) {
+    long sequence;
+    int count;
+
+    if (listNodeDataChange.isEmpty()) {
+      return;
+    }
+
+    sequence = NodeDataChangeSequence.lockNextSequence(entityManager);
+
+    count = 0;
+
+    for(NodeDataChange nodeDataChange: listNodeDataChange) {
+      nodeDataChange.setSequenceChange(sequence);
+      entityManager.persist(nodeDataChange);
+
+      if ((++count % NodeDataChangeSequence.BATCH_SIZE) == 0) {
+        entityManager.flush();
+        entityManager.clear();
+      }
+    }
+  }
+
+  /**
+   * Locks the NodeDataChangeSequence until the end of the current transaction
+   * and assigns the next sequence to the transaction.
+   *
+   * <p>Since no other transaction can assign a sequence until the current one
+   * ends, sequences follow the order of the commits. The NodeDataChange of the
+   * current transaction must all be assigned the returned sequence.
+   *
+   * @param entityManager EntityManager.
+   * @return Sequence of the current transaction.
+   */
+  static long lockNextSequence(EntityManager entityManager) {
+    NodeDataChangeSequence nodeDataChangeSequence;
+    long sequence;
+
+    // Pending writes are flushed before locking so that the lock is held as
+    // briefly as possible.
+    entityManager.flush();
+
+    nodeDataChangeSequence = NodeDataChangeSequence.getLocked(entityManager);
+
+    if (nodeDataChangeSequence == null) {
+      nodeDataChangeSequence = new NodeDataChangeSequence();
+      nodeDataChangeSequence.id = NodeDataChangeSequence.ID;
+      entityManager.persist(nodeDataChangeSequence);
+    }
+
+    sequence = ++nodeDataChangeSequence.sequenceLast;
+
+    // The NodeDataChangeSequence must be written before it is detached.
+    entityManager.flush();
+
+    return sequence;
+  }
+
+  public long getSequenceLast() {
+    return this.sequenceLast;
+  }
+
+  public long getSequencePurged() {
+    return this.sequencePurged;
+  }
+
+  /**
+   * @param sequencePurged Highest sequence of the purged NodeDataChange.
+   */
+  void setSequencePurged(long sequencePurged) {
+    this.sequencePurged = sequencePurged;
+  }
+}
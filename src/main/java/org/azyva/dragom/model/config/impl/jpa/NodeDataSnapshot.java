@@ -0,0 +1,487 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.azyva.dragom.model.config.PluginDefConfig;
+import org.azyva.dragom.model.config.PropertyDefConfig;
+import org.azyva.dragom.model.config.impl.simple.SimplePluginDefConfig;
+import org.azyva.dragom.model.config.impl.simple.SimplePropertyDefConfig;
+import org.azyva.dragom.model.plugin.NodePlugin;
+
+/**
+ * Reads and writes snapshots of the whole tree of {@link NodeData} in a compact
+ * binary format.
+ * <p>
+ * The format is:
+ * <ul>
+ * <li>Magic number and format version
+ * <li>Sequence of the last {@link NodeDataChange} committed before the NodeData
+ *     were obtained from the DB, used by {@link JpaConfig#refresh} to apply the
+ *     modifications performed since
+ * <li>String table. All names and values are written once and then referenced
+ *     by index, since the same property names and plugin classes are repeated
+ *     on most NodeData
+ * <li>NodeData, each parent before its children, with their
+ *     {@link PropertyDefConfig} and {@link PluginDefConfig}
+ * </ul>
+ * Snapshots are read by memory-mapping the file. They are written to a
+ * temporary file which then atomically replaces the snapshot, so that a process
+ * reading the snapshot never sees a partially written file.
+ * <p>
+ * The path of the NodeData is not stored since it is rebuilt from the names.
+ *
+ * @author David Raymond
+ */
+class NodeDataSnapshot {
+  /**
+   * Magic number identifying a snapshot file ("DRGS").
+   */
+  private static final int MAGIC = 0x44524753;
+
+  /**
+   * Version of the format. Must be incremented when the format changes, so that
+   * older snapshots are rejected.
+   */
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * Index used for null strings.
+   */
+  private static final int INDEX_NULL = -1;
+
+  /**
+   * ID used for the parent of the root NodeData.
+   */
+  private static final int ID_NONE = -1;
+
+  /**
+   * Sequence of the last NodeDataChange committed before the NodeData were
+   * obtained from the DB.
+   */
+  long sequence;
+
+  /**
+   * Root NodeData. null if the snapshot is empty.
+   */
+  NodeData nodeDataRoot;
+
+  /**
+   * Map of NodeData IDs to their List of child NodeData. Only NodeData having
+   * children are present.
+   */
+  Map<Integer, List<NodeData>> mapListNodeDataChild;
+
+  /**
+   * Constructor.
+   */
+  private NodeDataSnapshot() {
+  }
+
+  /**
+   * Writes a snapshot.
+   * <p>
+   * NodeData which are not reachable from the root are not written.
+   * <p>
+   * The snapshot is written to a temporary file in the same directory which is
+   * then moved atomically to file. If writing fails, file is left as it was.
+   *
+   * @param file File.
+   * @param sequence Sequence of the last NodeDataChange committed before the
+   *   NodeData were obtained from the DB.
+   * @param listNodeData List of all NodeData.
+   */
+  static void write(File file, long sequence, List<NodeData> listNodeData) {
+    NodeData nodeDataRoot;
+    Map<Integer, List<NodeData>> mapListNodeDataChild;
+    List<NodeData> listNodeDataOrdered;
+    Deque<NodeData> dequeNodeData;
+    Map<String, Integer> mapStringIndex;
+    List<String> listString;
+    File fileTemp;
+    DataOutputStream dataOutputStream;
+
+    nodeDataRoot = null;
+    mapListNodeDataChild = new HashMap<Integer, List<NodeData>>();
+
+    for(NodeData nodeData: listNodeData) {
+      if (nodeData.getIdNodeDataParent() == null) {
+        nodeDataRoot = nodeData;
+      } else {
+        List<NodeData> listNodeDataChild;
+
+        listNodeDataChild = mapListNodeDataChild.get(nodeData.getIdNodeDataParent());
+
+        if (listNodeDataChild == null) {
+          listNodeDataChild = new ArrayList<NodeData>();
+          mapListNodeDataChild.put(nodeData.getIdNodeDataParent(), listNodeDataChild);
+        }
+
+        listNodeDataChild.add(nodeData);
+      }
+    }
+
+    // Breadth-first so that each parent is written before its children.
+    listNodeDataOrdered = new ArrayList<NodeData>();
+    dequeNodeData = new ArrayDeque<NodeData>();
+
+    if (nodeDataRoot != null) {
+      dequeNodeData.add(nodeDataRoot);
+    }
+
+    while (!dequeNodeData.isEmpty()) {
+      NodeData nodeData;
+      List<NodeData> listNodeDataChild;
+
+      nodeData = dequeNodeData.remove();
+      listNodeDataOrdered.add(nodeData);
+
+      listNodeDataChild = mapListNodeDataChild.get(nodeData.getId());
+
+      if (listNodeDataChild != null) {
+        dequeNodeData.addAll(listNodeDataChild);
+      }
+    }
+
+    mapStringIndex = new HashMap<String, Integer>();
+    listString = new ArrayList<String>();
+
+    for(NodeData nodeData: listNodeDataOrdered) {
+      NodeDataSnapshot.registerString(nodeData.getName(), mapStringIndex, listString);
+
+      for(PropertyDefConfig propertyDefConfig: nodeData.getUnmodifiableListPropertyDefConfig()) {
+        NodeDataSnapshot.registerString(propertyDefConfig.getName(), mapStringIndex, listString);
+        NodeDataSnapshot.registerString(propertyDefConfig.getValue(), mapStringIndex, listString);
+      }
+
+      for(PluginDefConfig pluginDefConfig: nodeData.getUnmodifiableListPluginDefConfig()) {
+        NodeDataSnapshot.registerString(pluginDefConfig.getClassNodePlugin().getName(), mapStringIndex, listString);
+        NodeDataSnapshot.registerString(pluginDefConfig.getPluginId(), mapStringIndex, listString);
+        NodeDataSnapshot.registerString(pluginDefConfig.getPluginClass(), mapStringIndex, listString);
+      }
+    }
+
+    fileTemp = null;
+    dataOutputStream = null;
+
+    try {
+      fileTemp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileTemp)));
+
+      dataOutputStream.writeInt(NodeDataSnapshot.MAGIC);
+      dataOutputStream.writeInt(NodeDataSnapshot.FORMAT_VERSION);
+      dataOutputStream.writeLong(sequence);
+
+      dataOutputStream.writeInt(listString.size());
+
+      for(String string: listString) {
+        byte[] arrayByte;
+
+        arrayByte = string.getBytes(StandardCharsets.UTF_8);
+        dataOutputStream.writeInt(arrayByte.length);
+        dataOutputStream.write(arrayByte);
+      }
+
+      dataOutputStream.writeInt(listNodeDataOrdered.size());
+
+      for(NodeData nodeData: listNodeDataOrdered) {
+        List<PropertyDefConfig> listPropertyDefConfig;
+        List<PluginDefConfig> listPluginDefConfig;
+
+        dataOutputStream.writeInt(nodeData.getId());
+        dataOutputStream.writeInt(nodeData.getIdNodeDataParent() == null ? NodeDataSnapshot.ID_NONE : nodeData.getIdNodeDataParent());
+        dataOutputStream.writeByte(nodeData.getType());
+        dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(nodeData.getName(), mapStringIndex));
+        dataOutputStream.writeLong(nodeData.getVersion());
+        dataOutputStream.writeLong(nodeData.getTimestampLastMod().getTime());
+
+        listPropertyDefConfig = nodeData.getUnmodifiableListPropertyDefConfig();
+        dataOutputStream.writeInt(listPropertyDefConfig.size());
+
+        for(PropertyDefConfig propertyDefConfig: listPropertyDefConfig) {
+          dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(propertyDefConfig.getName(), mapStringIndex));
+          dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(propertyDefConfig.getValue(), mapStringIndex));
+          dataOutputStream.writeBoolean(propertyDefConfig.isOnlyThisNode());
+        }
+
+        listPluginDefConfig = nodeData.getUnmodifiableListPluginDefConfig();
+        dataOutputStream.writeInt(listPluginDefConfig.size());
+
+        for(PluginDefConfig pluginDefConfig: listPluginDefConfig) {
+          dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(pluginDefConfig.getClassNodePlugin().getName(), mapStringIndex));
+          dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(pluginDefConfig.getPluginId(), mapStringIndex));
+          dataOutputStream.writeInt(NodeDataSnapshot.getStringIndex(pluginDefConfig.getPluginClass(), mapStringIndex));
+          dataOutputStream.writeBoolean(pluginDefConfig.isOnlyThisNode());
+        }
+      }
+
+      // Closed before being moved so that all the data is written.
+      dataOutputStream.close();
+      dataOutputStream = null;
+
+      Files.move(fileTemp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      fileTemp = null;
+    } catch (IOException ioe) {
+      throw new RuntimeException("Could not write snapshot " + file + '.', ioe);
+    } finally {
+      if (dataOutputStream != null) {
+        try {
+          dataOutputStream.close();
+        } catch (IOException ioe) {
+        }
+      }
+
+      if (fileTemp != null) {
+        fileTemp.delete();
+      }
+    }
+  }
+
+  /**
+   * Reads a snapshot.
+   * <p>
+   * The NodeData are not managed by any EntityManager.
+   *
+   * @param file File.
+   * @return NodeDataSnapshot.
+   */
+  static NodeDataSnapshot read(File file) {
+    RandomAccessFile randomAccessFile;
+    ByteBuffer byteBuffer;
+
+    randomAccessFile = null;
+
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+
+      // The mapping remains valid after the file is closed.
+      byteBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+    } catch (IOException ioe) {
+      throw new RuntimeException("Could not read snapshot " + file + '.', ioe);
+    } finally {
+      if (randomAccessFile != null) {
+        try {
+          randomAccessFile.close();
+        } catch (IOException ioe) {
+        }
+      }
+    }
+
+    try {
+      return NodeDataSnapshot.read(file, byteBuffer);
+    } catch (BufferUnderflowException bue) {
+      throw new RuntimeException("Snapshot " + file + " is corrupted: it is truncated. It must be exported again.", bue);
+    }
+  }
+
+  /**
+   * Reads a snapshot from its content.
+   * <p>
+   * {@link BufferUnderflowException} is thrown if the content is truncated.
+   *
+   * @param file File. Used only for error messages.
+   * @param byteBuffer Content of the file.
+   * @return NodeDataSnapshot.
+   */
+  @SuppressWarnings("unchecked")
+  private static NodeDataSnapshot read(File file, ByteBuffer byteBuffer) {
+    NodeDataSnapshot nodeDataSnapshot;
+    String[] arrayString;
+    int count;
+    Map<Integer, NodeData> mapNodeData;
+    ClassAttributeConverter classAttributeConverter;
+
+    if (byteBuffer.getInt() != NodeDataSnapshot.MAGIC) {
+      throw new RuntimeException("File " + file + " is not a snapshot.");
+    }
+
+    if (byteBuffer.getInt() != NodeDataSnapshot.FORMAT_VERSION) {
+      throw new RuntimeException("Snapshot " + file + " has an unsupported format version. It must be exported again.");
+    }
+
+    nodeDataSnapshot = new NodeDataSnapshot();
+    nodeDataSnapshot.sequence = byteBuffer.getLong();
+    nodeDataSnapshot.mapListNodeDataChild = new HashMap<Integer, List<NodeData>>();
+
+    arrayString = new String[NodeDataSnapshot.getLength(file, byteBuffer)];
+
+    for(int i = 0; i < arrayString.length; i++) {
+      byte[] arrayByte;
+
+      arrayByte = new byte[NodeDataSnapshot.getLength(file, byteBuffer)];
+      byteBuffer.get(arrayByte);
+      arrayString[i] = new String(arrayByte, StandardCharsets.UTF_8);
+    }
+
+    count = byteBuffer.getInt();
+    mapNodeData = new HashMap<Integer, NodeData>();
+    classAttributeConverter = new ClassAttributeConverter();
+
+    for(int i = 0; i < count; i++) {
+      int id;
+      int idParent;
+      NodeData nodeDataParent;
+      char type;
+      String name;
+      long version;
+      Timestamp timestampLastMod;
+      List<PropertyDefConfig> listPropertyDefConfig;
+      List<PluginDefConfig> listPluginDefConfig;
+      int countDefConfig;
+      NodeData nodeData;
+
+      id = byteBuffer.getInt();
+      idParent = byteBuffer.getInt();
+
+      if (idParent == NodeDataSnapshot.ID_NONE) {
+        nodeDataParent = null;
+      } else {
+        nodeDataParent = mapNodeData.get(idParent);
+
+        if (nodeDataParent == null) {
+          throw new RuntimeException("Snapshot " + file + " is corrupted: parent NodeData " + idParent + " of NodeData " + id + " not found.");
+        }
+      }
+
+      type = (char)byteBuffer.get();
+      name = NodeDataSnapshot.getString(arrayString, byteBuffer.getInt());
+      version = byteBuffer.getLong();
+      timestampLastMod = new Timestamp(byteBuffer.getLong());
+
+      countDefConfig = byteBuffer.getInt();
+      listPropertyDefConfig = new ArrayList<PropertyDefConfig>(countDefConfig);
+
+      for(int j = 0; j < countDefConfig; j++) {
+        String propertyName;
+        String value;
+
+        propertyName = NodeDataSnapshot.getString(arrayString, byteBuffer.getInt());
+        value = NodeDataSnapshot.getString(arrayString, byteBuffer.getInt());
+        listPropertyDefConfig.add(new SimplePropertyDefConfig(propertyName, value, byteBuffer.get() != 0));
+      }
+
+      countDefConfig = byteBuffer.getInt();
+      listPluginDefConfig = new ArrayList<PluginDefConfig>(countDefConfig);
+
+      for(int j = 0; j < countDefConfig; j++) {
+        Class<? extends NodePlugin> classNodePlugin;
+        String pluginId;
+        String pluginClass;
+
+        // Goes through ClassAttributeConverter to benefit from its cache.
+        classNodePlugin = (Class<? extends NodePlugin>)classAttributeConverter.convertToEntityAttribute(NodeDataSnapshot.getString(arrayString, byteBuffer.getInt()));
+        pluginId = NodeDataSnapshot.getString(arrayString, byteBuffer.getInt());
+        pluginClass = NodeDataSnapshot.getString(arrayString, byteBuffer.getInt());
+        listPluginDefConfig.add(new SimplePluginDefConfig(classNodePlugin, pluginId, pluginClass, byteBuffer.get() != 0));
+      }
+
+      nodeData = new NodeData(id, type, nodeDataParent, name, version, timestampLastMod, listPropertyDefConfig, listPluginDefConfig);
+      mapNodeData.put(id, nodeData);
+
+      if (nodeDataParent == null) {
+        nodeDataSnapshot.nodeDataRoot = nodeData;
+      } else {
+        List<NodeData> listNodeDataChild;
+
+        listNodeDataChild = nodeDataSnapshot.mapListNodeDataChild.get(idParent);
+
+        if (listNodeDataChild == null) {
+          listNodeDataChild = new ArrayList<NodeData>();
+          nodeDataSnapshot.mapListNodeDataChild.put(idParent, listNodeDataChild);
+        }
+
+        listNodeDataChild.add(nodeData);
+      }
+    }
+
+    return nodeDataSnapshot;
+  }
+
+  /**
+   * Reads a length which is followed by at least as many bytes, so that a
+   * corrupted length does not cause a huge allocation.
+   *
+   * @param file File. Used only for error messages.
+   * @param byteBuffer Content of the file.
+   * @return Length.
+   */
+  private static int getLength(File file, ByteBuffer byteBuffer) {
+    int length;
+
+    length = byteBuffer.getInt();
+
+    if ((length < 0) || (length > byteBuffer.remaining())) {
+      throw new RuntimeException("Snapshot " + file + " is corrupted: invalid length " + length + ". It must be exported again.");
+    }
+
+    return length;
+  }
+
+  /**
+   * Registers a string in the string table, if not already registered.
+   *
+   * @param string String. Can be null.
+   * @param mapStringIndex Map of strings to their index.
+   * @param listString List of strings.
+   */
+  private static void registerString(String string, Map<String, Integer> mapStringIndex, List<String> listString) {
+    if ((string != null) && !mapStringIndex.containsKey(string)) {
+      mapStringIndex.put(string, listString.size());
+      listString.add(string);
+    }
+  }
+
+  /**
+   * @param string String. Can be null.
+   * @param mapStringIndex Map of strings to their index.
+   * @return Index of the string.
+   */
+  private static int getStringIndex(String string, Map<String, Integer> mapStringIndex) {
+    return (string == null) ? NodeDataSnapshot.INDEX_NULL : mapStringIndex.get(string);
+  }
+
+  /**
+   * @param arrayString String table.
+   * @param index Index.
+   * @return String. null if index is INDEX_NULL.
+   */
+  private static String getString(String[] arrayString, int index) {
+    return (index == NodeDataSnapshot.INDEX_NULL) ? null : arrayString[index];
+  }
+}
@@ -19,18 +19,21 @@
 
 package org.azyva.dragom.model.support.jpa;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
 
-import org.azyva.dragom.execcontext.plugin.CredentialStorePlugin;
 import org.azyva.dragom.model.Model;
 import org.azyva.dragom.model.ModelFactory;
 import org.azyva.dragom.model.config.impl.jpa.JpaConfig;
-import org.azyva.dragom.model.config.impl.xml.XmlConfig;
 import org.azyva.dragom.model.impl.DefaultModel;
 import org.azyva.dragom.util.Util;
 
@@ -39,9 +42,16 @@ import org.azyva.dragom.util.Util;
  * configuration stored in a DB using {@link JpaConfig}. {@link DefaultModel} is
  * used as the Model implementation.
  * <p>
- * A static Map of ??? to Model instances is used in order to reuse Model
- * instances. This is useful in case a single JVM instance is used for multiple
- * tool executions.
+ * A static Map of persistence units (and JDBC URL and DB user, if specified) to
+ * Model instances is used in order to reuse Model instances. This is useful in case a
+ * single JVM instance is used for multiple tool executions. Concurrent callers
+ * requesting the same Model while it is being built wait for that single build
+ * instead of building their own.
+ * <p>
+ * The {@link EntityManagerFactory} for a given persistence unit is also reused
+ * when the Model is rebuilt after having been invalidated. It is never closed
+ * since Model instances which were already returned may still need it to lazily
+ * load configuration.
  * <p>
  * The following initialization properties are used:
  * <ul>
@@ -50,70 +60,212 @@ import org.azyva.dragom.util.Util;
  * <li>DB_USER: DB user
  * <li>DB_PASSWORD: DB password
  * </ul>
- * If the user or password are not provided, they are obtained from the
- * {@link CredentialStorePlugin}.
+ * JDBC_URL, DB_USER and DB_PASSWORD are optional and override the corresponding
+ * standard properties of the persistence unit.
+ * <p>
+ * Since the Model and EntityManagerFactory are reused for a given persistence
+ * unit, JDBC URL and DB user, callers specifying the same ones must specify the
+ * same DB_PASSWORD. Otherwise they get the Model built with the password of the
+ * first caller.
  *
  * @author David Raymond
  */
 public class JpaModelFactory implements ModelFactory {
   /**
-   * Initialization property specifying the model URL.
-   *
-   * <p>As a convenience, this can also be a file path, relative or absolute.
+   * Initialization property specifying the JPA persistence unit.
+   */
+  private static final String INIT_PROPERTY_PERSISTENCE_UNIT = "PERSISTENCE_UNIT";
+
+  /**
+   * Initialization property specifying the JDBC URL of the DB.
+   */
+  private static final String INIT_PROPERTY_JDBC_URL = "JDBC_URL";
+
+  /**
+   * Initialization property specifying the DB user.
    */
-  private static final String INIT_PROPERTY_URL_MODEL = "PERSISTENCE_UNIT";
+  private static final String INIT_PROPERTY_DB_USER = "DB_USER";
 
   /**
-   * Map of URLs (of {@link XmlConfig} XML configuration) to Model.
+   * Initialization property specifying the DB password.
    */
-  private static Map<URL, Model> mapUrlXmlConfigModel = new HashMap<URL, Model>();
+  private static final String INIT_PROPERTY_DB_PASSWORD = "DB_PASSWORD";
 
   /**
    * Initialization property indicating to ignore any cached Model and instantiate a
-   * new one, essentially causing a reload of the {@link XmlConfig}.
+   * new one, essentially causing a reload of the configuration from the DB.
    */
   private static final String INIT_PROPERTY_IND_IGNORE_CACHED_MODEL = "IND_IGNORE_CACHED_MODEL";
 
+  /**
+   * Map of keys (see {@link #getKey}) to Model.
+   * <p>
+   * The FutureTask allows concurrent callers to wait for a single build of the
+   * Model.
+   */
+  private static ConcurrentMap<String, FutureTask<Model>> mapKeyModel = new ConcurrentHashMap<String, FutureTask<Model>>();
+
+  /**
+   * Map of keys (see {@link #getKey}) to EntityManagerFactory.
+   */
+  private static ConcurrentMap<String, EntityManagerFactory> mapKeyEntityManagerFactory = new ConcurrentHashMap<String, EntityManagerFactory>();
+
   @Override
-  public Model getModel(Properties propertiesInit) {
-    String stringUrlXmlConfig;
-    boolean indIgnoreCachedModel;
-    Model model;
+  public Model getModel(final Properties propertiesInit) {
+    final String persistenceUnit;
+    final String key;
+    FutureTask<Model> futureTaskModel;
 
-    stringUrlXmlConfig = propertiesInit.getProperty(JpaModelFactory.INIT_PROP_URL_MODEL);
+    persistenceUnit = propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_PERSISTENCE_UNIT);
 
-    if (stringUrlXmlConfig == null) {
-      throw new RuntimeException("Initialization property " + JpaModelFactory.INIT_PROP_URL_MODEL + " is not defined.");
+    if (persistenceUnit == null) {
+      throw new RuntimeException("Initialization property " + JpaModelFactory.INIT_PROPERTY_PERSISTENCE_UNIT + " is not defined.");
     }
 
-    indIgnoreCachedModel = Util.isNotNullAndTrue(propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_IND_IGNORE_CACHED_MODEL));
+    key = JpaModelFactory.getKey(persistenceUnit, propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_JDBC_URL), propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_DB_USER));
 
-    if (indIgnoreCachedModel) {
-      JpaModelFactory.mapUrlXmlConfigModel.remove(stringUrlXmlConfig);
+    if (Util.isNotNullAndTrue(propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_IND_IGNORE_CACHED_MODEL))) {
+      JpaModelFactory.mapKeyModel.remove(key);
     }
 
-    model = JpaModelFactory.mapUrlXmlConfigModel.get(stringUrlXmlConfig);
+    futureTaskModel = JpaModelFactory.mapKeyModel.get(key);
 
-    if (model == null) {
-      URL urlXmlConfig;
-      XmlConfig xmlConfig;
+    if (futureTaskModel == null) {
+      FutureTask<Model> futureTaskModelNew;
 
-      try {
-        urlXmlConfig = new URL(stringUrlXmlConfig);
-      } catch (MalformedURLException mue1) {
-        try {
-          urlXmlConfig = Paths.get(stringUrlXmlConfig).toUri().toURL();
-        } catch (MalformedURLException mue2) {
-            throw new RuntimeException(mue1);
+      futureTaskModelNew = new FutureTask<Model>(new Callable<Model>() {
+        @Override
+        public Model call() {
+          return new DefaultModel(new JpaConfig(JpaModelFactory.getEntityManagerFactory(key, persistenceUnit, propertiesInit)), propertiesInit);
         }
+      });
+
+      futureTaskModel = JpaModelFactory.mapKeyModel.putIfAbsent(key, futureTaskModelNew);
+
+      if (futureTaskModel == null) {
+        futureTaskModel = futureTaskModelNew;
+        futureTaskModel.run();
       }
+    }
+
+    try {
+      return futureTaskModel.get();
+    } catch (ExecutionException ee) {
+      // The failed build must not remain cached so that a subsequent call can
+      // retry. remove(key, value) ensures we do not remove a newer build.
+      JpaModelFactory.mapKeyModel.remove(key, futureTaskModel);
 
-      xmlConfig = XmlConfig.load(urlXmlConfig);
-      model = new DefaultModel(xmlConfig, propertiesInit);
+      if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)ee.getCause();
+      }
 
-      JpaModelFactory.mapUrlXmlConfigModel.put(urlXmlConfig, model);
+      throw new RuntimeException(ee.getCause());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ie);
     }
+  }
+
+  /**
+   * Invalidates the cached Model for a persistence unit so that the next call to
+   * {@link #getModel} builds a new one.
+   * <p>
+   * Model instances already returned are not affected.
+   *
+   * @param persistenceUnit Persistence unit.
+   * @param jdbcUrl JDBC URL, as specified with the JDBC_URL initialization
+   *   property. Can be null.
+   * @param dbUser DB user, as specified with the DB_USER initialization property.
+   *   Can be null.
+   */
+  public static void invalidateModel(String persistenceUnit, String jdbcUrl, String dbUser) {
+    JpaModelFactory.mapKeyModel.remove(JpaModelFactory.getKey(persistenceUnit, jdbcUrl, dbUser));
+  }
+
+  /**
+   * Invalidates the cached Model for a persistence unit when no DB user is
+   * specified.
+   *
+   * @param persistenceUnit Persistence unit.
+   * @param jdbcUrl JDBC URL, as specified with the JDBC_URL initialization
+   *   property. Can be null.
+   */
+  public static void invalidateModel(String persistenceUnit, String jdbcUrl) {
+    JpaModelFactory.invalidateModel(persistenceUnit, jdbcUrl, null);
+  }
+
+  /**
+   * Invalidates all cached Model's.
+   */
+  public static void invalidateAllModels() {
+    JpaModelFactory.mapKeyModel.clear();
+  }
+
+  /**
+   * The DB user is part of the key since it overrides that of the persistence
+   * unit when creating the EntityManagerFactory, so that callers with different
+   * users do not share a Model.
+   *
+   * @param persistenceUnit Persistence unit.
+   * @param jdbcUrl JDBC URL. Can be null.
+   * @param dbUser DB user. Can be null.
+   * @return Key within {@link #mapKeyModel} and
+   *   {@link #mapKeyEntityManagerFactory}.
+   */
+  private static String getKey(String persistenceUnit, String jdbcUrl, String dbUser) {
+    if ((jdbcUrl == null) && (dbUser == null)) {
+      return persistenceUnit;
+    } else {
+      return persistenceUnit + '|' + (jdbcUrl == null ? "" : jdbcUrl) + '|' + (dbUser == null ? "" : dbUser);
+    }
+  }
+
+  /**
+   * Returns the EntityManagerFactory for a key, creating it if required.
+   * <p>
+   * Synchronized so that no more than one EntityManagerFactory is created per
+   * key, even if a Model is invalidated while being built.
+   *
+   * @param key Key.
+   * @param persistenceUnit Persistence unit.
+   * @param propertiesInit Initialization properties.
+   * @return EntityManagerFactory.
+   */
+  private static synchronized EntityManagerFactory getEntityManagerFactory(String key, String persistenceUnit, Properties propertiesInit) {
+    EntityManagerFactory entityManagerFactory;
+    Map<String, String> mapProperty;
+    String value;
+
+    entityManagerFactory = JpaModelFactory.mapKeyEntityManagerFactory.get(key);
+
+    if (entityManagerFactory != null) {
+      return entityManagerFactory;
+    }
+
+    mapProperty = new HashMap<String, String>();
+
+    value = propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_JDBC_URL);
+
+    if (value != null) {
+      mapProperty.put("javax.persistence.jdbc.url", value);
+    }
+
+    value = propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_DB_USER);
+
+    if (value != null) {
+      mapProperty.put("javax.persistence.jdbc.user", value);
+    }
+
+    value = propertiesInit.getProperty(JpaModelFactory.INIT_PROPERTY_DB_PASSWORD);
+
+    if (value != null) {
+      mapProperty.put("javax.persistence.jdbc.password", value);
+    }
+
+    entityManagerFactory = Persistence.createEntityManagerFactory(persistenceUnit, mapProperty);
+
+    JpaModelFactory.mapKeyEntityManagerFactory.put(key, entityManagerFactory);
 
-    return model;
+    return entityManagerFactory;
   }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.DuplicateNodeException;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that duplicate {@link MutableNodeConfig}'s which are not detected in
+ * memory are detected by the DB and reported as {@link DuplicateNodeException}.
+ *
+ * @author David Raymond
+ */
+public class JpaBatchSessionDuplicateTest {
+  /**
+   * EntityManagerFactory of the JpaConfig which creates the DB.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * EntityManagerFactory over the same DB, simulating another JVM.
+   */
+  private EntityManagerFactory entityManagerFactoryOther;
+
+  /**
+   * Classification "domain".
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    String dbName;
+
+    dbName = TestDatabase.createDbName();
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory(dbName, true);
+    this.entityManagerFactoryOther = TestDatabase.createEntityManagerFactory(dbName, false);
+
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory)), "domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "existing", "1");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactoryOther.close();
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * @return Number of NodeData in the DB.
+   */
+  private long countNodeData() {
+    EntityManager entityManager;
+
+    entityManager = this.entityManagerFactory.createEntityManager();
+
+    try {
+      return (Long)entityManager.createQuery("SELECT COUNT(nodeData) FROM NodeData nodeData").getSingleResult();
+    } finally {
+      entityManager.close();
+    }
+  }
+
+  @Test
+  public void testDuplicateWithinBatchSession() {
+    JpaBatchSession jpaBatchSession;
+    MutableNodeConfig mutableNodeConfig1;
+    MutableNodeConfig mutableNodeConfig2;
+
+    jpaBatchSession = new JpaConfig(this.entityManagerFactory).createBatchSession();
+
+    // Neither is known to the parent before the commit, so the duplicate can only
+    // be detected by the DB.
+    mutableNodeConfig1 = this.mutableClassificationNodeConfigDomain.createChildMutableModuleConfig();
+    mutableNodeConfig2 = this.mutableClassificationNodeConfigDomain.createChildMutableModuleConfig();
+    jpaBatchSession.setNodeConfigTransferObject(mutableNodeConfig1, TestDatabase.createNodeConfigTransferObject("module", "1"), null);
+    jpaBatchSession.setNodeConfigTransferObject(mutableNodeConfig2, TestDatabase.createNodeConfigTransferObject("module", "2"), null);
+
+    try {
+      jpaBatchSession.commit();
+      fail();
+    } catch (DuplicateNodeException dne) {
+    }
+
+    // The transaction is rolled back and the JpaNodeConfig's are not modified.
+    assertEquals(3, this.countNodeData());
+    assertNull(this.mutableClassificationNodeConfigDomain.getNodeConfigChild("module"));
+    assertTrue(mutableNodeConfig1.isNew());
+    assertTrue(mutableNodeConfig2.isNew());
+  }
+
+  @Test
+  public void testDuplicateFromOtherJvm() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigDomainOther;
+
+    // The other JVM has all the children loaded before the creation below, so
+    // that its check in memory does not detect the duplicate.
+    mutableClassificationNodeConfigDomainOther = (MutableClassificationNodeConfig)new JpaConfig(this.entityManagerFactoryOther).getNodeConfigByPath("domain");
+    assertEquals(1, mutableClassificationNodeConfigDomainOther.getListChildNodeConfig().size());
+
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "module", "1");
+
+    try {
+      TestDatabase.createModule(mutableClassificationNodeConfigDomainOther, "module", "2");
+      fail();
+    } catch (DuplicateNodeException dne) {
+    }
+
+    assertEquals(4, this.countNodeData());
+    assertNull(mutableClassificationNodeConfigDomainOther.getNodeConfigChild("module"));
+    assertNotNull(new JpaConfig(this.entityManagerFactoryOther).getNodeConfigByPath("domain/module"));
+  }
+}
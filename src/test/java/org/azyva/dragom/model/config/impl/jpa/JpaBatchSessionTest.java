@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the modifications to many siblings within a {@link JpaBatchSession}
+ * are reflected in the children of their parent.
+ *
+ * @author David Raymond
+ */
+public class JpaBatchSessionTest {
+  /**
+   * Number of modules created within the JpaBatchSession.
+   */
+  private static final int MODULE_COUNT = 100;
+
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * JpaConfig.
+   */
+  private JpaConfig jpaConfig;
+
+  /**
+   * Classification "domain".
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+    this.jpaConfig = new JpaConfig(this.entityManagerFactory);
+
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(this.jpaConfig), "domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "renamed", "1");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "deleted", "1");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  @Test
+  public void testManySiblings() {
+    JpaBatchSession jpaBatchSession;
+    List<MutableNodeConfig> listMutableNodeConfig;
+    MutableNodeConfig mutableNodeConfigRenamed;
+    List<NodeConfig> listNodeConfig;
+
+    jpaBatchSession = this.jpaConfig.createBatchSession();
+    listMutableNodeConfig = new ArrayList<MutableNodeConfig>();
+
+    // Created in reverse order so that the order of the children does not simply
+    // follow the order of creation.
+    for(int i = JpaBatchSessionTest.MODULE_COUNT - 1; i >= 0; i--) {
+      MutableNodeConfig mutableNodeConfig;
+
+      mutableNodeConfig = this.mutableClassificationNodeConfigDomain.createChildMutableModuleConfig();
+      jpaBatchSession.setNodeConfigTransferObject(mutableNodeConfig, TestDatabase.createNodeConfigTransferObject(String.format("module-%03d", i), Integer.toString(i)), null);
+      listMutableNodeConfig.add(mutableNodeConfig);
+    }
+
+    mutableNodeConfigRenamed = (MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("renamed");
+    jpaBatchSession.delete((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("deleted"));
+    jpaBatchSession.setNodeConfigTransferObject(mutableNodeConfigRenamed, TestDatabase.createNodeConfigTransferObject("a-renamed", "2"), null);
+
+    jpaBatchSession.commit();
+
+    listNodeConfig = this.mutableClassificationNodeConfigDomain.getListChildNodeConfig();
+    assertEquals(JpaBatchSessionTest.MODULE_COUNT + 1, listNodeConfig.size());
+    assertSame(mutableNodeConfigRenamed, listNodeConfig.get(0));
+    assertNull(this.mutableClassificationNodeConfigDomain.getNodeConfigChild("renamed"));
+    assertNull(this.mutableClassificationNodeConfigDomain.getNodeConfigChild("deleted"));
+
+    for(int i = 0; i < JpaBatchSessionTest.MODULE_COUNT; i++) {
+      assertSame(listMutableNodeConfig.get(JpaBatchSessionTest.MODULE_COUNT - 1 - i), listNodeConfig.get(i + 1));
+    }
+
+    assertEquals(JpaBatchSessionTest.MODULE_COUNT + 1, ((MutableClassificationNodeConfig)new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("domain")).getListChildNodeConfig().size());
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the deletion of a subtree by {@link JpaClassificationNodeConfig}.
+ *
+ * @author David Raymond
+ */
+public class JpaClassificationNodeConfigDeleteTest {
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * JpaConfig.
+   */
+  private JpaConfig jpaConfig;
+
+  /**
+   * Classification "domain", which is deleted.
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigRoot;
+    MutableClassificationNodeConfig mutableClassificationNodeConfigSubDomain;
+
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+    this.jpaConfig = new JpaConfig(this.entityManagerFactory);
+
+    mutableClassificationNodeConfigRoot = TestDatabase.createRoot(this.jpaConfig);
+    TestDatabase.createModule(mutableClassificationNodeConfigRoot, "kept", "1");
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(mutableClassificationNodeConfigRoot, "domain");
+    mutableClassificationNodeConfigSubDomain = TestDatabase.createClassification(this.mutableClassificationNodeConfigDomain, "sub-domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "module", "1");
+    TestDatabase.createModule(mutableClassificationNodeConfigSubDomain, "module", "1");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDeleteSubtree() {
+    EntityManager entityManager;
+    Set<Integer> setIdNodeDataSubtree;
+    long sequenceBefore;
+    Set<Integer> setIdNodeDataChange;
+
+    entityManager = this.entityManagerFactory.createEntityManager();
+
+    try {
+      setIdNodeDataSubtree = new HashSet<Integer>(entityManager.createQuery("SELECT nodeData.id FROM NodeData nodeData WHERE nodeData.path LIKE '/domain/%'").getResultList());
+      assertEquals(4, setIdNodeDataSubtree.size());
+      sequenceBefore = NodeDataChangeSequence.get(entityManager).getSequenceLast();
+    } finally {
+      entityManager.close();
+    }
+
+    this.mutableClassificationNodeConfigDomain.delete();
+
+    assertNull(this.jpaConfig.getClassificationNodeConfigRoot().getNodeConfigChild("domain"));
+
+    entityManager = this.entityManagerFactory.createEntityManager();
+
+    try {
+      assertEquals(2L, entityManager.createQuery("SELECT COUNT(nodeData) FROM NodeData nodeData").getSingleResult());
+      assertEquals(1L, ((Number)entityManager.createNativeQuery("SELECT COUNT(*) FROM NODE_DATA_PROPERTY").getSingleResult()).longValue());
+
+      // A NodeDataChange is recorded for every deleted NodeData.
+      setIdNodeDataChange = new HashSet<Integer>();
+
+      for(NodeDataChange nodeDataChange: (List<NodeDataChange>)entityManager.createNamedQuery("getNodeDataChangeSince").setParameter("sequence", sequenceBefore).getResultList()) {
+        setIdNodeDataChange.add(nodeDataChange.getIdNodeData());
+      }
+
+      assertEquals(setIdNodeDataSubtree, setIdNodeDataChange);
+    } finally {
+      entityManager.close();
+    }
+
+    assertNotNull(new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("kept"));
+    assertNull(new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("domain/sub-domain/module"));
+  }
+}
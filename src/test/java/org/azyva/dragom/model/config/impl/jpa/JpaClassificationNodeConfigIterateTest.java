@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the iteration over the children page by page by
+ * {@link JpaClassificationNodeConfig#iterateChildNodeConfig}, in particular at
+ * the boundaries of the pages.
+ *
+ * @author David Raymond
+ */
+public class JpaClassificationNodeConfigIterateTest {
+  /**
+   * Page size.
+   */
+  private static final int PAGE_SIZE = 3;
+
+  /**
+   * Numbers of children for which the iteration is tested: none, less than a
+   * page, exactly one page, one more than a page and exactly many pages.
+   */
+  private static final int[] arrayChildCount = {0, 1, JpaClassificationNodeConfigIterateTest.PAGE_SIZE - 1, JpaClassificationNodeConfigIterateTest.PAGE_SIZE, JpaClassificationNodeConfigIterateTest.PAGE_SIZE + 1, 3 * JpaClassificationNodeConfigIterateTest.PAGE_SIZE};
+
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  @Before
+  public void setUp() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigRoot;
+
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+
+    mutableClassificationNodeConfigRoot = TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory));
+
+    for(int childCount: JpaClassificationNodeConfigIterateTest.arrayChildCount) {
+      MutableClassificationNodeConfig mutableClassificationNodeConfig;
+
+      mutableClassificationNodeConfig = TestDatabase.createClassification(mutableClassificationNodeConfigRoot, "count-" + childCount);
+
+      // Created in reverse order so that the order of the iteration does not
+      // simply follow the order of creation.
+      for(int i = childCount - 1; i >= 0; i--) {
+        TestDatabase.createModule(mutableClassificationNodeConfig, JpaClassificationNodeConfigIterateTest.getModuleName(i), Integer.toString(i));
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * @param index Index of the module.
+   * @return Name of the module, such that the names are sorted as the indexes.
+   */
+  private static String getModuleName(int index) {
+    return String.format("module-%02d", index);
+  }
+
+  /**
+   * Iterates over the children of a classification of a new JpaConfig, whose
+   * children are not loaded, and verifies they are all returned once, in order.
+   *
+   * @param childCount Number of children of the classification.
+   * @param indCache See {@link JpaClassificationNodeConfig#iterateChildNodeConfig}.
+   */
+  private void iterate(int childCount, boolean indCache) {
+    JpaClassificationNodeConfig jpaClassificationNodeConfig;
+    Iterator<NodeConfig> iteratorNodeConfig;
+    List<NodeConfig> listNodeConfig;
+
+    jpaClassificationNodeConfig = (JpaClassificationNodeConfig)new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("count-" + childCount);
+    iteratorNodeConfig = jpaClassificationNodeConfig.iterateChildNodeConfig(JpaClassificationNodeConfigIterateTest.PAGE_SIZE, indCache);
+    listNodeConfig = new ArrayList<NodeConfig>();
+
+    while (iteratorNodeConfig.hasNext()) {
+      listNodeConfig.add(iteratorNodeConfig.next());
+    }
+
+    assertEquals("count-" + childCount, childCount, listNodeConfig.size());
+
+    for(int i = 0; i < childCount; i++) {
+      assertEquals(JpaClassificationNodeConfigIterateTest.getModuleName(i), listNodeConfig.get(i).getName());
+      assertEquals(Integer.toString(i), listNodeConfig.get(i).getPropertyDefConfig("PROPERTY").getValue());
+
+      if (indCache) {
+        assertSame(listNodeConfig.get(i), jpaClassificationNodeConfig.getJpaNodeConfigChildIfLoaded(listNodeConfig.get(i).getName()));
+      } else {
+        // The children returned are not referenced by the parent.
+        assertNull(jpaClassificationNodeConfig.getJpaNodeConfigChildIfLoaded(listNodeConfig.get(i).getName()));
+      }
+    }
+
+    assertFalse(iteratorNodeConfig.hasNext());
+
+    try {
+      iteratorNodeConfig.next();
+      fail();
+    } catch (NoSuchElementException nsee) {
+    }
+  }
+
+  @Test
+  public void testIterateCached() {
+    for(int childCount: JpaClassificationNodeConfigIterateTest.arrayChildCount) {
+      this.iterate(childCount, true);
+    }
+  }
+
+  @Test
+  public void testIterateUncached() {
+    for(int childCount: JpaClassificationNodeConfigIterateTest.arrayChildCount) {
+      this.iterate(childCount, false);
+    }
+  }
+
+  @Test
+  public void testIterateLoaded() {
+    JpaClassificationNodeConfig jpaClassificationNodeConfig;
+    Iterator<NodeConfig> iteratorNodeConfig;
+
+    // Children already completely loaded are simply iterated.
+    jpaClassificationNodeConfig = (JpaClassificationNodeConfig)new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("count-" + (JpaClassificationNodeConfigIterateTest.PAGE_SIZE + 1));
+    jpaClassificationNodeConfig.getListChildNodeConfig();
+    iteratorNodeConfig = jpaClassificationNodeConfig.iterateChildNodeConfig(JpaClassificationNodeConfigIterateTest.PAGE_SIZE, false);
+
+    for(int i = 0; i <= JpaClassificationNodeConfigIterateTest.PAGE_SIZE; i++) {
+      assertSame(jpaClassificationNodeConfig.getNodeConfigChild(JpaClassificationNodeConfigIterateTest.getModuleName(i)), iteratorNodeConfig.next());
+    }
+
+    assertFalse(iteratorNodeConfig.hasNext());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the lookup of a single child by name by
+ * {@link JpaClassificationNodeConfig#getNodeConfigChild}.
+ *
+ * @author David Raymond
+ */
+public class JpaClassificationNodeConfigLookupTest {
+  /**
+   * Number of modules within the classification "domain".
+   */
+  private static final int MODULE_COUNT = 20;
+
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  @Before
+  public void setUp() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+
+    mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory)), "domain");
+
+    for(int i = 0; i < JpaClassificationNodeConfigLookupTest.MODULE_COUNT; i++) {
+      TestDatabase.createModule(mutableClassificationNodeConfigDomain, "module-" + i, Integer.toString(i));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * @return Classification "domain" of a new JpaConfig, whose children are not
+   *   loaded.
+   */
+  private JpaClassificationNodeConfig getJpaClassificationNodeConfigDomain() {
+    return (JpaClassificationNodeConfig)new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("domain");
+  }
+
+  @Test
+  public void testLookupWithoutSiblings() {
+    JpaClassificationNodeConfig jpaClassificationNodeConfigDomain;
+    NodeConfig nodeConfig;
+
+    jpaClassificationNodeConfigDomain = this.getJpaClassificationNodeConfigDomain();
+
+    nodeConfig = jpaClassificationNodeConfigDomain.getNodeConfigChild("module-3");
+    assertEquals("3", nodeConfig.getPropertyDefConfig("PROPERTY").getValue());
+    assertSame(nodeConfig, jpaClassificationNodeConfigDomain.getNodeConfigChild("module-3"));
+    assertNull(jpaClassificationNodeConfigDomain.getNodeConfigChild("unknown"));
+
+    assertNull(jpaClassificationNodeConfigDomain.getJpaNodeConfigChildIfLoaded("module-4"));
+    assertFalse(jpaClassificationNodeConfigDomain.isChildNodeConfigComplete());
+
+    // The partial snapshot is completed without replacing the known child.
+    assertEquals(JpaClassificationNodeConfigLookupTest.MODULE_COUNT, jpaClassificationNodeConfigDomain.getListChildNodeConfig().size());
+    assertSame(nodeConfig, jpaClassificationNodeConfigDomain.getNodeConfigChild("module-3"));
+  }
+
+  @Test
+  public void testConcurrentLookups() throws Exception {
+    final JpaClassificationNodeConfig jpaClassificationNodeConfigDomain;
+    ExecutorService executorService;
+    List<Future<NodeConfig>> listFuture;
+
+    jpaClassificationNodeConfigDomain = this.getJpaClassificationNodeConfigDomain();
+    executorService = Executors.newFixedThreadPool(8);
+    listFuture = new ArrayList<Future<NodeConfig>>();
+
+    try {
+      for(int i = 0; i < 4 * JpaClassificationNodeConfigLookupTest.MODULE_COUNT; i++) {
+        final String name;
+
+        name = "module-" + (i % JpaClassificationNodeConfigLookupTest.MODULE_COUNT);
+
+        listFuture.add(executorService.submit(new Callable<NodeConfig>() {
+          @Override
+          public NodeConfig call() {
+            return jpaClassificationNodeConfigDomain.getNodeConfigChild(name);
+          }
+        }));
+      }
+
+      // Threads looking up the same child concurrently all get the same instance.
+      for(int i = 0; i < listFuture.size(); i++) {
+        NodeConfig nodeConfig;
+
+        nodeConfig = listFuture.get(i).get();
+        assertNotNull(nodeConfig);
+        assertSame(jpaClassificationNodeConfigDomain.getNodeConfigChild(nodeConfig.getName()), nodeConfig);
+        assertEquals("module-" + (i % JpaClassificationNodeConfigLookupTest.MODULE_COUNT), nodeConfig.getName());
+      }
+    } finally {
+      executorService.shutdown();
+    }
+
+    assertEquals(JpaClassificationNodeConfigLookupTest.MODULE_COUNT, jpaClassificationNodeConfigDomain.getListChildNodeConfig().size());
+  }
+}
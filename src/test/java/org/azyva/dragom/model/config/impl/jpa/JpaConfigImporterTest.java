@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link JpaConfigImporter}.
+ *
+ * @author David Raymond
+ */
+public class JpaConfigImporterTest {
+  /**
+   * Number of modules within the classification "domain". More than a batch so
+   * that the EntityManager is flushed and cleared during the import.
+   */
+  private static final int MODULE_COUNT = 120;
+
+  /**
+   * EntityManagerFactory of the source JpaConfig.
+   */
+  private EntityManagerFactory entityManagerFactorySource;
+
+  /**
+   * EntityManagerFactory of the JpaConfig into which to import.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * Source JpaConfig.
+   */
+  private JpaConfig jpaConfigSource;
+
+  @Before
+  public void setUp() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+    this.entityManagerFactorySource = TestDatabase.createEntityManagerFactory();
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+
+    this.jpaConfigSource = new JpaConfig(this.entityManagerFactorySource);
+    mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(this.jpaConfigSource), "domain");
+
+    for(int i = 0; i < JpaConfigImporterTest.MODULE_COUNT; i++) {
+      TestDatabase.createModule(mutableClassificationNodeConfigDomain, "module-" + i, Integer.toString(i));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+    this.entityManagerFactorySource.close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testImport() {
+    JpaConfig jpaConfig;
+    EntityManager entityManager;
+    List<NodeDataChange> listNodeDataChange;
+
+    jpaConfig = new JpaConfig(this.entityManagerFactory);
+
+    assertEquals(JpaConfigImporterTest.MODULE_COUNT + 2, new JpaConfigImporter(jpaConfig).importConfig(this.jpaConfigSource));
+
+    assertEquals(JpaConfigImporterTest.MODULE_COUNT, ((ClassificationNodeConfig)jpaConfig.getNodeConfigByPath("domain")).getListChildNodeConfig().size());
+    assertEquals("7", jpaConfig.getNodeConfigByPath("domain/module-7").getPropertyDefConfig("PROPERTY").getValue());
+
+    entityManager = this.entityManagerFactory.createEntityManager();
+
+    try {
+      // A NodeDataChange is recorded for every NodeData, all with the same
+      // sequence.
+      listNodeDataChange = entityManager.createNamedQuery("getNodeDataChangeSince").setParameter("sequence", 0L).getResultList();
+      assertEquals(JpaConfigImporterTest.MODULE_COUNT + 2, listNodeDataChange.size());
+
+      for(NodeDataChange nodeDataChange: listNodeDataChange) {
+        assertEquals(NodeDataChangeSequence.get(entityManager).getSequenceLast(), nodeDataChange.getSequenceChange());
+      }
+    } finally {
+      entityManager.close();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the read-only JpaConfig created by
+ * {@link JpaConfig#createReadOnly(EntityManagerProvider)} and
+ * {@link JpaConfig#createReadOnly(File)}.
+ *
+ * @author David Raymond
+ */
+public class JpaConfigReadOnlyTest {
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  @Before
+  public void setUp() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+
+    mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory)), "domain");
+    TestDatabase.createModule(mutableClassificationNodeConfigDomain, "module-1", "1");
+    TestDatabase.createModule(mutableClassificationNodeConfigDomain, "module-2", "2");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  @Test
+  public void testCreateReadOnlyFromFile() throws Exception {
+    File file;
+    JpaConfig jpaConfig;
+
+    file = File.createTempFile("dragom-snapshot", ".bin");
+
+    try {
+      JpaConfig.createReadOnly(new EntityManagerProvider(this.entityManagerFactory)).exportSnapshot(file);
+
+      jpaConfig = JpaConfig.createReadOnly(file);
+
+      // Performed in memory since there is no EntityManagerProvider.
+      assertEquals(1, jpaConfig.getListNodeConfigByProperty("PROPERTY", "2").size());
+      assertEquals("module-2", jpaConfig.getListNodeConfigByProperty("PROPERTY", "2").get(0).getName());
+
+      try {
+        jpaConfig.exportSnapshot(file);
+        fail();
+      } catch (RuntimeException re) {
+        assertTrue(re.getMessage().contains("snapshot file"));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCreateReadOnlyFromTruncatedFile() throws Exception {
+    File file;
+    RandomAccessFile randomAccessFile;
+
+    file = File.createTempFile("dragom-snapshot", ".bin");
+
+    try {
+      JpaConfig.createReadOnly(new EntityManagerProvider(this.entityManagerFactory)).exportSnapshot(file);
+
+      randomAccessFile = new RandomAccessFile(file, "rw");
+
+      try {
+        randomAccessFile.setLength(randomAccessFile.length() / 2);
+      } finally {
+        randomAccessFile.close();
+      }
+
+      try {
+        JpaConfig.createReadOnly(file);
+        fail();
+      } catch (RuntimeException re) {
+        assertTrue(re.getMessage().contains("corrupted"));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.NodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link JpaConfig#refresh} with two EntityManagerFactory's over the same
+ * DB, simulating two JVMs.
+ *
+ * @author David Raymond
+ */
+public class JpaConfigRefreshTest {
+  /**
+   * EntityManagerFactory of the JpaConfig performing the modifications.
+   */
+  private EntityManagerFactory entityManagerFactoryWriter;
+
+  /**
+   * EntityManagerFactory of the JpaConfig being refreshed.
+   */
+  private EntityManagerFactory entityManagerFactoryReader;
+
+  /**
+   * JpaConfig performing the modifications.
+   */
+  private JpaConfig jpaConfigWriter;
+
+  /**
+   * Root of {@link #jpaConfigWriter}.
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigRoot;
+
+  /**
+   * Classification "domain" of {@link #jpaConfigWriter}.
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    String dbName;
+
+    dbName = TestDatabase.createDbName();
+    this.entityManagerFactoryWriter = TestDatabase.createEntityManagerFactory(dbName, true);
+    this.entityManagerFactoryReader = TestDatabase.createEntityManagerFactory(dbName, false);
+
+    this.jpaConfigWriter = new JpaConfig(this.entityManagerFactoryWriter);
+    this.mutableClassificationNodeConfigRoot = TestDatabase.createRoot(this.jpaConfigWriter);
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(this.mutableClassificationNodeConfigRoot, "domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "updated", "1");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "renamed", "1");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "deleted", "1");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactoryReader.close();
+    this.entityManagerFactoryWriter.close();
+  }
+
+  /**
+   * Modifies the modules of the classification "domain" of
+   * {@link #jpaConfigWriter}. 4 modifications are performed.
+   */
+  private void modify() {
+    ((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("updated")).setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("updated", "2"), null);
+    ((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("renamed")).setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("renamed-new", "1"), null);
+    ((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("deleted")).delete();
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "added", "1");
+  }
+
+  /**
+   * Verifies the modifications performed by {@link #modify} are reflected.
+   *
+   * @param classificationNodeConfigDomain Classification "domain".
+   */
+  private static void assertModified(ClassificationNodeConfig classificationNodeConfigDomain) {
+    assertEquals("2", classificationNodeConfigDomain.getNodeConfigChild("updated").getPropertyDefConfig("PROPERTY").getValue());
+    assertNull(classificationNodeConfigDomain.getNodeConfigChild("renamed"));
+    assertNotNull(classificationNodeConfigDomain.getNodeConfigChild("renamed-new"));
+    assertNull(classificationNodeConfigDomain.getNodeConfigChild("deleted"));
+    assertNotNull(classificationNodeConfigDomain.getNodeConfigChild("added"));
+    assertEquals(3, classificationNodeConfigDomain.getListChildNodeConfig().size());
+  }
+
+  @Test
+  public void testRefreshBulkLoaded() {
+    JpaConfig jpaConfigReader;
+    ClassificationNodeConfig classificationNodeConfigDomain;
+
+    jpaConfigReader = new JpaConfig(this.entityManagerFactoryReader, true);
+    classificationNodeConfigDomain = (ClassificationNodeConfig)jpaConfigReader.getNodeConfigByPath("domain");
+    assertEquals(3, classificationNodeConfigDomain.getListChildNodeConfig().size());
+
+    assertEquals(0, jpaConfigReader.refresh());
+
+    this.modify();
+
+    assertEquals(4, jpaConfigReader.refresh());
+    JpaConfigRefreshTest.assertModified(classificationNodeConfigDomain);
+
+    // Changes already seen are not applied again.
+    assertEquals(0, jpaConfigReader.refresh());
+  }
+
+  @Test
+  public void testRefreshLazilyLoaded() {
+    JpaConfig jpaConfigReader;
+    ClassificationNodeConfig classificationNodeConfigDomain;
+    NodeConfig nodeConfigUpdated;
+
+    jpaConfigReader = new JpaConfig(this.entityManagerFactoryReader);
+    classificationNodeConfigDomain = (ClassificationNodeConfig)jpaConfigReader.getClassificationNodeConfigRoot().getNodeConfigChild("domain");
+    nodeConfigUpdated = classificationNodeConfigDomain.getNodeConfigChild("updated");
+
+    this.modify();
+
+    jpaConfigReader.refresh();
+    assertEquals("2", nodeConfigUpdated.getPropertyDefConfig("PROPERTY").getValue());
+    JpaConfigRefreshTest.assertModified(classificationNodeConfigDomain);
+  }
+
+  @Test
+  public void testRefreshFromSnapshot() throws Exception {
+    File file;
+    JpaConfig jpaConfigReader;
+
+    file = File.createTempFile("dragom-snapshot", ".bin");
+
+    try {
+      new JpaConfig(this.entityManagerFactoryReader).exportSnapshot(file);
+
+      this.modify();
+
+      jpaConfigReader = new JpaConfig(this.entityManagerFactoryReader, true);
+      jpaConfigReader.loadSnapshot(file);
+      assertEquals(3, ((ClassificationNodeConfig)jpaConfigReader.getNodeConfigByPath("domain")).getListChildNodeConfig().size());
+
+      assertEquals(4, jpaConfigReader.refresh());
+      JpaConfigRefreshTest.assertModified((ClassificationNodeConfig)jpaConfigReader.getNodeConfigByPath("domain"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testRefreshAfterPurge() throws Exception {
+    JpaConfig jpaConfigReader;
+    ClassificationNodeConfig classificationNodeConfigDomain;
+
+    jpaConfigReader = new JpaConfig(this.entityManagerFactoryReader, true);
+    classificationNodeConfigDomain = (ClassificationNodeConfig)jpaConfigReader.getNodeConfigByPath("domain");
+
+    this.modify();
+
+    // So that all NodeDataChange are strictly older than the purge.
+    Thread.sleep(10);
+
+    assertEquals(4 + 5, this.jpaConfigWriter.purgeChanges(0));
+    assertEquals(0, this.jpaConfigWriter.purgeChanges(0));
+
+    // The reader did not see the purged NodeDataChange and falls back to reloading
+    // its loaded NodeData.
+    assertEquals(4, jpaConfigReader.refresh());
+    JpaConfigRefreshTest.assertModified(classificationNodeConfigDomain);
+    assertEquals(0, jpaConfigReader.refresh());
+  }
+}
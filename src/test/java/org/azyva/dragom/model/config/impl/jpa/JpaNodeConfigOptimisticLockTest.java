@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.OptimisticLockException;
+import org.azyva.dragom.model.config.OptimisticLockHandle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the optimistic locking of {@link JpaNodeConfig} based on the version of
+ * the {@link NodeData}.
+ *
+ * @author David Raymond
+ */
+public class JpaNodeConfigOptimisticLockTest {
+  /**
+   * EntityManagerFactory of the JpaConfig which creates the DB.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * EntityManagerFactory over the same DB, simulating another JVM.
+   */
+  private EntityManagerFactory entityManagerFactoryOther;
+
+  /**
+   * Classification "domain".
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    String dbName;
+
+    dbName = TestDatabase.createDbName();
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory(dbName, true);
+    this.entityManagerFactoryOther = TestDatabase.createEntityManagerFactory(dbName, false);
+
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory)), "domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "module", "1");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactoryOther.close();
+    this.entityManagerFactory.close();
+  }
+
+  @Test
+  public void testStaleOptimisticLockHandle() {
+    MutableNodeConfig mutableNodeConfig;
+    OptimisticLockHandle optimisticLockHandle1;
+    OptimisticLockHandle optimisticLockHandle2;
+
+    mutableNodeConfig = (MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("module");
+    optimisticLockHandle1 = mutableNodeConfig.createOptimisticLockHandle(true);
+    optimisticLockHandle2 = mutableNodeConfig.createOptimisticLockHandle(true);
+
+    mutableNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("module", "2"), optimisticLockHandle1);
+    assertFalse(mutableNodeConfig.isOptimisticLockValid(optimisticLockHandle2));
+
+    // Detected in memory before accessing the DB.
+    try {
+      mutableNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("module", "3"), optimisticLockHandle2);
+      fail();
+    } catch (OptimisticLockException ole) {
+    }
+
+    // The OptimisticLockHandle used for the update follows the new version.
+    mutableNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("module", "3"), optimisticLockHandle1);
+    assertEquals("3", mutableNodeConfig.getPropertyDefConfig("PROPERTY").getValue());
+  }
+
+  @Test
+  public void testConflictWithOtherJvm() {
+    MutableNodeConfig mutableNodeConfig;
+    OptimisticLockHandle optimisticLockHandle;
+    MutableNodeConfig mutableNodeConfigOther;
+    OptimisticLockHandle optimisticLockHandleOther;
+
+    mutableNodeConfig = (MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("module");
+    optimisticLockHandle = mutableNodeConfig.createOptimisticLockHandle(true);
+
+    mutableNodeConfigOther = (MutableNodeConfig)new JpaConfig(this.entityManagerFactoryOther).getNodeConfigByPath("domain/module");
+    optimisticLockHandleOther = mutableNodeConfigOther.createOptimisticLockHandle(true);
+
+    mutableNodeConfigOther.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("module", "2"), optimisticLockHandleOther);
+
+    // The JpaNodeConfig is not aware of the modification, which can only be
+    // detected by the DB through the version.
+    assertTrue(mutableNodeConfig.isOptimisticLockValid(optimisticLockHandle));
+
+    try {
+      mutableNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("module", "3"), optimisticLockHandle);
+      fail();
+    } catch (OptimisticLockException ole) {
+    }
+
+    assertEquals("1", mutableNodeConfig.getPropertyDefConfig("PROPERTY").getValue());
+    assertEquals("2", new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("domain/module").getPropertyDefConfig("PROPERTY").getValue());
+  }
+
+  @Test
+  public void testConcurrentCreation() {
+    MutableNodeConfig mutableNodeConfig;
+    JpaConfig jpaConfig;
+    JpaBatchSession jpaBatchSession1;
+    JpaBatchSession jpaBatchSession2;
+
+    // Two JpaBatchSession's registering the creation of the same new JpaNodeConfig
+    // must not both insert a NodeData.
+    mutableNodeConfig = this.mutableClassificationNodeConfigDomain.createChildMutableModuleConfig();
+    jpaConfig = new JpaConfig(this.entityManagerFactory);
+    jpaBatchSession1 = jpaConfig.createBatchSession();
+    jpaBatchSession2 = jpaConfig.createBatchSession();
+    jpaBatchSession1.setNodeConfigTransferObject(mutableNodeConfig, TestDatabase.createNodeConfigTransferObject("new", "1"), null);
+    jpaBatchSession2.setNodeConfigTransferObject(mutableNodeConfig, TestDatabase.createNodeConfigTransferObject("new", "2"), null);
+
+    jpaBatchSession1.commit();
+
+    try {
+      jpaBatchSession2.commit();
+      fail();
+    } catch (OptimisticLockException ole) {
+    }
+
+    assertEquals("1", mutableNodeConfig.getPropertyDefConfig("PROPERTY").getValue());
+    assertEquals(2, ((MutableClassificationNodeConfig)new JpaConfig(this.entityManagerFactoryOther).getNodeConfigByPath("domain")).getListChildNodeConfig().size());
+  }
+}
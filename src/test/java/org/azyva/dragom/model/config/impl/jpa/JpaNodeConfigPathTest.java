@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the validation of the names and paths of {@link JpaNodeConfig}.
+ *
+ * @author David Raymond
+ */
+public class JpaNodeConfigPathTest {
+  /**
+   * EntityManagerFactory.
+   */
+  private EntityManagerFactory entityManagerFactory;
+
+  /**
+   * Classification "domain".
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  @Before
+  public void setUp() {
+    this.entityManagerFactory = TestDatabase.createEntityManagerFactory();
+
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(new JpaConfig(this.entityManagerFactory)), "domain");
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactory.close();
+  }
+
+  /**
+   * @param length Length.
+   * @return Name of the given length.
+   */
+  private static String createName(int length) {
+    char[] arrayChar;
+
+    arrayChar = new char[length];
+    Arrays.fill(arrayChar, 'x');
+
+    return new String(arrayChar);
+  }
+
+  @Test
+  public void testNameWithSeparator() {
+    try {
+      TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "sub/module", null);
+      fail();
+    } catch (RuntimeException re) {
+    }
+
+    assertEquals(0, this.mutableClassificationNodeConfigDomain.getListChildNodeConfig().size());
+  }
+
+  @Test
+  public void testPathMaxLength() {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigLevel1;
+    MutableClassificationNodeConfig mutableClassificationNodeConfig;
+    int nameMaxLength;
+
+    // Names are limited to 255 characters, so that many levels are required.
+    mutableClassificationNodeConfigLevel1 = TestDatabase.createClassification(this.mutableClassificationNodeConfigDomain, JpaNodeConfigPathTest.createName(200));
+    mutableClassificationNodeConfig = TestDatabase.createClassification(mutableClassificationNodeConfigLevel1, JpaNodeConfigPathTest.createName(200));
+    mutableClassificationNodeConfig = TestDatabase.createClassification(mutableClassificationNodeConfig, JpaNodeConfigPathTest.createName(200));
+
+    // "/domain/" + 3 levels + name + "/".
+    nameMaxLength = NodeData.PATH_MAX_LENGTH - "/domain/".length() - (3 * 201) - 1;
+
+    assertNotNull(TestDatabase.createModule(mutableClassificationNodeConfig, JpaNodeConfigPathTest.createName(nameMaxLength), null));
+
+    try {
+      TestDatabase.createModule(mutableClassificationNodeConfig, JpaNodeConfigPathTest.createName(nameMaxLength + 1), null);
+      fail();
+    } catch (RuntimeException re) {
+    }
+
+    // Renaming an ancestor cannot make the path of a descendant too long either.
+    try {
+      ((MutableNodeConfig)mutableClassificationNodeConfigLevel1).setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject(JpaNodeConfigPathTest.createName(201), null), null);
+      fail();
+    } catch (RuntimeException re) {
+    }
+
+    assertNotNull(new JpaConfig(this.entityManagerFactory).getNodeConfigByPath("domain/" + JpaNodeConfigPathTest.createName(200)));
+    assertEquals(1, this.mutableClassificationNodeConfigDomain.getListChildNodeConfig().size());
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.azyva.dragom.model.config.ClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link NodeDataCache} shared by the JpaConfig of one
+ * EntityManagerFactory does not serve children which were created, deleted or
+ * renamed through another EntityManagerFactory over the same DB, simulating
+ * another JVM.
+ *
+ * @author David Raymond
+ */
+public class NodeDataCacheTest {
+  /**
+   * EntityManagerFactory of the JpaConfig sharing the NodeDataCache.
+   */
+  private EntityManagerFactory entityManagerFactoryCache;
+
+  /**
+   * EntityManagerFactory of the JpaConfig performing the modifications.
+   */
+  private EntityManagerFactory entityManagerFactoryWriter;
+
+  /**
+   * Classification "domain" of the JpaConfig performing the modifications.
+   */
+  private MutableClassificationNodeConfig mutableClassificationNodeConfigDomain;
+
+  /**
+   * NodeDataCache.
+   */
+  private NodeDataCache nodeDataCache;
+
+  @Before
+  public void setUp() {
+    String dbName;
+    JpaConfig jpaConfigWriter;
+
+    dbName = TestDatabase.createDbName();
+    this.entityManagerFactoryCache = TestDatabase.createEntityManagerFactory(dbName, true);
+    this.entityManagerFactoryWriter = TestDatabase.createEntityManagerFactory(dbName, false);
+
+    jpaConfigWriter = new JpaConfig(this.entityManagerFactoryWriter);
+    this.mutableClassificationNodeConfigDomain = TestDatabase.createClassification(TestDatabase.createRoot(jpaConfigWriter), "domain");
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "renamed", null);
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "deleted", null);
+
+    this.nodeDataCache = new LruNodeDataCache(1000);
+  }
+
+  @After
+  public void tearDown() {
+    this.entityManagerFactoryWriter.close();
+    this.entityManagerFactoryCache.close();
+  }
+
+  /**
+   * @return Classification "domain" of a new JpaConfig using the NodeDataCache.
+   */
+  private ClassificationNodeConfig getClassificationNodeConfigDomainCached() {
+    ClassificationNodeConfig classificationNodeConfigRoot;
+
+    classificationNodeConfigRoot = new JpaConfig(this.entityManagerFactoryCache, false, this.nodeDataCache).getClassificationNodeConfigRoot();
+
+    // So that the children of the root are cached as a whole.
+    classificationNodeConfigRoot.getListChildNodeConfig();
+
+    return (ClassificationNodeConfig)classificationNodeConfigRoot.getNodeConfigChild("domain");
+  }
+
+  @Test
+  public void testChildChangesInvalidateEntries() {
+    ClassificationNodeConfig classificationNodeConfigDomain;
+
+    assertEquals(2, this.getClassificationNodeConfigDomainCached().getListChildNodeConfig().size());
+
+    // Served from the NodeDataCache.
+    this.nodeDataCache.resetStatistics();
+    assertEquals(2, this.getClassificationNodeConfigDomainCached().getListChildNodeConfig().size());
+    assertEquals(0, this.nodeDataCache.getMissCount());
+
+    // None of these modify the version of the parent NodeData.
+    ((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("renamed")).setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject("renamed-new", null), null);
+    ((MutableNodeConfig)this.mutableClassificationNodeConfigDomain.getNodeConfigChild("deleted")).delete();
+    TestDatabase.createModule(this.mutableClassificationNodeConfigDomain, "added", null);
+
+    classificationNodeConfigDomain = this.getClassificationNodeConfigDomainCached();
+    assertEquals(2, classificationNodeConfigDomain.getListChildNodeConfig().size());
+    assertNull(classificationNodeConfigDomain.getNodeConfigChild("renamed"));
+    assertNotNull(classificationNodeConfigDomain.getNodeConfigChild("renamed-new"));
+    assertNull(classificationNodeConfigDomain.getNodeConfigChild("deleted"));
+    assertNotNull(classificationNodeConfigDomain.getNodeConfigChild("added"));
+  }
+}
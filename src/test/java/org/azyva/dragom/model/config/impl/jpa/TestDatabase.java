@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 - 2017 AZYVA INC. INC.
+ *
+ * This file is part of Dragom.
+ *
+ * Dragom is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Dragom is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Dragom.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.azyva.dragom.model.config.impl.jpa;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.azyva.dragom.model.config.MutableClassificationNodeConfig;
+import org.azyva.dragom.model.config.MutableNodeConfig;
+import org.azyva.dragom.model.config.NodeConfigTransferObject;
+import org.azyva.dragom.model.config.impl.simple.SimpleNodeConfigTransferObject;
+import org.azyva.dragom.model.config.impl.simple.SimplePropertyDefConfig;
+
+/**
+ * Creates EntityManagerFactory's over embedded in-memory H2 DBs for the tests,
+ * using the persistence unit of the benchmarks.
+ * <p>
+ * Many EntityManagerFactory's can be created over the same DB in order to
+ * simulate many JVMs sharing it.
+ *
+ * @author David Raymond
+ */
+final class TestDatabase {
+  /**
+   * Persistence unit defined in META-INF/persistence.xml of the benchmarks.
+   */
+  private static final String PERSISTENCE_UNIT = "dragom-benchmark";
+
+  /**
+   * Used to generate unique DB names.
+   */
+  private static final AtomicInteger dbCounter = new AtomicInteger();
+
+  /**
+   * Prevents instantiation.
+   */
+  private TestDatabase() {
+  }
+
+  /**
+   * @return Name of a new DB.
+   */
+  static String createDbName() {
+    return "dragom-test-" + TestDatabase.dbCounter.incrementAndGet();
+  }
+
+  /**
+   * Creates an EntityManagerFactory over a DB.
+   * <p>
+   * The DB lives until the last EntityManagerFactory over it is closed.
+   *
+   * @param dbName Name of the DB. See {@link #createDbName}.
+   * @param indCreateSchema Indicates to create the schema. Must be true for the
+   *   first EntityManagerFactory over the DB only.
+   * @return EntityManagerFactory.
+   */
+  static EntityManagerFactory createEntityManagerFactory(String dbName, boolean indCreateSchema) {
+    Map<String, String> mapProperty;
+
+    mapProperty = new HashMap<String, String>();
+
+    mapProperty.put("javax.persistence.jdbc.url", "jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1");
+
+    if (!indCreateSchema) {
+      mapProperty.put("javax.persistence.schema-generation.database.action", "none");
+    }
+
+    return Persistence.createEntityManagerFactory(TestDatabase.PERSISTENCE_UNIT, mapProperty);
+  }
+
+  /**
+   * Creates an EntityManagerFactory over a new empty DB.
+   *
+   * @return EntityManagerFactory.
+   */
+  static EntityManagerFactory createEntityManagerFactory() {
+    return TestDatabase.createEntityManagerFactory(TestDatabase.createDbName(), true);
+  }
+
+  /**
+   * Creates a NodeConfigTransferObject.
+   *
+   * @param name Name. null for the root ClassificationNodeConfig.
+   * @param propertyValue Value of the property "PROPERTY". null if none.
+   * @return NodeConfigTransferObject.
+   */
+  static NodeConfigTransferObject createNodeConfigTransferObject(String name, String propertyValue) {
+    NodeConfigTransferObject nodeConfigTransferObject;
+
+    nodeConfigTransferObject = new SimpleNodeConfigTransferObject();
+    nodeConfigTransferObject.setName(name);
+
+    if (propertyValue != null) {
+      nodeConfigTransferObject.setPropertyDefConfig(new SimplePropertyDefConfig("PROPERTY", propertyValue, false));
+    }
+
+    return nodeConfigTransferObject;
+  }
+
+  /**
+   * Creates the root ClassificationNodeConfig of an empty JpaConfig.
+   *
+   * @param jpaConfig JpaConfig.
+   * @return Root MutableClassificationNodeConfig.
+   */
+  static MutableClassificationNodeConfig createRoot(JpaConfig jpaConfig) {
+    MutableClassificationNodeConfig mutableClassificationNodeConfigRoot;
+
+    mutableClassificationNodeConfigRoot = jpaConfig.createMutableClassificationNodeConfigRoot();
+    mutableClassificationNodeConfigRoot.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject(null, null), null);
+
+    return mutableClassificationNodeConfigRoot;
+  }
+
+  /**
+   * Creates a child MutableClassificationNodeConfig.
+   *
+   * @param mutableClassificationNodeConfigParent Parent
+   *   MutableClassificationNodeConfig.
+   * @param name Name.
+   * @return Child MutableClassificationNodeConfig.
+   */
+  static MutableClassificationNodeConfig createClassification(MutableClassificationNodeConfig mutableClassificationNodeConfigParent, String name) {
+    MutableClassificationNodeConfig mutableClassificationNodeConfig;
+
+    mutableClassificationNodeConfig = mutableClassificationNodeConfigParent.createChildMutableClassificationNodeConfig();
+    mutableClassificationNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject(name, null), null);
+
+    return mutableClassificationNodeConfig;
+  }
+
+  /**
+   * Creates a child MutableModuleConfig.
+   *
+   * @param mutableClassificationNodeConfigParent Parent
+   *   MutableClassificationNodeConfig.
+   * @param name Name.
+   * @param propertyValue Value of the property "PROPERTY". null if none.
+   * @return Child MutableModuleConfig.
+   */
+  static MutableNodeConfig createModule(MutableClassificationNodeConfig mutableClassificationNodeConfigParent, String name, String propertyValue) {
+    MutableNodeConfig mutableNodeConfig;
+
+    mutableNodeConfig = mutableClassificationNodeConfigParent.createChildMutableModuleConfig();
+    mutableNodeConfig.setNodeConfigTransferObject(TestDatabase.createNodeConfigTransferObject(name, propertyValue), null);
+
+    return mutableNodeConfig;
+  }
+}